@@ -0,0 +1,215 @@
+package com.example.protocol;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+// 长度前缀的二进制帧协议
+// 在握手时发送 "CLIENT BINARY" / "BROKER BINARY"（文本行）协商，之后双方都只收发帧；
+// 只发送 "CLIENT" / "BROKER" 时仍使用原来的按行文本协议，方便交互式使用；
+// Broker 之间发送 "BROKER DEFLATE" 时使用二进制帧，并且成批的命令可以压缩为一个 DEFLATED 帧
+//
+// 帧格式：int32 长度（不含这 4 个字节） | uint8 操作码 | uint8 参数个数 | 每个参数：int32 长度 + 原始字节
+// 主题 ID、用户名等字符串参数使用 UTF-8 编码；PUBLISH 的消息内容和 MESSAGE 的 payload 按原始字节传输，
+// 可以包含换行和任意空白，不会被拆分或合并
+public final class BinaryProtocol {
+    public static final String MODE = "BINARY";
+    public static final String COMPRESSED_MODE = "DEFLATE";
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    // 字符串参数的编码，文本协议的命令行和响应也使用它，不随运行的机器变化
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    // 客户端发给 Broker，Broker 之间同步时也使用
+    public static final byte CREATE = 1;      // topicId topicName publisher
+    public static final byte PUBLISH = 2;     // topicId payload [seq]
+    public static final byte SHOW = 3;        // publisher
+    public static final byte DELETE = 4;      // topicId
+    public static final byte SUBSCRIBE = 5;   // topicId subscriber
+    public static final byte DISPLAY = 6;     //
+    public static final byte CURRENT = 7;     // subscriber
+    public static final byte UNSUBSCRIBE = 8; // topicId subscriber
+    public static final byte PEERS = 9;       // 查看到其他 Broker 的复制链路状态
+    public static final byte INTEREST = 10;   // topicId 1|0，或 * hashes bloomBits；只在 Broker 之间使用
+    public static final byte CREDIT = 11;     // n，授予 n 条订阅消息的额度
+    public static final byte ACKS = 12;       // intervalMicros [maxPending]，开启累计确认
+    public static final byte DEFLATED = 13;   // originalLength data，压缩后的一批命令帧；只在 Broker 之间使用
+    public static final byte STATS = 14;      // [topicId]，查看运行指标
+    public static final byte MAX_COMMAND = STATS;
+
+    // Broker 发给客户端
+    public static final byte RESPONSE = 20;   // text [seq]，seq 为对应 PUBLISH 请求的序号
+    public static final byte MESSAGE = 21;    // topicId topicName timestamp payload
+    public static final byte ACKED = 22;      // seq，该序号及之前的 PUBLISH 请求都已处理完（失败的已单独响应）
+
+    private static final String[] COMMANDS = new String[ACKED + 1];
+
+    static {
+        COMMANDS[CREATE] = "CREATE";
+        COMMANDS[PUBLISH] = "PUBLISH";
+        COMMANDS[SHOW] = "SHOW";
+        COMMANDS[DELETE] = "DELETE";
+        COMMANDS[SUBSCRIBE] = "SUBSCRIBE";
+        COMMANDS[DISPLAY] = "DISPLAY";
+        COMMANDS[CURRENT] = "CURRENT";
+        COMMANDS[UNSUBSCRIBE] = "UNSUBSCRIBE";
+        COMMANDS[PEERS] = "PEERS";
+        COMMANDS[INTEREST] = "INTEREST";
+        COMMANDS[CREDIT] = "CREDIT";
+        COMMANDS[ACKS] = "ACKS";
+        COMMANDS[DEFLATED] = "DEFLATED";
+        COMMANDS[STATS] = "STATS";
+        COMMANDS[RESPONSE] = "RESPONSE";
+        COMMANDS[MESSAGE] = "MESSAGE";
+        COMMANDS[ACKED] = "ACKED";
+    }
+
+    private BinaryProtocol() {
+    }
+
+    // 文本命令名转换为操作码，未知命令返回 -1
+    public static byte opcode(String command) {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (COMMANDS[i] != null && COMMANDS[i].equalsIgnoreCase(command)) {
+                return (byte) i;
+            }
+        }
+        return -1;
+    }
+
+    // 操作码转换为文本命令名，未知操作码返回 "UNKNOWN"
+    public static String command(byte opcode) {
+        if (opcode < 0 || opcode >= COMMANDS.length || COMMANDS[opcode] == null) {
+            return "UNKNOWN";
+        }
+        return COMMANDS[opcode];
+    }
+
+    public static byte[] bytes(String value) {
+        return value.getBytes(CHARSET);
+    }
+
+    public static byte[] encode(byte opcode, String... args) {
+        byte[][] raw = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            raw[i] = bytes(args[i]);
+        }
+        return encode(opcode, raw);
+    }
+
+    public static byte[] encode(byte opcode, byte[]... args) {
+        int length = 2;
+        for (byte[] arg : args) {
+            length += 4 + arg.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length);
+        buffer.put(opcode);
+        buffer.put((byte) args.length);
+        for (byte[] arg : args) {
+            buffer.putInt(arg.length);
+            buffer.put(arg);
+        }
+        return buffer.array();
+    }
+
+    // 编码一帧，payload 的切片作为最后一个参数直接拷贝进帧，不经过中间数组
+    public static byte[] encode(byte opcode, byte[] payload, int offset, int length, byte[]... args) {
+        int frameLength = 2 + 4 + length;
+        for (byte[] arg : args) {
+            frameLength += 4 + arg.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(4 + frameLength);
+        buffer.putInt(frameLength);
+        buffer.put(opcode);
+        buffer.put((byte) (args.length + 1));
+        for (byte[] arg : args) {
+            buffer.putInt(arg.length);
+            buffer.put(arg);
+        }
+        buffer.putInt(length);
+        buffer.put(payload, offset, length);
+        return buffer.array();
+    }
+
+    // 从阻塞流中读取一帧，流结束时返回 null
+    public static Frame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkLength(length);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return parse(ByteBuffer.wrap(body));
+    }
+
+    // 从缓冲区当前位置解析一帧，数据不完整时返回 null 且不移动 position
+    public static Frame decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        checkLength(length);
+        if (buffer.remaining() < 4 + length) {
+            return null;
+        }
+        ByteBuffer body = buffer.duplicate();
+        body.position(buffer.position() + 4).limit(buffer.position() + 4 + length);
+        buffer.position(buffer.position() + 4 + length);
+        return parse(body);
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length < 2 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    private static Frame parse(ByteBuffer body) throws IOException {
+        try {
+            byte opcode = body.get();
+            int argc = body.get() & 0xFF;
+            byte[][] args = new byte[argc][];
+            for (int i = 0; i < argc; i++) {
+                int length = body.getInt();
+                if (length < 0 || length > body.remaining()) {
+                    throw new IOException("Invalid argument length: " + length);
+                }
+                args[i] = new byte[length];
+                body.get(args[i]);
+            }
+            return new Frame(opcode, args);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated frame");
+        }
+    }
+
+    // 解码后的一帧
+    public static final class Frame {
+        public final byte opcode;
+        public final byte[][] args;
+
+        public Frame(byte opcode, byte[][] args) {
+            this.opcode = opcode;
+            this.args = args;
+        }
+
+        public String string(int index) {
+            return new String(args[index], CHARSET);
+        }
+
+        // 转换为与文本协议 split(" ") 结果相同形式的数组：命令名 + 各参数
+        public String[] toParts() {
+            String[] parts = new String[args.length + 1];
+            parts[0] = command(opcode);
+            for (int i = 0; i < args.length; i++) {
+                parts[i + 1] = string(i);
+            }
+            return parts;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.node;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+// 主题 ID 的布隆过滤器，用于在 Broker 之间压缩传输大量主题的兴趣表
+// 只会误报（把不感兴趣的主题当作感兴趣，多转发一些消息），不会漏报
+final class BloomFilter {
+    private final long[] bits;
+    private final int hashes;
+
+    private BloomFilter(long[] bits, int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    // 按预期元素数和误报率确定位数和哈希函数个数
+    static BloomFilter create(int expected, double falsePositiveRate) {
+        long bitCount = (long) Math.ceil(-Math.max(expected, 1) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (bitCount + 63) / 64);
+        int hashes = (int) Math.max(1, Math.round((double) words * 64 / Math.max(expected, 1) * Math.log(2)));
+        return new BloomFilter(new long[words], Math.min(hashes, 16));
+    }
+
+    void add(String key) {
+        long bitCount = (long) bits.length * 64;
+        int h1 = mix(key.hashCode());
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + (long) i * h2) & 0x7FFFFFFFFFFFFFFFL) % bitCount;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(String key) {
+        long bitCount = (long) bits.length * 64;
+        int h1 = mix(key.hashCode());
+        int h2 = mix(h1) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + (long) i * h2) & 0x7FFFFFFFFFFFFFFFL) % bitCount;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int hashes() {
+        return hashes;
+    }
+
+    // encodeBits 结果的长度（字符数）
+    int encodedLength() {
+        return (bits.length * 8 + 2) / 3 * 4;
+    }
+
+    // 位数组编码为 Base64，不含空白，可以作为文本协议的一个参数
+    String encodeBits() {
+        ByteBuffer buffer = ByteBuffer.allocate(bits.length * 8);
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    static BloomFilter decode(int hashes, String encodedBits) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(encodedBits));
+        long[] bits = new long[buffer.remaining() / 8];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong();
+        }
+        if (bits.length == 0 || hashes < 1) {
+            throw new IllegalArgumentException("Invalid bloom filter");
+        }
+        return new BloomFilter(bits, hashes);
+    }
+
+    // String.hashCode 在不同 JVM 上结果相同，再打散一次以减少相似 ID 的冲突
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,80 +1,311 @@
 package com.example.node;
 
+import com.example.protocol.BinaryProtocol;
+
 import java.io.*;
 import java.net.*;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.lang.reflect.Method;
 
 public class Broker {
-    private static final Map<String, Topic> topics = new HashMap<>();
-    //记录各自节点下的socketClient，用于通知
-    private static final Map<String, List<Socket>> socketClients = new HashMap<>();
-    private static final List<Socket> brokerConnections = new ArrayList<>(); // 其他 Broker 的连接
-    private static final List<String> failedBrokers = new ArrayList<>(); // 存储失败的 Broker
+    // 主题及各自节点下订阅连接的注册表，所有处理线程共享
+    private static final TopicRegistry registry = new TopicRegistry();
+    private static final List<PeerLink> brokerConnections = new CopyOnWriteArrayList<>(); // 到其他 Broker 的复制链路
+    private static final BlockingQueue<Runnable> interestUpdates = new LinkedBlockingQueue<>(); // 待发给其他 Broker 的兴趣表和兴趣变化
+    private static final ThreadLocal<Delivery> DELIVERIES = ThreadLocal.withInitial(Delivery::new); // 每个线程复用的推送状态
+    private static final Set<String> failedBrokers = ConcurrentHashMap.newKeySet(); // 存储失败的 Broker
+    private static TopicPartitions partitions; // 开启 -partitions 时，每个主题的发布由所属分区的线程执行
+    private static BrokerConfig config = new BrokerConfig();
+    // 握手、ClientHandler、BrokerHandler 和连接写线程所用的线程，virtual 模式下为虚拟线程
+    private static ThreadFactory handlerThreads = Thread::new;
+    private static final byte[] LINE_END = Connection.LINE_SEPARATOR.getBytes(BinaryProtocol.CHARSET);
 
     public static void main(String[] args) throws IOException {
-        int port = Integer.parseInt(args[0]);
-        ServerSocket serverSocket = new ServerSocket(port);
-        System.out.println("Broker started on port: " + port);
+        config = BrokerConfig.parse(args);
+        int port = config.port;
+        if (BrokerConfig.MODE_VIRTUAL.equals(config.mode)) {
+            handlerThreads = virtualThreadFactory();
+        }
 
-        // 连接到其他 Broker
-        String brokersArg = "";
-
-        // 解析命令行参数
-        for (int i = 1; i < args.length; i++) {
-            if ("-b".equals(args[i])) {
-                // 找到 -b 后，拼接所有后面的 broker 地址
-                StringBuilder brokers = new StringBuilder();
-                for (int j = i + 1; j < args.length; j++) {
-                    brokers.append(args[j]).append(" "); // 使用空格拼接多个 broker 地址
-                }
-                brokersArg = brokers.toString().trim(); // 去掉末尾空格
-                break;
-            }
+        if (config.partitions > 0) {
+            partitions = new TopicPartitions(config.partitions, config.partitionInbox);
+        }
+
+        Reactor reactor = null;
+        ServerSocket serverSocket = null;
+        if (BrokerConfig.MODE_REACTOR.equals(config.mode)) {
+            reactor = new Reactor(port, config.eventLoops);
+            reactor.bind();
+        } else {
+            serverSocket = new ServerSocket(port);
+        }
+        System.out.println("Broker started on port: " + port + " (" + config.mode + " mode"
+                + (partitions != null ? ", " + partitions.count() + " partitions" : "") + ")");
+        BrokerMetrics.start(registry, brokerConnections, port);
+
+        if (config.logDir != null) {
+            // 定期 fsync 并清理过期的日志分段，退出时把未落盘的数据写到磁盘
+            startThread(new LogFlusher());
+            Runtime.getRuntime().addShutdownHook(new Thread(Broker::flushLogs));
+            System.out.println("Message log enabled: " + config.logDir);
+        }
+
+        if (config.interestRouting) {
+            startThread(Broker::sendInterestUpdates);
+        }
+
+        if (config.linkDictionary != null) {
+            // 压缩链路的共享字典，所有 Broker 必须使用同一个文件
+            LinkCompression.loadDictionary(config.linkDictionary);
         }
 
+        // 连接到其他 Broker
+        String brokersArg = config.brokers;
+
         if (!brokersArg.isEmpty()) {
             // 调用 connectToOtherBrokers 方法，并传递所有 brokers 地址
             connectToOtherBrokers(brokersArg);
-            new Thread(new BrokerConnectionListener(args[2])).start();
+            startThread(new BrokerConnectionListener(brokersArg));
         }
 
+        if (reactor != null) {
+            // 握手、读命令和写订阅者都交给事件循环
+            reactor.run();
+            return;
+        }
 
         // 接受客户端和其他 Broker 连接
         while (true) {
             Socket socket = serverSocket.accept();
-            new Thread(() -> {
+            startThread(() -> {
                 try {
-                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+                    SocketConnection connection = new SocketConnection(socket);
 
-                    // 读取初始消息以确定连接类型
-                    String type = in.readLine();
+                    // 读取初始消息以确定连接类型，"CLIENT BINARY" / "BROKER BINARY" 表示之后使用二进制帧
+                    String[] handshake = readHandshake(in).split(" ");
+                    String type = handshake[0];
+                    connection.setBinary(isBinaryHandshake(handshake));
                     if ("BROKER".equalsIgnoreCase(type)) {
                         // 这是来自其他 Broker 的连接
-                        brokerConnections.add(socket);
-                        new Thread(new BrokerHandler(socket)).start();
+                        addBrokerConnection(connection, isCompressedHandshake(handshake));
+                        startThread(new BrokerHandler(connection, in));
                         System.out.println("Accepted connection from another broker.");
                     } else if ("CLIENT".equalsIgnoreCase(type)) {
                         // 这是来自客户端的连接
 //                        clientConnections.add(socket);
-                        new Thread(new ClientHandler(socket)).start();
+                        BrokerMetrics.opened(connection);
+                        startThread(new ClientHandler(connection, in));
                         System.out.println("Accepted connection from a client.");
                     } else {
 //                        System.out.println("未知连接类型: " + type);
-//                        socket.close();
+                        connection.close();
                     }
                 } catch (IOException e) {
                     //e.printStackTrace();
                     System.out.println(e.getMessage());
                 }
-            }).start();
+            });
         }
 
     }
 
+    static TopicPartitions partitions() {
+        return partitions;
+    }
+
+    // 开启 -partitions 时，主题的创建、删除、订阅和取消订阅在主题所属的分区线程中执行，与该主题的发布按到达顺序串行，
+    // 主题的修改因此只有这一个线程；topicId 为 null（通配符等不属于某个主题的命令）或未开启分区时直接在当前线程执行。
+    // wait 为 true 时在任务完成之前不读取 reader 的下一条命令（事件循环暂停读取，其他线程直接等待），客户端收到的响应仍按命令的顺序；
+    // 来自其他 Broker 的命令没有响应，不必等待，只在收件箱已满时暂停读取
+    static void runOnOwner(String topicId, Connection reader, boolean wait, Runnable task) {
+        if (partitions == null || topicId == null || partitions.isOwner(topicId)) {
+            task.run();
+            return;
+        }
+        if (!wait) {
+            partitions.execute(topicId, task, reader);
+            return;
+        }
+        if (Reactor.isEventLoopThread()) {
+            reader.suspendReads();
+            partitions.execute(topicId, () -> {
+                try {
+                    task.run();
+                } finally {
+                    reader.resumeReads();
+                }
+            }, null);
+            return;
+        }
+        CountDownLatch done = new CountDownLatch(1);
+        partitions.execute(topicId, () -> {
+            try {
+                task.run();
+            } finally {
+                done.countDown();
+            }
+        }, null);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 命令所针对的单个主题，通配符过滤器不属于任何分区，返回 null
+    private static String topicOf(String[] parts) {
+        return parts.length >= 2 && !SubscriptionTrie.isWildcard(parts[1]) ? parts[1] : null;
+    }
+
+    static BrokerConfig config() {
+        return config;
+    }
+
+    // 按字节读取握手行，不能用 BufferedReader，否则会把之后的二进制帧当作字符预读走
+    private static String readHandshake(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() > 256) {
+                throw new IOException("Handshake too long");
+            }
+            line.write(b);
+        }
+        return line.toString().trim();
+    }
+
+    static boolean isBinaryHandshake(String[] handshake) {
+        return handshake.length > 1 && (BinaryProtocol.MODE.equalsIgnoreCase(handshake[1])
+                || BinaryProtocol.COMPRESSED_MODE.equalsIgnoreCase(handshake[1]));
+    }
+
+    // "BROKER DEFLATE"：二进制帧，且双方发送的命令批次都可以压缩
+    static boolean isCompressedHandshake(String[] handshake) {
+        return handshake.length > 1 && BinaryProtocol.COMPRESSED_MODE.equalsIgnoreCase(handshake[1]);
+    }
+
+    static Thread startThread(Runnable task) {
+        Thread thread = handlerThreads.newThread(task);
+        thread.start();
+        return thread;
+    }
+
+    // 虚拟线程需要 JDK 21+，通过反射获取工厂，使代码在旧 JDK 上仍可编译
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require JDK 21 or later", e);
+        }
+    }
+
+    // 每个 Broker 连接包装为一条复制链路，转发的命令经由链路自己的发送管道异步写出
+    // 链路建立后先把本节点当前的兴趣表发给对端，之后的变化由 interestChanged 逐条发送
+    // 兴趣表和之后的变化都经由 interestUpdates 按顺序发出
+    static void addBrokerConnection(Connection connection, boolean compressed) {
+        PeerLink link = new PeerLink(connection, config, compressed);
+        brokerConnections.add(link);
+        BrokerMetrics.opened(connection);
+        if (config.interestRouting) {
+            interestUpdates.add(() -> sendInterests(link));
+        }
+    }
+
+    // 依次发送 interestUpdates 中的兴趣表和兴趣变化，向链路写入可能等待对端（最多 -peer-block 毫秒），不能在主题的锁或 compute 中进行
+    private static void sendInterestUpdates() {
+        try {
+            while (true) {
+                interestUpdates.take().run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 启用了 -log 或 -retain 时本节点要保存所有主题的消息，兴趣表只有一个 "#"，本地订阅者都断开后也继续接收，FROM/RECENT 才能补发
+    // 否则主题较多且配置了 -interest-bloom 时以布隆过滤器发送，否则逐个主题发送
+    // 布隆过滤器只在二进制链路上发送（文本行最长 1 MB），超过帧长度上限时也改为逐个发送
+    // 通配符过滤器总是逐个发送，不放进布隆过滤器
+    private static void sendInterests(PeerLink link) {
+        if (storesMessages()) {
+            link.sendRaw(link.encodeCommand(new String[]{"INTEREST", SubscriptionTrie.MULTI_LEVEL, "1"}));
+            return;
+        }
+        List<String> interests = new ArrayList<>();
+        for (String topicId : registry.localInterests()) {
+            if (SubscriptionTrie.isWildcard(topicId)) {
+                link.sendRaw(link.encodeCommand(new String[]{"INTEREST", topicId, "1"}));
+            } else {
+                interests.add(topicId);
+            }
+        }
+        if (config.interestBloomThreshold > 0 && interests.size() >= config.interestBloomThreshold) {
+            BloomFilter summary = BloomFilter.create(interests.size(), 0.01);
+            for (String topicId : interests) {
+                summary.add(topicId);
+            }
+            if (link.isBinary() && summary.encodedLength() < BinaryProtocol.MAX_FRAME_LENGTH - 64) {
+                link.sendRaw(link.encodeCommand(new String[]{"INTEREST", "*", String.valueOf(summary.hashes()), summary.encodeBits()}));
+                return;
+            }
+        }
+        for (String topicId : interests) {
+            link.sendRaw(link.encodeCommand(new String[]{"INTEREST", topicId, "1"}));
+        }
+    }
+
+    // 本节点对某个主题的兴趣变化（第一个本地订阅连接加入或最后一个离开），通知其他 Broker
+    // 由 TopicRegistry 在该主题的 compute 或锁中调用，只入队不阻塞，同一主题的变化按顺序发出
+    static void interestChanged(String topicId, boolean interested) {
+        if (config.interestRouting && !storesMessages() && !brokerConnections.isEmpty()) {
+            String[] command = {"INTEREST", topicId, interested ? "1" : "0"};
+            interestUpdates.add(() -> broadcastToBrokers(command));
+        }
+    }
+
+    private static boolean storesMessages() {
+        return config.logDir != null || config.retainMessages > 0;
+    }
+
+    // 连接断开后，从 Broker 列表和所有主题的订阅者列表中移除
+    static void removeConnection(Connection connection) {
+        for (PeerLink link : brokerConnections) {
+            if (link.connection() == connection) {
+                brokerConnections.remove(link);
+                link.close();
+            }
+        }
+        registry.removeConnection(connection);
+        BrokerMetrics.closed(connection);
+    }
+
+    static boolean isBrokerConnection(Connection connection) {
+        return findBrokerLink(connection) != null;
+    }
+
+    private static PeerLink findBrokerLink(Connection connection) {
+        for (PeerLink link : brokerConnections) {
+            if (link.connection() == connection) {
+                return link;
+            }
+        }
+        return null;
+    }
+
     // 连接到其他 Broker
     private static void connectToOtherBrokers(String brokersArg) {
         String[] brokers = brokersArg.split(" ");
@@ -83,65 +314,102 @@ public class Broker {
             String brokerIp = brokerInfo[0];
             int brokerPort = Integer.parseInt(brokerInfo[1]);
             try {
-                Socket brokerSocket = new Socket(brokerIp, brokerPort);
-                PrintWriter out = new PrintWriter(brokerSocket.getOutputStream(), true);
-                out.println("BROKER"); // 发送身份标识
-                brokerConnections.add(brokerSocket); // 添加到 Broker 连接列表
-                new Thread(new BrokerHandler(brokerSocket)).start();
+                openBrokerLink(brokerIp, brokerPort);
                 System.out.println("Connected to broker: " + brokerIp + ":" + brokerPort);
             } catch (IOException e) {
                 System.out.println("Failed to connect to broker: " + brokerIp + ":" + brokerPort);
-                if (!failedBrokers.contains(broker)){
-                    failedBrokers.add(broker); // 将失败的 Broker 加入列表
-                }
+                failedBrokers.add(broker); // 将失败的 Broker 加入列表
 
             }
         }
     }
 
+    // 主动连接另一个 Broker，按配置协商文本或二进制协议
+    private static void openBrokerLink(String brokerIp, int brokerPort) throws IOException {
+        Socket brokerSocket = new Socket(brokerIp, brokerPort);
+        SocketConnection connection = new SocketConnection(brokerSocket);
+        if (config.compressedLinks) {
+            connection.send("BROKER " + BinaryProtocol.COMPRESSED_MODE); // 发送身份标识
+            connection.setBinary(true);
+        } else if (config.binaryLinks) {
+            connection.send("BROKER " + BinaryProtocol.MODE); // 发送身份标识
+            connection.setBinary(true);
+        } else {
+            connection.send("BROKER"); // 发送身份标识
+        }
+        addBrokerConnection(connection, config.compressedLinks); // 添加到 Broker 连接列表
+        startThread(new BrokerHandler(connection));
+    }
+
     // 用于处理其他 Broker 的消息
-    private static class BrokerHandler implements Runnable {
-        private final Socket brokerSocket;
+    static class BrokerHandler implements Runnable {
+        private final SocketConnection brokerConnection;
+        private final InputStream input;
 
-        public BrokerHandler(Socket brokerSocket) {
-            this.brokerSocket = brokerSocket;
+        public BrokerHandler(SocketConnection brokerConnection) throws IOException {
+            this(brokerConnection, new BufferedInputStream(brokerConnection.getSocket().getInputStream()));
+        }
+
+        // 握手时已经创建过输入流，沿用它以免丢失已缓冲的数据
+        public BrokerHandler(SocketConnection brokerConnection, InputStream input) {
+            this.brokerConnection = brokerConnection;
+            this.input = input;
         }
 
         @Override
         public void run() {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(brokerSocket.getInputStream()))) {
-                String message;
-                while ((message = in.readLine()) != null) {
-                    handleBrokerMessage(message);
+            try (InputStream in = input) {
+                CommandReader reader = new CommandReader(in, brokerConnection.isBinary());
+                CommandParser command = new CommandParser();
+                while (reader.next(command)) {
+                    handleBrokerCommand(command, brokerConnection);
                 }
             } catch (IOException e) {
                 //e.printStackTrace();
                 System.out.println(e.getMessage());
+            } finally {
+                removeConnection(brokerConnection);
             }
         }
 
 
         // 处理来自其他 Broker 的消息
-        private static void handleBrokerMessage(String message) {
-            String[] parts = message.split(" ");
+        // PUBLISH 直接使用解析器中的字节切片，其余命令不在热点路径上，转换为 parts 处理
+        // DEFLATED 是压缩链路上的一批命令，解压后逐条处理
+        static void handleBrokerCommand(CommandParser command, Connection from) throws IOException {
+            if (command.command() == BinaryProtocol.DEFLATED) {
+                PeerLink link = findBrokerLink(from);
+                if (link == null || link.compression() == null) {
+                    throw new IOException("Unexpected compressed frame from: " + from);
+                }
+                link.compression().decompress(command, inner -> handleBrokerCommand(inner, from));
+            } else if (command.command() == BinaryProtocol.PUBLISH) {
+                publishMessage(command, from);
+            } else {
+                handleBrokerCommand(command.toParts(), from);
+            }
+        }
+
+        private static void handleBrokerCommand(String[] parts, Connection from) {
             String command = parts[0];
 
 
             switch (command) {
                 case "CREATE":
-                    createTopic(parts);
-                    break;
-                case "PUBLISH":
-                    publishMessage(parts);
+                    runOnOwner(topicOf(parts), from, false, () -> createTopic(parts));
                     break;
                 case "SUBSCRIBE":
-                    subscribe(parts);
+                    runOnOwner(topicOf(parts), from, false, () -> subscribe(parts));
                     break;
                 case "DELETE":
-                    deleteTopic(parts);
+                    runOnOwner(topicOf(parts), from, false, () -> deleteTopic(parts));
                     break;
                 case "UNSUBSCRIBE":
-                    unsubscribe(parts);
+                    runOnOwner(topicOf(parts), from, false, () -> unsubscribe(parts));
+                    break;
+                case "INTEREST":
+                    interest(parts, from);
+                    break;
                 default:
                     break;
             }
@@ -150,6 +418,23 @@ public class Broker {
         }
 
 
+        // 对端的兴趣变化：INTEREST topicId 1|0，或初始兴趣表 INTEREST * hashes bloomBits
+        private static void interest(String[] parts, Connection from) {
+            PeerLink link = findBrokerLink(from);
+            if (link == null || parts.length != 4 && parts.length != 3) {
+                return;
+            }
+            if (parts.length == 4 && "*".equals(parts[1])) {
+                try {
+                    link.onInterestSummary(BloomFilter.decode(Integer.parseInt(parts[2]), parts[3]));
+                } catch (IllegalArgumentException e) {
+                    System.out.println("Invalid interest summary: " + e.getMessage());
+                }
+            } else if (parts.length == 3) {
+                link.onInterest(parts[1], "1".equals(parts[2]));
+            }
+        }
+
         // 创建主题
         private static void createTopic(String[] parts) {
             if (parts.length != 4) {
@@ -160,64 +445,56 @@ public class Broker {
             String topicId = parts[1];
             String topicName = parts[2];
             String publisher = parts[3];
-
-            if (!topics.containsKey(topicId)) {
-                topics.put(topicId, new Topic(topicId, topicName, publisher));
+            if (SubscriptionTrie.isWildcard(topicId)) {
+                return;
             }
+
+            registry.createIfAbsent(topicId, topicName, publisher);
         }
 
         // 发布消息
-        private static void publishMessage(String[] parts) {
-            if (parts.length < 3) {
+        private static void publishMessage(CommandParser command, Connection from) {
+            if (command.argCount() < 2) {
 
                 return;
             }
 
-            String topicId = parts[1];
-            String message = String.join(" ", Arrays.copyOfRange(parts, 2, parts.length));
-            Topic topic = topics.get(topicId);
-
-            if (topic == null) {
-
+            if (partitions != null) {
+                partitions.submit(command.topicId(), command.buffer(), command.argOffset(1), command.argLength(1), null, false, null, from);
                 return;
             }
 
-            String timestamp = new SimpleDateFormat("dd/MM HH:mm:ss").format(new Date());
-            String formattedMessage = String.format("[%s] [主题 ID:%s:%s] [%s]", timestamp, topicId, topic.getName(), message);
-            topic.publishMessage(formattedMessage);
+            publishMessage(command.topicId(), command.buffer(), command.argOffset(1), command.argLength(1));
+        }
 
-            if (socketClients.get(topicId) != null) {
-                for (Socket subscriberSocket : socketClients.get(topicId)) {
-                    try {
-                        PrintWriter out = new PrintWriter(subscriberSocket.getOutputStream(), true);
-                        out.println(formattedMessage);
-                    } catch (IOException e) {
-                        //e.printStackTrace();
-                        System.out.println(e.getMessage());
-                    }
-                }
-            }
+        // 开启 -partitions 时在主题所属的分区线程中调用
+        static void publishMessage(String topicId, byte[] buf, int offset, int length) {
+            Topic topic = registry.get(topicId);
 
+            if (topic == null) {
+
+                return;
+            }
 
+            publish(topic, buf, offset, length);
         }
 
-        // 订阅主题
+        // 订阅主题，带 FROM <offset> 或 RECENT [n] 时只在本节点补发，这里只同步订阅关系
+        // 通配符订阅同样只同步订阅关系，对端的通配符兴趣由 INTEREST 单独同步；
+        // WHERE 过滤在订阅者所在的节点上求值，这里忽略
         private static void subscribe(String[] parts) {
-            if (parts.length != 3) {
+            if (parts.length < 3) {
 
                 return;
             }
 
             String topicId = parts[1];
             String subscriber = parts[2];
-            Topic topic = topics.get(topicId);
-            if (topic == null) {
+            if (!registry.subscribe(topicId, subscriber, null, null)) {
                 //sendResponse(socket, "[ERROR] 主题没找到: " + topicId);
                 return;
             }
 
-            topic.addSubscriber(subscriber);
-
         }
 
         // 删除主题
@@ -228,12 +505,8 @@ public class Broker {
             }
 
             String topicId = parts[1];
-            topics.remove(topicId);
-
-            //删掉订阅者socket
-            if (socketClients.get(topicId) != null) {
-                socketClients.remove(topicId);
-            }
+            //同时删掉订阅者socket
+            registry.delete(topicId);
         }
 
         // 取消订阅
@@ -244,13 +517,7 @@ public class Broker {
 
             String topicId = parts[1];
             String subscriber = parts[2];
-            Topic topic = topics.get(topicId);
-            if (topic == null) {
-
-                return;
-            }
-
-            topic.removeSubscriber(subscriber);
+            registry.unsubscribe(topicId, subscriber, null);
 
         }
     }
@@ -286,9 +553,7 @@ public class Broker {
                 String brokerIp = brokerInfo[0];
                 int brokerPort = Integer.parseInt(brokerInfo[1]);
                 try {
-                    Socket brokerSocket = new Socket(brokerIp, brokerPort);
-                    brokerConnections.add(brokerSocket);
-                    new Thread(new BrokerHandler(brokerSocket)).start();
+                    openBrokerLink(brokerIp, brokerPort);
                     System.out.println("Reconnected to broker: " + brokerIp + ":" + brokerPort);
                     iterator.remove(); // 连接成功后从失败列表中移除
                 } catch (IOException e) {
@@ -298,53 +563,103 @@ public class Broker {
         }
     }
 
-    // 处理客户端消息的类
-    private static class ClientHandler implements Runnable {
-        private final Socket clientSocket;
+    // 后台线程：按 -log-fsync 间隔把日志 fsync 到磁盘，并按保留策略删除过期的分段
+    private static class LogFlusher implements Runnable {
+        private static final long RETENTION_CHECK_INTERVAL = 1000; // 每条消息都 fsync 时，只做保留策略检查
+
+        @Override
+        public void run() {
+            long interval = config.logFsyncMillis > 0 ? config.logFsyncMillis : RETENTION_CHECK_INTERVAL;
+            while (true) {
+                try {
+                    Thread.sleep(interval);
+                    flushLogs();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // fsync 所有主题的日志并执行保留策略
+    private static void flushLogs() {
+        long now = TimestampCache.epochNanos();
+        for (Topic topic : registry.topics()) {
+            CommitLog log = topic.getLog();
+            if (log == null) {
+                continue;
+            }
+            log.flush();
+            // 删除分段会修改分段列表，与追加互斥；开启 -partitions 时交给主题所属的分区线程执行
+            runOnOwner(topic.getId(), null, false, () -> {
+                topic.publishLock().lock();
+                try {
+                    log.applyRetention(now);
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());
+                } finally {
+                    topic.publishLock().unlock();
+                }
+            });
+        }
+    }
 
-        public ClientHandler(Socket socket) {
-            this.clientSocket = socket;
+    // 处理客户端消息的类
+    static class ClientHandler implements Runnable {
+        private final SocketConnection clientConnection;
+        private final InputStream input;
+
+        // 握手时已经创建过输入流，沿用它以免丢失已缓冲的数据
+        public ClientHandler(SocketConnection connection, InputStream input) {
+            this.clientConnection = connection;
+            this.input = input;
         }
 
         @Override
         public void run() {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                 PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-
-                String message;
-                while ((message = in.readLine()) != null) {
-                    handleClientMessage(message, clientSocket);
+            try (InputStream in = input) {
+                CommandReader reader = new CommandReader(in, clientConnection.isBinary());
+                CommandParser command = new CommandParser();
+                while (reader.next(command)) {
+                    handleClientCommand(command, clientConnection);
                 }
             } catch (IOException e) {
                 //e.printStackTrace();
                 System.out.println(e.getMessage());
+            } finally {
+                removeConnection(clientConnection);
+                clientConnection.close();
             }
         }
 
         // 处理来自客户端的消息
-        private void handleClientMessage(String message, Socket socket) {
-            String[] parts = message.split(" ");
+        // PUBLISH 直接使用解析器中的字节切片，其余命令不在热点路径上，转换为 parts 处理
+        static void handleClientCommand(CommandParser command, Connection socket) {
+            if (command.command() == BinaryProtocol.PUBLISH) {
+                publishMessage(command, socket);
+            } else {
+                handleClientCommand(command.toParts(), socket);
+            }
+        }
+
+        private static void handleClientCommand(String[] parts, Connection socket) {
             String command = parts[0];
 
             switch (command) {
                 case "CREATE":
-                    createTopic(parts, socket);
-                    broadcastToBrokers(message);  // 广播消息到其他 Broker
-                    break;
-                case "PUBLISH":
-                    publishMessage(parts, socket);
-                    broadcastToBrokers(message);  // 广播消息到其他 Broker
+                    runOnOwner(topicOf(parts), socket, true, () -> createTopic(parts, socket));
+                    broadcastToBrokers(parts);  // 广播消息到其他 Broker
                     break;
                 case "SHOW":
                     showSubscribers(parts, socket);
                     break;
                 case "DELETE":
-                    deleteTopic(parts, socket);
-                    broadcastToBrokers(message);  // 广播消息到其他 Broker
+                    runOnOwner(topicOf(parts), socket, true, () -> deleteTopic(parts, socket));
+                    broadcastToBrokers(parts);  // 广播消息到其他 Broker
                     break;
                 case "SUBSCRIBE":
-                    subscribe(parts, socket);
-                    broadcastToBrokers(message);  // 广播消息到其他 Broker
+                    runOnOwner(topicOf(parts), socket, true, () -> subscribe(parts, socket));
+                    broadcastToBrokers(parts);  // 广播消息到其他 Broker
                     break;
                 case "DISPLAY":
                     displayTopics(socket);
@@ -353,8 +668,20 @@ public class Broker {
                     showCurrentSubscriptions(parts,socket);
                     break;
                 case "UNSUBSCRIBE":
-                    unsubscribe(parts, socket);
-                    broadcastToBrokers(message);  // 广播消息到其他 Broker
+                    runOnOwner(topicOf(parts), socket, true, () -> unsubscribe(parts, socket));
+                    broadcastToBrokers(parts);  // 广播消息到其他 Broker
+                    break;
+                case "PEERS":
+                    showPeers(socket);
+                    break;
+                case "CREDIT":
+                    grantCredits(parts, socket);
+                    break;
+                case "ACKS":
+                    enableCumulativeAcks(parts, socket);
+                    break;
+                case "STATS":
+                    showStats(parts, socket);
                     break;
                 default:
                     System.out.println("[ERROR] 客户端非法指令.");
@@ -363,7 +690,7 @@ public class Broker {
 
 
         // 创建主题
-        private static void createTopic(String[] parts, Socket socket) {
+        private static void createTopic(String[] parts, Connection socket) {
             if (parts.length != 4) {
                 sendResponse(socket, "[ERROR] 创建主题参数错误");
                 return;
@@ -372,52 +699,68 @@ public class Broker {
             String topicId = parts[1];
             String topicName = parts[2];
             String publisher = parts[3];
+            if (SubscriptionTrie.isWildcard(topicId)) {
+                sendResponse(socket, "[ERROR] 主题 ID 不能包含通配符 + 或 #.");
+                return;
+            }
 
-            if (topics.containsKey(topicId)) {
+            if (!registry.createIfAbsent(topicId, topicName, publisher)) {
                 sendResponse(socket, "[ERROR] 主题已存在.");
             } else {
-                topics.put(topicId, new Topic(topicId, topicName, publisher));
                 sendResponse(socket, "[SUCCESS] 主题创建: " + topicId + " - " + topicName);
             }
         }
 
         // 发布消息
-        private static void publishMessage(String[] parts, Socket socket) {
-            if (parts.length < 3) {
+        // 二进制协议下 PUBLISH 可以带第三个参数作为序号，响应帧带回同一个序号，客户端据此匹配在途的请求
+        private static void publishMessage(CommandParser command, Connection socket) {
+            if (command.argCount() < 2) {
                 sendResponse(socket, "[ERROR] 发布消息参数错误");
                 return;
             }
 
-            String topicId = parts[1];
-            String message = String.join(" ", Arrays.copyOfRange(parts, 2, parts.length));
-            Topic topic = topics.get(topicId);
+            String sequence = command.argCount() >= 3 ? command.arg(2) : null;
+            // 开启了累计确认时，成功的请求稍后随 ACKED 一起确认
+            boolean cumulative = sequence != null && socket.expectAcknowledge(sequence);
 
-            if (topic == null) {
-                sendResponse(socket, "[ERROR] 主题没找到: " + topicId);
+            if (partitions != null) {
+                // 发布、响应和转发都由主题所属的分区线程完成
+                partitions.submit(command.topicId(), command.buffer(), command.argOffset(1), command.argLength(1), sequence, cumulative, socket, socket);
                 return;
             }
 
-            String timestamp = new SimpleDateFormat("dd/MM HH:mm:ss").format(new Date());
-            String formattedMessage = String.format("[%s] [主题 ID:%s:%s] [%s]", timestamp, topicId, topic.getName(), message);
-            topic.publishMessage(formattedMessage);
+            publishMessage(command.topicId(), command.buffer(), command.argOffset(1), command.argLength(1), sequence, cumulative, socket);
+            broadcastPublish(command);  // 广播消息到其他 Broker
+        }
+
+        // 开启 -partitions 时在主题所属的分区线程中调用，此时同一连接上 PUBLISH 的响应与其他命令的响应之间不保证顺序，
+        // 需要对应关系的客户端应使用带序号的 PUBLISH
+        static void publishMessage(String topicId, byte[] buf, int offset, int length, String sequence, boolean cumulative, Connection socket) {
+            Topic topic = registry.get(topicId);
 
-            if (socketClients.get(topicId) != null) {
-                for (Socket subscriberSocket : socketClients.get(topicId)) {
-                    try {
-                        PrintWriter out = new PrintWriter(subscriberSocket.getOutputStream(), true);
-                        out.println(formattedMessage);
-                    } catch (IOException e) {
-                        //e.printStackTrace();
-                        System.out.println(e.getMessage());
-                    }
+            if (topic == null) {
+                sendResponse(socket, "[ERROR] 主题没找到: " + topicId, sequence);
+                if (cumulative) {
+                    socket.acknowledge(sequence); // 已单独响应，累计确认可以越过它
                 }
+                return;
             }
 
-            sendResponse(socket, "[SUCCESS] 成功发布消息: " + topicId);
+            long messageOffset = publish(topic, buf, offset, length);
+
+            if (cumulative) {
+                socket.acknowledge(sequence);
+                return;
+            }
+            if (messageOffset < 0) {
+                sendResponse(socket, "[SUCCESS] 成功发布消息: " + topicId, sequence);
+            } else {
+                sendResponse(socket, "[SUCCESS] 成功发布消息: " + topicId + " [offset:" + messageOffset + "]", sequence);
+            }
         }
 
         // 显示某个发布者的订阅者数量
-        private static void showSubscribers(String[] parts, Socket socket) {
+        private static void showSubscribers(String[] parts, Connection socket) {
             if (parts.length != 2) {
                 sendResponse(socket, "[ERROR] 显示主题及订阅者参数错误.");
                 return;
@@ -427,33 +770,60 @@ public class Broker {
             List<Topic> publisherTopics = getTopicsByPublisher(publisher);
 
             for (Topic tp : publisherTopics) {
-                int subscriberCount = tp.getSubscribers().size();
+                int subscriberCount = tp.subscriberCount();
                 sendResponse(socket, String.format("[主题 ID:%s] [主题名称:%s] [订阅者数量:%d]", tp.getId(), tp.getName(), subscriberCount));
             }
         }
 
         // 删除主题
-        private static void deleteTopic(String[] parts, Socket socket) {
+        private static void deleteTopic(String[] parts, Connection socket) {
             if (parts.length != 2) {
                 sendResponse(socket, "[ERROR] 删除主题参数错误.");
                 return;
             }
 
             String topicId = parts[1];
-            if (topics.remove(topicId) != null) {
+            //同时删掉订阅者socket
+            if (registry.delete(topicId) != null) {
                 sendResponse(socket, "[SUCCESS] 主题删除成功: " + topicId);
             } else {
                 sendResponse(socket, "[ERROR] 主题没找到: " + topicId);
             }
+        }
 
-            //删掉订阅者socket
-            if (socketClients.get(topicId) != null) {
-                socketClients.remove(topicId);
+        // 订阅主题，SUBSCRIBE <topic> <user> FROM <offset> 表示先从持久化日志补发历史消息，
+        // SUBSCRIBE <topic> <user> RECENT [n] 表示先补发内存中保留的最近 n 条（默认全部）消息
+        // 主题 ID 按 '/' 分层，可以用 + 匹配一层、# 匹配其余各层来订阅一组主题，例如 orders/+/eu
+        // 以上各种形式之后都可以加 WHERE <表达式>，只推送满足条件的消息，例如 WHERE price > 100 AND region = 'EU'
+        private static void subscribe(String[] parts, Connection socket) {
+            ContentFilter filter = null;
+            int where = indexOfWhere(parts);
+            if (where >= 0) {
+                if (where == parts.length - 1) {
+                    sendResponse(socket, "[ERROR] 过滤表达式为空.");
+                    return;
+                }
+                try {
+                    filter = ContentFilter.compile(String.join(" ", Arrays.copyOfRange(parts, where + 1, parts.length)));
+                } catch (IllegalArgumentException e) {
+                    sendResponse(socket, "[ERROR] 过滤表达式错误: " + e.getMessage());
+                    return;
+                }
+                parts = Arrays.copyOf(parts, where);
             }
-        }
 
-        // 订阅主题
-        private static void subscribe(String[] parts, Socket socket) {
+            if (parts.length >= 3 && SubscriptionTrie.isWildcard(parts[1])) {
+                subscribeWildcard(parts, socket, filter);
+                return;
+            }
+            if (parts.length == 5 && "FROM".equalsIgnoreCase(parts[3])) {
+                subscribeFrom(parts, socket, filter);
+                return;
+            }
+            if ((parts.length == 4 || parts.length == 5) && "RECENT".equalsIgnoreCase(parts[3])) {
+                subscribeRecent(parts, socket, filter);
+                return;
+            }
             if (parts.length != 3) {
                 sendResponse(socket, "[ERROR] 订阅主题参数错误.");
                 return;
@@ -461,41 +831,115 @@ public class Broker {
 
             String topicId = parts[1];
             String subscriber = parts[2];
-            Topic topic = topics.get(topicId);
+            if (!registry.subscribe(topicId, subscriber, socket, filter)) {
+                sendResponse(socket, "[ERROR] 主题没找到: " + topicId);
+                return;
+            }
+
+            sendResponse(socket, "[SUCCESS] 成功订阅主题: " + topicId);
+        }
+
+        // WHERE 只能出现在主题和订阅者之后
+        private static int indexOfWhere(String[] parts) {
+            for (int i = 3; i < parts.length; i++) {
+                if ("WHERE".equalsIgnoreCase(parts[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // 通配符订阅：只推送订阅之后发布的消息，不补发历史消息
+        private static void subscribeWildcard(String[] parts, Connection socket, ContentFilter filter) {
+            String pattern = parts[1];
+            if (parts.length != 3) {
+                release(filter);
+                sendResponse(socket, "[ERROR] 通配符订阅不支持补发历史消息.");
+                return;
+            }
+            if (!registry.subscribe(pattern, parts[2], socket, filter)) {
+                sendResponse(socket, "[ERROR] 通配符格式错误，+ 和 # 必须独占一层，# 只能在最后: " + pattern);
+                return;
+            }
+            sendResponse(socket, "[SUCCESS] 成功订阅主题: " + pattern);
+        }
+
+        // 从日志中的 offset 开始订阅，补发在后台线程中进行，不阻塞当前连接的命令处理
+        private static void subscribeFrom(String[] parts, Connection socket, ContentFilter filter) {
+            String topicId = parts[1];
+            String subscriber = parts[2];
+            long from;
+            try {
+                from = Long.parseLong(parts[4]);
+            } catch (NumberFormatException e) {
+                release(filter);
+                sendResponse(socket, "[ERROR] 订阅主题参数错误.");
+                return;
+            }
+
+            Topic topic = registry.get(topicId);
             if (topic == null) {
+                release(filter);
                 sendResponse(socket, "[ERROR] 主题没找到: " + topicId);
                 return;
             }
+            CommitLog log = topic.getLog();
+            if (log == null) {
+                release(filter);
+                sendResponse(socket, "[ERROR] 主题未开启消息日志: " + topicId);
+                return;
+            }
 
-            topic.addSubscriber(subscriber);
-            if (socketClients.get(topicId) == null) {
-                List<Socket> sockets = new ArrayList<>();
-                sockets.add(socket);
-                socketClients.put(topicId, sockets);
-            } else {
-                List<Socket> sockets = socketClients.get(topicId);
-                if (!sockets.contains(socket)) {
-                    sockets.add(socket);
+            long start = Math.min(Math.max(from, log.startOffset()), log.endOffset());
+            sendResponse(socket, "[SUCCESS] 成功订阅主题: " + topicId + " [offset:" + start + "]");
+            startThread(() -> catchUp(topic, subscriber, start, socket, filter));
+        }
+
+        // 订阅并补发内存中保留的最近消息，补发在主题的发布锁内完成，之后无缝切换到实时推送
+        private static void subscribeRecent(String[] parts, Connection socket, ContentFilter filter) {
+            String topicId = parts[1];
+            String subscriber = parts[2];
+            int limit = config.queueCapacity; // 一次补发不超过发送队列的容量，以免被丢弃
+            if (parts.length == 5) {
+                try {
+                    limit = Math.min(limit, Integer.parseInt(parts[4]));
+                } catch (NumberFormatException e) {
+                    release(filter);
+                    sendResponse(socket, "[ERROR] 订阅主题参数错误.");
+                    return;
                 }
             }
 
+            Topic topic = registry.get(topicId);
+            if (topic == null) {
+                release(filter);
+                sendResponse(socket, "[ERROR] 主题没找到: " + topicId);
+                return;
+            }
+            if (topic.getRetained() == null) {
+                release(filter);
+                sendResponse(socket, "[ERROR] 主题未开启消息保留: " + topicId);
+                return;
+            }
+
             sendResponse(socket, "[SUCCESS] 成功订阅主题: " + topicId);
+            catchUpRecent(topic, subscriber, limit, socket, filter);
         }
 
         // 显示所有主题
-        private static void displayTopics(Socket socket) {
-            if (topics.isEmpty()) {
+        private static void displayTopics(Connection socket) {
+            if (registry.isEmpty()) {
                 sendResponse(socket, "[ERROR] 主题为空.");
                 return;
             }
 
-            for (Topic topic : topics.values()) {
+            for (Topic topic : registry.topics()) {
                 sendResponse(socket, String.format("[主题 ID:%s] [主题名称:%s] [发布者:%s]", topic.getId(), topic.getName(), topic.getPublisher()));
             }
         }
 
         // 显示当前订阅（暂未实现）
-        private static void showCurrentSubscriptions(String[]parts, Socket socket) {
+        private static void showCurrentSubscriptions(String[]parts, Connection socket) {
 
 
             if (parts.length != 2) {
@@ -508,10 +952,13 @@ public class Broker {
             for (Topic topic : result) {
                 sendResponse(socket, String.format("[主题 ID:%s] [主题名称:%s] [发布者:%s]", topic.getId(), topic.getName(), topic.getPublisher()));
             }
+            for (String filter : registry.wildcardsBySubscriber(subscriber)) {
+                sendResponse(socket, String.format("[通配符订阅:%s]", filter));
+            }
         }
 
         // 取消订阅
-        private static void unsubscribe(String[] parts, Socket socket) {
+        private static void unsubscribe(String[] parts, Connection socket) {
             if (parts.length != 3) {
                 sendResponse(socket, "[ERROR] 取消订阅参数错误.");
                 return;
@@ -519,92 +966,450 @@ public class Broker {
 
             String topicId = parts[1];
             String subscriber = parts[2];
-            Topic topic = topics.get(topicId);
-            if (topic == null) {
-                sendResponse(socket, "[ERROR] 主题没找到: " + topicId);
+            if (!registry.unsubscribe(topicId, subscriber, socket)) {
+                sendResponse(socket, SubscriptionTrie.isWildcard(topicId)
+                        ? "[ERROR] 通配符格式错误，+ 和 # 必须独占一层，# 只能在最后: " + topicId
+                        : "[ERROR] 主题没找到: " + topicId);
                 return;
             }
 
-            topic.removeSubscriber(subscriber);
+            sendResponse(socket, "[SUCCESS] 取消订阅成功: " + topicId);
+        }
 
-            List<Socket> sockets = socketClients.get(topicId);
-            if (sockets != null) {
-                sockets.remove(socket);
+        // 订阅者授予 n 条消息的额度，第一次发送后该连接的推送受额度限制；成功时不响应，避免每次补充额度都产生一条响应
+        private static void grantCredits(String[] parts, Connection socket) {
+            long credits;
+            try {
+                credits = parts.length == 2 ? Long.parseLong(parts[1]) : -1;
+            } catch (NumberFormatException e) {
+                credits = -1;
             }
+            if (credits < 0) {
+                sendResponse(socket, "[ERROR] CREDIT 参数错误.");
+                return;
+            }
+            socket.grantCredits(credits);
+        }
 
-            sendResponse(socket, "[SUCCESS] 取消订阅成功: " + topicId);
+        // 发布者开启累计确认：之后带序号的 PUBLISH 成功时不再逐条响应，每隔 intervalMicros 用 ACKED 批量确认，
+        // 未确认的请求达到 maxPending 条时提前确认；失败的请求仍单独响应
+        private static void enableCumulativeAcks(String[] parts, Connection socket) {
+            if (!socket.isBinary()) {
+                sendResponse(socket, "[ERROR] 累计确认只支持二进制协议.");
+                return;
+            }
+            long interval;
+            int maxPending;
+            try {
+                interval = parts.length >= 2 ? Long.parseLong(parts[1]) : -1;
+                maxPending = parts.length >= 3 ? Integer.parseInt(parts[2]) : Integer.MAX_VALUE;
+            } catch (NumberFormatException e) {
+                interval = -1;
+                maxPending = 0;
+            }
+            if (parts.length > 3 || interval < 0 || maxPending <= 0) {
+                sendResponse(socket, "[ERROR] ACKS 参数错误.");
+                return;
+            }
+            socket.enableCumulativeAcks(interval, maxPending);
+            sendResponse(socket, "[SUCCESS] 累计确认间隔: " + interval + " 微秒");
+        }
+
+        // 显示到其他 Broker 的复制链路状态：积压的命令数和字节数、落后时间、已发送的命令数和批次数、丢弃数，
+        // 压缩链路还显示压缩率、压缩前后的字节数和压缩 / 解压累计耗时
+        private static void showPeers(Connection socket) {
+            if (brokerConnections.isEmpty()) {
+                sendResponse(socket, "[ERROR] 没有连接其他 Broker.");
+                return;
+            }
+
+            for (PeerLink link : brokerConnections) {
+                sendResponse(socket, String.format("[Broker:%s] [积压:%d 条 %d 字节] [落后:%dms] [已发送:%d 条 %d 批] [丢弃:%d] [感兴趣的主题:%d%s] [通配符:%d]",
+                        link, link.queueDepth(), link.pendingBytes(), link.lagMillis(),
+                        link.sentMessages(), link.sentBatches(), link.droppedMessages(),
+                        link.remoteInterestCount(), link.hasInterestSummary() ? " + 布隆过滤器" : "", link.remoteWildcardCount())
+                        + compressionStats(link.compression()));
+            }
+        }
+
+        // 显示运行指标（见 BrokerMetrics），STATS topicId 只显示该主题
+        private static void showStats(String[] parts, Connection socket) {
+            if (parts.length > 1) {
+                Topic topic = registry.get(parts[1]);
+                if (topic == null) {
+                    sendResponse(socket, "[ERROR] 主题没找到: " + parts[1]);
+                    return;
+                }
+                sendResponse(socket, BrokerMetrics.topicReport(topic));
+                return;
+            }
+            for (String line : BrokerMetrics.report()) {
+                sendResponse(socket, line);
+            }
+        }
+
+        private static String compressionStats(LinkCompression compression) {
+            if (compression == null) {
+                return "";
+            }
+            return String.format(" [压缩:%.1fx 发送 %d→%d 字节 接收 %d→%d 字节] [压缩耗时:%dms 解压耗时:%dms]",
+                    compression.ratio(), compression.rawBytesOut(), compression.compressedBytesOut(),
+                    compression.compressedBytesIn(), compression.rawBytesIn(),
+                    compression.compressMillis(), compression.decompressMillis());
         }
 
         // 发送响应给客户端
-        private static void sendResponse(Socket socket, String message) {
+        private static void sendResponse(Connection socket, String message) {
             // 只给客户端的socket发响应
-            if (brokerConnections.contains(socket)) {
+            if (isBrokerConnection(socket)) {
                 return;
             }
 
-            try {
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-                out.println(message);
-            } catch (IOException e) {
-                //e.printStackTrace();
-                System.out.println(e.getMessage());
+            socket.send(message);
+        }
+
+        // 带序号的响应，只有二进制连接上的请求会带序号
+        private static void sendResponse(Connection socket, String message, String sequence) {
+            if (sequence == null || !socket.isBinary()) {
+                sendResponse(socket, message);
+                return;
+            }
+            if (isBrokerConnection(socket)) {
+                return;
             }
+
+            socket.sendRaw(BinaryProtocol.encode(BinaryProtocol.RESPONSE, message, sequence));
         }
 
-        // 根据发布者获取主题列表
+        // 根据发布者获取主题列表，通过倒排索引查询，不扫描所有主题
         public static List<Topic> getTopicsByPublisher(String publisher) {
-            return topics.values().stream()
-                    .filter(topic -> topic.getPublisher().equals(publisher))
-                    .collect(Collectors.toList());
+            return registry.topicsByPublisher(publisher);
         }
 
 
-        // 获取含有当前订阅者的 Topic 列表
+        // 获取含有当前订阅者的 Topic 列表，通过倒排索引查询，不扫描所有主题
         public static List<Topic> getTopicsBySubscriber(String subscriber) {
-            List<Topic> result = new ArrayList<>();
+            return registry.topicsBySubscriber(subscriber);
+        }
+
+
+    }
+
+    // 向其他 Broker 广播消息，文本链路和二进制链路各只编码一次
+    private static void broadcastToBrokers(String[] parts) {
+        byte[] text = null;
+        byte[] binary = null;
+        for (Connection brokerConnection : brokerConnections) {
+            if (brokerConnection.isBinary()) {
+                if (binary == null) {
+                    binary = brokerConnection.encodeCommand(parts);
+                }
+                brokerConnection.sendRaw(binary);
+            } else {
+                if (text == null) {
+                    text = brokerConnection.encodeCommand(parts);
+                }
+                brokerConnection.sendRaw(text);
+            }
+        }
+    }
+
+    // 向其他 Broker 转发 PUBLISH，消息内容按原始字节转发，文本链路和二进制链路各只编码一次
+    // 按兴趣路由时只转发给有该主题订阅者的 Broker
+    private static void broadcastPublish(CommandParser command) {
+        if (command.argCount() < 2 || brokerConnections.isEmpty()) {
+            return;
+        }
+        broadcastPublish(command.topicId(), command.buffer(), command.argOffset(1), command.argLength(1));
+    }
+
+    static void broadcastPublish(String topicId, byte[] buf, int offset, int length) {
+        if (brokerConnections.isEmpty()) {
+            return;
+        }
+        SharedBuffer text = null;
+        SharedBuffer binary = null;
+        try {
+            for (PeerLink brokerConnection : brokerConnections) {
+                if (config.interestRouting && !brokerConnection.interestedIn(topicId)) {
+                    continue;
+                }
+                if (brokerConnection.isBinary()) {
+                    if (binary == null) {
+                        binary = SharedBuffer.wrap(BinaryProtocol.encode(BinaryProtocol.PUBLISH, buf, offset, length, BinaryProtocol.bytes(topicId)));
+                    }
+                    brokerConnection.sendPublish(binary.retain());
+                } else {
+                    if (text == null) {
+                        text = concat(("PUBLISH " + topicId + " ").getBytes(BinaryProtocol.CHARSET), buf, offset, length, LINE_END);
+                    }
+                    brokerConnection.sendPublish(text.retain());
+                }
+            }
+        } finally {
+            release(text);
+            release(binary);
+        }
+    }
+
+    // 发布一条消息并推送给本节点上订阅了该主题的连接
+    // payload 为读缓冲区中的原始字节切片，直接拷贝进发给订阅者的数据，不做解码和重新编码；
+    // 文本订阅者收到格式化后的一行，二进制订阅者收到 MESSAGE 帧，每种协议只编码一次；
+    // 信封格式由 -envelope 选择，时间戳和主题前缀都是预先编码好的字节。
+    // 编码结果是一个 SharedBuffer，每个订阅者的发送队列持有同一块数据的一个引用，
+    // 因此 CPU 和内存分配只随消息数增长，而不随订阅者数增长
+    // 开启 -partitions 时由主题所属的分区线程调用，同一主题只有这一个写者，所有订阅者收到的顺序相同；
+    // 补发的衔接、日志清理和删除也在这个线程中执行（见 runOnOwner），因此不需要加锁。
+    // 否则开启了持久化日志或消息保留的主题，存储和推送在主题的发布锁内完成；
+    // 返回消息在日志中的 offset，未开启持久化时返回 -1
+    static long publish(Topic topic, byte[] buf, int offset, int length) {
+        long now = TimestampCache.epochNanos();
+        if (!topic.isStored()) {
+            fanOut(topic, now, buf, offset, length);
+            return -1;
+        }
+        if (partitions != null) {
+            long messageOffset = topic.publishMessage(now, buf, offset, length);
+            fanOut(topic, now, buf, offset, length);
+            return messageOffset;
+        }
+        // 日志中的顺序与推送顺序一致，从 offset 追赶的订阅者在锁内切换到实时推送，衔接处不丢不重
+        topic.publishLock().lock();
+        try {
+            long messageOffset = topic.publishMessage(now, buf, offset, length);
+            fanOut(topic, now, buf, offset, length);
+            return messageOffset;
+        } finally {
+            topic.publishLock().unlock();
+        }
+    }
+
+    // 带内容过滤器的订阅在入队之前求值，不满足条件的消息不编码、不进入发送队列；
+    // 同时订阅了主题本身和匹配的通配符（或多个匹配的通配符）的连接只推送一次。
+    // 去重集合和过滤器的求值状态都由每个线程复用的 Delivery 持有，不在每次发布时分配
+    private static void fanOut(Topic topic, long now, byte[] buf, int offset, int length) {
+        Delivery delivery = DELIVERIES.get();
+        delivery.begin(topic, now, buf, offset, length, registry.hasWildcards());
+        try {
+            for (Subscription subscription : registry.subscriptions(topic.getId())) {
+                delivery.accept(subscription);
+            }
+            if (delivery.dedupe) {
+                registry.matchWildcards(topic.getId(), delivery);
+            }
+            BrokerMetrics.published(topic, delivery.deliveries);
+        } finally {
+            delivery.end();
+        }
+    }
 
-            for (Topic topic : topics.values()) {
-                if (topic.getSubscribers().contains(subscriber)) {
-                    result.add(topic);
+    // 一条消息的一次推送，每种协议只编码一次
+    private static final class Delivery implements Consumer<Subscription> {
+        private final Set<Connection> delivered = Collections.newSetFromMap(new IdentityHashMap<>());
+        private Topic topic;
+        private long now;
+        private byte[] buf;
+        private int offset;
+        private int length;
+        private boolean dedupe;
+        private ContentFilter.Evaluation evaluation;
+        private SharedBuffer text;
+        private SharedBuffer binary;
+        private int deliveries; // 本条消息推送给的连接数
+        private long stamp; // 第一次编码时的 System.nanoTime()，用于统计发布到写出的延迟
+
+        void begin(Topic topic, long now, byte[] buf, int offset, int length, boolean dedupe) {
+            this.topic = topic;
+            this.deliveries = 0;
+            this.stamp = 0;
+            this.now = now;
+            this.buf = buf;
+            this.offset = offset;
+            this.length = length;
+            this.dedupe = dedupe;
+        }
+
+        @Override
+        public void accept(Subscription subscription) {
+            if (subscription.filter != null) {
+                if (evaluation == null) {
+                    evaluation = ContentFilter.evaluate(buf, offset, length);
+                }
+                if (!subscription.accepts(evaluation)) {
+                    return;
+                }
+            }
+            Connection subscriber = subscription.connection;
+            if (dedupe && !delivered.add(subscriber)) {
+                return;
+            }
+            EnvelopeFormat envelope = config.envelopeFormat;
+            if (subscriber.isBinary()) {
+                if (binary == null) {
+                    binary = envelope.binary(topic, now, buf, offset, length);
+                    binary.stamp(stamp());
+                }
+                subscriber.sendMessage(binary.retain());
+            } else {
+                if (text == null) {
+                    text = envelope.text(topic, now, buf, offset, length);
+                    text.stamp(stamp());
                 }
+                subscriber.sendMessage(text.retain());
             }
+            deliveries++;
+        }
 
-            return result;
+        private long stamp() {
+            if (stamp == 0) {
+                stamp = System.nanoTime();
+            }
+            return stamp;
         }
 
+        // 释放发布者自己持有的引用，所有订阅者写出后缓冲区回到池中
+        void end() {
+            release(text);
+            release(binary);
+            text = null;
+            binary = null;
+            evaluation = null;
+            topic = null;
+            buf = null;
+            if (dedupe) {
+                delivered.clear();
+            }
+        }
+    }
 
+    // 向单个连接推送一条消息，用于补发历史消息；有过滤器时只补发满足条件的消息
+    private static void deliver(Topic topic, Connection connection, ContentFilter filter, long timestamp, byte[] buf, int offset, int length) {
+        if (filter != null && !filter.test(ContentFilter.evaluate(buf, offset, length))) {
+            return;
+        }
+        EnvelopeFormat envelope = config.envelopeFormat;
+        connection.sendMessage(connection.isBinary()
+                ? envelope.binary(topic, timestamp, buf, offset, length)
+                : envelope.text(topic, timestamp, buf, offset, length));
     }
 
-    // 向其他 Broker 广播消息
-    private static void broadcastToBrokers(String message) {
-        for (Socket brokerSocket : brokerConnections) {
+    // 从日志的 offset 开始补发历史消息，然后无缝切换到实时推送
+    // 第一阶段不持锁，按发送队列的余量分批补发，直到接近日志末尾；
+    // 第二阶段持有主题的发布锁，补发剩余的少量消息并登记订阅连接，之后的消息都由 publish 实时推送，
+    // 因此衔接处既不会丢消息也不会重复
+    static void catchUp(Topic topic, String subscriber, long from, Connection connection, ContentFilter filter) {
+        CommitLog log = topic.getLog();
+        int batch = Math.max(1, config.queueCapacity / 4);
+        CommitLog.RecordVisitor visitor = (messageOffset, timestamp, payload, payloadOffset, length)
+                -> deliver(topic, connection, filter, timestamp, payload, payloadOffset, length);
+
+        long next = from;
+        while (!connection.isClosed() && log.endOffset() - next > batch) {
+            awaitQueueRoom(connection, batch);
+            next = log.read(next, next + batch, visitor);
+        }
+        awaitQueueRoom(connection, batch);
+        long rest = next;
+        // 开启 -partitions 时第二阶段在主题所属的分区线程中执行，与发布串行
+        runOnOwner(topic.getId(), null, true, () -> {
+            topic.publishLock().lock();
             try {
-                PrintWriter out = new PrintWriter(brokerSocket.getOutputStream(), true);
-                out.println(message);
-            } catch (IOException e) {
-                System.out.println("Failed to broadcast message to broker: " + e.getMessage());
+                log.read(rest, Long.MAX_VALUE, visitor);
+                // 补发期间主题可能已被删除或重建
+                if (!connection.isClosed() && registry.get(topic.getId()) == topic) {
+                    registry.subscribe(topic.getId(), subscriber, connection, filter);
+                } else {
+                    release(filter);
+                }
+            } finally {
+                topic.publishLock().unlock();
+            }
+        });
+    }
+
+    // 补发内存中保留的最近消息并登记订阅连接，与 publish 在同一把锁内（开启 -partitions 时在主题所属的分区线程中），衔接处不丢不重
+    static void catchUpRecent(Topic topic, String subscriber, int limit, Connection connection, ContentFilter filter) {
+        topic.publishLock().lock();
+        try {
+            topic.getRetained().forEachRecent(limit, TimestampCache.epochNanos(),
+                    (timestamp, payload, offset, length) -> deliver(topic, connection, filter, timestamp, payload, offset, length));
+            if (registry.get(topic.getId()) == topic) {
+                registry.subscribe(topic.getId(), subscriber, connection, filter);
+            } else {
+                release(filter);
             }
+        } finally {
+            topic.publishLock().unlock();
         }
     }
 
+    // 补发时等待发送队列腾出空间，避免历史消息因队列写满被丢弃
+    private static void awaitQueueRoom(Connection connection, int batch) {
+        while (!connection.isClosed() && connection.queueDepth() > config.queueCapacity - 2 * batch) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void release(SharedBuffer buffer) {
+        if (buffer != null) {
+            buffer.release();
+        }
+    }
+
+    // 过滤器没有交给 registry.subscribe 时释放
+    private static void release(ContentFilter filter) {
+        if (filter != null) {
+            filter.release();
+        }
+    }
+
+    private static SharedBuffer concat(byte[] prefix, byte[] buf, int offset, int length, byte[] suffix) {
+        SharedBuffer buffer = SharedBuffer.allocate(prefix.length + length + suffix.length);
+        byte[] result = buffer.array();
+        System.arraycopy(prefix, 0, result, 0, prefix.length);
+        System.arraycopy(buf, offset, result, prefix.length, length);
+        System.arraycopy(suffix, 0, result, prefix.length + length, suffix.length);
+        return buffer;
+    }
+
 
     // Topic 类
     static class Topic {
         private final String id;
         private final String name;
         private String publisher;
-        //记录所有的订阅者
-        private final List<String> subscribers = new ArrayList<>();
+        //记录所有的订阅者：名称转换为 SubscriberIds 中的 int ID 后存入开放寻址集合，
+        //同一订阅者只记录一次，增删查都是 O(1)，查询时可能被其他线程并发读取，以集合本身加锁
+        private final IntHashSet subscribers = new IntHashSet();
+        private final ReentrantLock publishLock = new ReentrantLock();
+        // 推送消息时用到的主题部分，ID 和名称不可变，创建主题时编码一次即可
+        private final byte[] envelopePrefix;
+        private final byte[] idBytes;
+        private final byte[] nameBytes;
+        private volatile CommitLog log; // 开启 -log 时的持久化日志
+        private volatile RetainedRing retained; // 开启 -retain 时在内存中保留的最近消息
+        // 以下用于 STATS：累计发布数、累计推送数（fan-out）和最近一秒的发布速率
+        private final LongAdder publishedCount = new LongAdder();
+        private final LongAdder deliveredCount = new LongAdder();
+        private long sampledCount; // 只由采样线程访问
+        private volatile double publishRate;
 
         public Topic(String id, String name) {
-            this.id = id;
-            this.name = name;
+            this(id, name, null);
         }
 
         public Topic(String id, String name, String publisher) {
             this.id = id;
             this.name = name;
             this.publisher = publisher;
+            this.envelopePrefix = ("] [主题 ID:" + id + ":" + name + "] [").getBytes(BinaryProtocol.CHARSET);
+            this.idBytes = BinaryProtocol.bytes(id);
+            this.nameBytes = BinaryProtocol.bytes(name);
         }
 
         public String getId() {
@@ -623,20 +1428,155 @@ public class Broker {
             this.publisher = publisher;
         }
 
+        // 订阅者名称的快照
         public List<String> getSubscribers() {
-            return subscribers;
+            int[] ids;
+            synchronized (subscribers) {
+                ids = subscribers.toArray();
+            }
+            List<String> names = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                names.add(SubscriberIds.name(id));
+            }
+            return names;
+        }
+
+        public int subscriberCount() {
+            synchronized (subscribers) {
+                return subscribers.size();
+            }
+        }
+
+        public boolean hasSubscriber(String subscriber) {
+            int id = SubscriberIds.lookup(subscriber);
+            if (id < 0) {
+                return false;
+            }
+            synchronized (subscribers) {
+                return subscribers.contains(id);
+            }
+        }
+
+        // 文本消息中时间戳之后、消息内容之前的部分："] [主题 ID:id:name] ["
+        byte[] envelopePrefix() {
+            return envelopePrefix;
+        }
+
+        byte[] idBytes() {
+            return idBytes;
+        }
+
+        byte[] nameBytes() {
+            return nameBytes;
+        }
+
+        CommitLog getLog() {
+            return log;
+        }
+
+        RetainedRing getRetained() {
+            return retained;
+        }
+
+        void recordPublish(int deliveries) {
+            publishedCount.increment();
+            deliveredCount.add(deliveries);
+        }
+
+        // 由 BrokerMetrics 的采样线程每秒调用
+        void sampleRate(double seconds) {
+            long count = publishedCount.sum();
+            publishRate = (count - sampledCount) / seconds;
+            sampledCount = count;
+        }
+
+        long publishedCount() {
+            return publishedCount.sum();
+        }
+
+        long deliveredCount() {
+            return deliveredCount.sum();
+        }
+
+        double publishRate() {
+            return publishRate;
+        }
+
+        // 发布锁：存储、推送和补发的衔接在锁内完成。锁内会写映射文件、向连接放入消息，
+        // 用 ReentrantLock 而不是 synchronized，虚拟线程在锁内阻塞时会让出载体线程
+        ReentrantLock publishLock() {
+            return publishLock;
+        }
+
+        // 是否需要在发布锁内存储消息
+        boolean isStored() {
+            return log != null || retained != null;
         }
 
-        public void publishMessage(String message) {
-            // 可选：存储消息以供检索
+        // 按配置创建保留最近消息的环（内存在第一次发布时才分配），并打开持久化日志，打开失败则该主题不做持久化
+        void openStorage(BrokerConfig config) {
+            if (config.retainMessages > 0) {
+                retained = new RetainedRing(config.retainMessages, config.retainBytes, config.retainMillis);
+            }
+            if (config.logDir == null) {
+                return;
+            }
+            try {
+                log = CommitLog.open(id, config);
+            } catch (IOException e) {
+                System.out.println("Failed to open message log for topic " + id + ": " + e.getMessage());
+            }
         }
 
-        public void addSubscriber(String subscriber) {
-            subscribers.add(subscriber);
+        void deleteLog() {
+            CommitLog current = log;
+            if (current == null) {
+                return;
+            }
+            publishLock.lock();
+            try {
+                current.delete();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            } finally {
+                publishLock.unlock();
+            }
         }
 
-        public void removeSubscriber(String subscriber) {
-            subscribers.remove(subscriber);
+        // 存储消息以供检索，返回消息在日志中的 offset，未开启持久化时返回 -1；调用方持有主题的发布锁
+        public long publishMessage(long timestamp, byte[] payload, int offset, int length) {
+            if (retained != null) {
+                retained.append(timestamp, payload, offset, length);
+            }
+            CommitLog current = log;
+            if (current == null) {
+                return -1;
+            }
+            try {
+                return current.append(timestamp, payload, offset, length);
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                return -1;
+            }
+        }
+
+        // 返回 false 表示已经订阅过
+        public boolean addSubscriber(String subscriber) {
+            int id = SubscriberIds.intern(subscriber);
+            synchronized (subscribers) {
+                return subscribers.add(id);
+            }
+        }
+
+        // 返回 false 表示并未订阅
+        public boolean removeSubscriber(String subscriber) {
+            int id = SubscriberIds.lookup(subscriber);
+            if (id < 0) {
+                return false;
+            }
+            synchronized (subscribers) {
+                return subscribers.remove(id);
+            }
         }
     }
 }
@@ -0,0 +1,184 @@
+package com.example.node;
+
+// Broker 启动参数
+// 用法: java Broker <port> [-mode thread|virtual|reactor] [-loops n] [-partitions n] [-partition-inbox n]
+//                    [-queue n] [-overflow drop-oldest|drop-newest|disconnect] [-flush micros]
+//                    [-link text|binary|deflate] [-link-level 1-9] [-link-dict file] [-envelope default|nanos]
+//                    [-log dir] [-log-segment-mb n] [-log-fsync millis] [-log-retention-mb n] [-log-retention-min n]
+//                    [-retain n] [-retain-kb n] [-retain-sec n]
+//                    [-peer-queue n] [-peer-batch-kb n] [-peer-linger micros] [-peer-block-ms millis]
+//                    [-routing interest|flood] [-interest-bloom n]
+//                    [-b <ip:port> ...]
+// -b 必须放在最后，其后的所有参数都视为其他 Broker 的地址
+class BrokerConfig {
+    static final String MODE_THREAD = "thread";   // 每个连接一个线程（默认）
+    static final String MODE_VIRTUAL = "virtual"; // 每个连接一个虚拟线程，需要 JDK 21+
+    static final String MODE_REACTOR = "reactor"; // 基于 Selector 的非阻塞事件循环
+
+    int port;
+    String mode = MODE_THREAD;
+    int eventLoops = Runtime.getRuntime().availableProcessors(); // reactor 模式下的事件循环线程数
+    int partitions = 0; // 按主题分区的发布线程数（见 TopicPartitions），0 表示在读取命令的线程中直接发布
+    int partitionInbox = 4096; // 每个分区收件箱的槽位数，向上取 2 的幂
+    String brokers = ""; // 以空格分隔的其他 Broker 地址
+    int queueCapacity = 1024; // 每个连接发送队列的容量
+    OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.DROP_OLDEST; // 发送队列写满时的策略
+    long flushDelayMicros = 1000; // 突发流量下合并写出时，数据在缓冲区中最多停留的时间
+    int writeBufferSize = 64 * 1024; // 每个连接写缓冲区的大小
+    boolean binaryLinks = false; // 主动连接其他 Broker 时是否协商二进制帧协议
+    boolean compressedLinks = false; // 主动连接其他 Broker 时是否协商压缩链路（同时使用二进制帧）
+    int linkCompressionLevel = 1; // 压缩链路的 Deflater 级别，越高越省带宽、越耗 CPU
+    String linkDictionary; // 压缩链路共享字典的文件，为空时使用内置字典
+    EnvelopeFormat envelopeFormat = EnvelopeFormat.DEFAULT; // 推送给订阅者的消息格式，nanos 额外附带纳秒级的 epoch 时间
+    String logDir; // 持久化消息日志的目录，为空时不开启持久化
+    int logSegmentBytes = 64 * 1024 * 1024; // 每个日志分段的大小
+    long logFsyncMillis = 1000; // 日志 fsync 的间隔，0 表示每条消息都 fsync
+    long logRetentionBytes = 0; // 每个主题日志保留的最大字节数，0 表示不限
+    long logRetentionMillis = 0; // 日志分段保留的最长时间，0 表示不限
+    int retainMessages = 0; // 每个主题在内存中保留的最近消息数，0 表示不保留
+    int retainBytes = 1024 * 1024; // 每个主题保留消息最多使用的内存，按需增长
+    long retainMillis = 0; // 保留消息的最长时间，0 表示不限
+    int peerQueueCapacity = 64 * 1024; // 每条 Broker 复制链路发送管道的容量（命令数），写满后只丢弃 PUBLISH
+    int peerBatchBytes = 64 * 1024; // 复制链路一批最多合并的字节数
+    long peerLingerMicros = 1000; // 突发时复制链路凑批的最长等待时间
+    long peerBlockMillis = 1000; // 复制链路管道写满时，转发方最多阻塞的时间
+    boolean interestRouting = true; // PUBLISH 只转发给有订阅者的 Broker；flood 表示转发给所有 Broker
+    int interestBloomThreshold = 0; // 本地感兴趣的主题数达到该值时，初始兴趣表以布隆过滤器发送，0 表示不使用
+
+    static BrokerConfig parse(String[] args) {
+        BrokerConfig config = new BrokerConfig();
+        config.port = Integer.parseInt(args[0]);
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-mode":
+                    config.mode = args[++i].toLowerCase();
+                    break;
+                case "-loops":
+                    config.eventLoops = Integer.parseInt(args[++i]);
+                    break;
+                case "-partitions":
+                    config.partitions = Integer.parseInt(args[++i]);
+                    break;
+                case "-partition-inbox":
+                    config.partitionInbox = Integer.parseInt(args[++i]);
+                    break;
+                case "-queue":
+                    config.queueCapacity = Integer.parseInt(args[++i]);
+                    break;
+                case "-overflow":
+                    config.overflowPolicy = OutboundQueue.OverflowPolicy.parse(args[++i]);
+                    break;
+                case "-flush":
+                    config.flushDelayMicros = Long.parseLong(args[++i]);
+                    break;
+                case "-link":
+                    String link = args[++i];
+                    config.compressedLinks = "deflate".equalsIgnoreCase(link);
+                    config.binaryLinks = config.compressedLinks || "binary".equalsIgnoreCase(link);
+                    break;
+                case "-link-level":
+                    config.linkCompressionLevel = Integer.parseInt(args[++i]);
+                    break;
+                case "-link-dict":
+                    config.linkDictionary = args[++i];
+                    break;
+                case "-envelope":
+                    config.envelopeFormat = EnvelopeFormat.parse(args[++i]);
+                    break;
+                case "-log":
+                    config.logDir = args[++i];
+                    break;
+                case "-log-segment-mb":
+                    config.logSegmentBytes = bytes(args[++i], 1024 * 1024, "-log-segment-mb");
+                    break;
+                case "-log-fsync":
+                    config.logFsyncMillis = Long.parseLong(args[++i]);
+                    break;
+                case "-log-retention-mb":
+                    config.logRetentionBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+                    break;
+                case "-log-retention-min":
+                    config.logRetentionMillis = Long.parseLong(args[++i]) * 60 * 1000;
+                    break;
+                case "-retain":
+                    config.retainMessages = Integer.parseInt(args[++i]);
+                    break;
+                case "-retain-kb":
+                    config.retainBytes = bytes(args[++i], 1024, "-retain-kb");
+                    break;
+                case "-retain-sec":
+                    config.retainMillis = Long.parseLong(args[++i]) * 1000;
+                    break;
+                case "-peer-queue":
+                    config.peerQueueCapacity = Integer.parseInt(args[++i]);
+                    break;
+                case "-peer-batch-kb":
+                    config.peerBatchBytes = bytes(args[++i], 1024, "-peer-batch-kb");
+                    break;
+                case "-peer-linger":
+                    config.peerLingerMicros = Long.parseLong(args[++i]);
+                    break;
+                case "-peer-block-ms":
+                    config.peerBlockMillis = Long.parseLong(args[++i]);
+                    break;
+                case "-routing":
+                    config.interestRouting = !"flood".equalsIgnoreCase(args[++i]);
+                    break;
+                case "-interest-bloom":
+                    config.interestBloomThreshold = Integer.parseInt(args[++i]);
+                    break;
+                case "-b":
+                    // 找到 -b 后，拼接所有后面的 broker 地址
+                    StringBuilder brokers = new StringBuilder();
+                    for (int j = i + 1; j < args.length; j++) {
+                        brokers.append(args[j]).append(" "); // 使用空格拼接多个 broker 地址
+                    }
+                    config.brokers = brokers.toString().trim(); // 去掉末尾空格
+                    i = args.length;
+                    break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+            }
+        }
+
+        if (!MODE_THREAD.equals(config.mode) && !MODE_VIRTUAL.equals(config.mode)
+                && !MODE_REACTOR.equals(config.mode)) {
+            throw new IllegalArgumentException("Unknown mode: " + config.mode);
+        }
+        if (config.eventLoops < 1) {
+            throw new IllegalArgumentException("-loops must be at least 1");
+        }
+        if (config.partitions < 0 || config.partitionInbox < 2 || config.partitionInbox > 1 << 24) {
+            throw new IllegalArgumentException("-partitions must not be negative and -partition-inbox must be between 2 and 16777216");
+        }
+        if (config.linkCompressionLevel < 1 || config.linkCompressionLevel > 9) {
+            throw new IllegalArgumentException("-link-level must be between 1 and 9");
+        }
+        if (config.queueCapacity < 1) {
+            throw new IllegalArgumentException("-queue must be at least 1");
+        }
+        if (config.logSegmentBytes < 1024 * 1024 || config.logSegmentBytes > 1024 * 1024 * 1024) {
+            throw new IllegalArgumentException("-log-segment-mb must be between 1 and 1024");
+        }
+        if (config.logFsyncMillis < 0) {
+            throw new IllegalArgumentException("-log-fsync must not be negative");
+        }
+        if (config.peerQueueCapacity < 1 || config.peerBatchBytes < 1) {
+            throw new IllegalArgumentException("-peer-queue and -peer-batch-kb must be positive");
+        }
+        if (config.retainMessages < 0 || config.retainBytes < 1) {
+            throw new IllegalArgumentException("-retain and -retain-kb must be positive");
+        }
+        return config;
+    }
+
+    // 按单位换算成字节，超出 int 范围时报错而不是溢出成另一个值
+    private static int bytes(String value, int unit, String option) {
+        long n = Long.parseLong(value);
+        if (n > Integer.MAX_VALUE / unit || n < Integer.MIN_VALUE / unit) {
+            throw new IllegalArgumentException(option + " is out of range: " + value);
+        }
+        return (int) n * unit;
+    }
+}
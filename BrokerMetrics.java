@@ -0,0 +1,315 @@
+package com.example.node;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Broker 的运行指标：发布 / 推送的条数和速率、每个主题的发布速率和 fan-out 数、发布到写出的延迟分布、
+// 每个连接发送队列的深度和字节数、到其他 Broker 的复制落后时间、线程数和连接数
+// 通过客户端命令 STATS [topicId] 和 JMX（见 BrokerStatsMBean）读取
+//
+// 热点路径上只做 LongAdder 加法和分片直方图的一次原子加，发布线程和写线程之间不会因为统计争用同一个缓存行；
+// 速率由后台线程每秒采样一次，读取方只读采样结果。队列深度、落后时间等在读取时现场遍历连接计算，不在热点路径上维护
+final class BrokerMetrics {
+    private static final long SAMPLE_MILLIS = 1000;
+    private static final int TOP = 10; // STATS 中列出的最活跃主题数和最深队列数
+
+    private static final LongAdder published = new LongAdder();
+    private static final LongAdder delivered = new LongAdder();
+    private static final LatencyHistogram writeLatency = new LatencyHistogram();
+    private static final Set<Connection> connections = ConcurrentHashMap.newKeySet(); // 客户端连接和 Broker 连接
+    private static final long startMillis = System.currentTimeMillis();
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static volatile double publishRate;
+    private static volatile double deliveryRate;
+    private static TopicRegistry registry;
+    private static List<PeerLink> peers;
+
+    private BrokerMetrics() {
+    }
+
+    // 启动采样线程并注册 JMX，只在 Broker 启动时调用一次
+    static void start(TopicRegistry registry, List<PeerLink> peers, int port) {
+        BrokerMetrics.registry = registry;
+        BrokerMetrics.peers = peers;
+        Thread sampler = new Thread(BrokerMetrics::sampleLoop, "metrics-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Stats(), BrokerStatsMBean.class),
+                    new ObjectName("com.example.node:type=Broker,port=" + port));
+        } catch (Exception e) {
+            System.out.println("JMX 注册失败: " + e);
+        }
+    }
+
+    // 一条消息发布完成，推送给了 deliveries 个连接
+    static void published(Broker.Topic topic, int deliveries) {
+        published.increment();
+        delivered.add(deliveries);
+        topic.recordPublish(deliveries);
+    }
+
+    // 一条数据已交给 socket，带发布时间戳的（订阅消息）计入发布到写出的延迟
+    static void written(SharedBuffer buffer) {
+        long stamp = buffer.stamp();
+        if (stamp != 0) {
+            writeLatency.record(System.nanoTime() - stamp);
+        }
+    }
+
+    static void opened(Connection connection) {
+        connections.add(connection);
+    }
+
+    static void closed(Connection connection) {
+        connections.remove(connection);
+    }
+
+    // 每秒计算一次全局和各主题的速率
+    private static void sampleLoop() {
+        long lastPublished = 0;
+        long lastDelivered = 0;
+        long last = System.nanoTime();
+        while (true) {
+            try {
+                Thread.sleep(SAMPLE_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            double seconds = (now - last) / 1e9;
+            last = now;
+            long totalPublished = published.sum();
+            long totalDelivered = delivered.sum();
+            publishRate = (totalPublished - lastPublished) / seconds;
+            deliveryRate = (totalDelivered - lastDelivered) / seconds;
+            lastPublished = totalPublished;
+            lastDelivered = totalDelivered;
+            for (Broker.Topic topic : registry.topics()) {
+                topic.sampleRate(seconds);
+            }
+        }
+    }
+
+    // STATS 的完整报告，每行一条响应
+    static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        int clients = 0;
+        long queued = 0;
+        long queuedBytes = 0;
+        long dropped = 0;
+        PriorityQueue<Connection> deepest = new PriorityQueue<>(Comparator.comparingInt(Connection::queueDepth));
+        for (Connection connection : connections) {
+            if (!Broker.isBrokerConnection(connection)) {
+                clients++;
+            }
+            queued += connection.queueDepth();
+            queuedBytes += connection.queuedBytes();
+            dropped += connection.droppedMessages();
+            if (connection.queueDepth() > 0) {
+                deepest.add(connection);
+                if (deepest.size() > TOP) {
+                    deepest.poll();
+                }
+            }
+        }
+
+        lines.add(String.format("[运行:%ds] [连接:%d 客户端:%d Broker:%d] [线程:%d 峰值:%d]",
+                uptimeSeconds(), connections.size(), clients, peers.size(),
+                threads.getThreadCount(), threads.getPeakThreadCount()));
+        lines.add(String.format("[主题:%d] [发布:%d 条 %.0f 条/秒] [推送:%d 条 %.0f 条/秒] [丢弃:%d]",
+                registry.topics().size(), published.sum(), publishRate, delivered.sum(), deliveryRate, dropped));
+        LatencyHistogram.Snapshot latency = writeLatency.snapshot();
+        lines.add(String.format("[发布到写出延迟] [样本:%d] [p50:%.1fus] [p99:%.1fus] [p99.9:%.1fus] [max:%.1fus]",
+                latency.count(), micros(latency.percentile(50)), micros(latency.percentile(99)),
+                micros(latency.percentile(99.9)), micros(latency.max())));
+        lines.add(String.format("[发送队列] [消息:%d] [字节:%d]", queued, queuedBytes));
+        TopicPartitions partitions = Broker.partitions();
+        if (partitions != null) {
+            lines.add(String.format("[分区:%d] [收件箱积压:%d]", partitions.count(), partitions.backlog()));
+        }
+        TopicIndex publishers = registry.publisherIndex();
+        TopicIndex subscribers = registry.subscriberIndex();
+        lines.add(String.format("[索引] [发布者:%d 键 %d 项 %d 字节] [订阅者:%d 键 %d 项 %d 字节] [订阅者名称:%d] [过滤器共享节点:%d]",
+                publishers.keyCount(), publishers.entryCount(), publishers.footprintBytes(),
+                subscribers.keyCount(), subscribers.entryCount(), subscribers.footprintBytes(),
+                SubscriberIds.size(), ContentFilter.sharedNodeCount()));
+        for (PeerLink link : peers) {
+            lines.add(String.format("[Broker:%s] [积压:%d 条 %d 字节] [落后:%dms]",
+                    link, link.queueDepth(), link.pendingBytes(), link.lagMillis()));
+        }
+
+        PriorityQueue<Broker.Topic> busiest = new PriorityQueue<>(Comparator.comparingDouble(Broker.Topic::publishRate));
+        for (Broker.Topic topic : registry.topics()) {
+            if (topic.publishRate() > 0) {
+                busiest.add(topic);
+                if (busiest.size() > TOP) {
+                    busiest.poll();
+                }
+            }
+        }
+        List<Broker.Topic> topics = new ArrayList<>(busiest);
+        topics.sort(Comparator.comparingDouble(Broker.Topic::publishRate).reversed());
+        for (Broker.Topic topic : topics) {
+            lines.add(topicReport(topic));
+        }
+
+        List<Connection> queues = new ArrayList<>(deepest);
+        queues.sort(Comparator.comparingInt(Connection::queueDepth).reversed());
+        for (Connection connection : queues) {
+            lines.add(String.format("[连接:%s] [队列:%d 条 %d 字节] [丢弃:%d]",
+                    connection, connection.queueDepth(), connection.queuedBytes(), connection.droppedMessages()));
+        }
+        return lines;
+    }
+
+    // 单个主题：累计发布数、最近一秒的发布速率、累计推送数（fan-out）、当前订阅连接数
+    static String topicReport(Broker.Topic topic) {
+        return String.format("[主题 ID:%s] [发布:%d 条 %.0f 条/秒] [推送:%d 条] [订阅连接:%d]",
+                topic.getId(), topic.publishedCount(), topic.publishRate(), topic.deliveredCount(),
+                registry.subscriptions(topic.getId()).size());
+    }
+
+    private static long uptimeSeconds() {
+        return (System.currentTimeMillis() - startMillis) / 1000;
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+
+    private static final class Stats implements BrokerStatsMBean {
+        @Override
+        public long getUptimeSeconds() {
+            return uptimeSeconds();
+        }
+
+        @Override
+        public int getConnectionCount() {
+            return connections.size();
+        }
+
+        @Override
+        public int getClientConnectionCount() {
+            int clients = 0;
+            for (Connection connection : connections) {
+                if (!Broker.isBrokerConnection(connection)) {
+                    clients++;
+                }
+            }
+            return clients;
+        }
+
+        @Override
+        public int getPeerCount() {
+            return peers.size();
+        }
+
+        @Override
+        public int getThreadCount() {
+            return threads.getThreadCount();
+        }
+
+        @Override
+        public int getTopicCount() {
+            return registry.topics().size();
+        }
+
+        @Override
+        public long getPublishedMessages() {
+            return published.sum();
+        }
+
+        @Override
+        public double getPublishRate() {
+            return publishRate;
+        }
+
+        @Override
+        public long getDeliveredMessages() {
+            return delivered.sum();
+        }
+
+        @Override
+        public double getDeliveryRate() {
+            return deliveryRate;
+        }
+
+        @Override
+        public long getDroppedMessages() {
+            long dropped = 0;
+            for (Connection connection : connections) {
+                dropped += connection.droppedMessages();
+            }
+            return dropped;
+        }
+
+        @Override
+        public long getQueuedMessages() {
+            long queued = 0;
+            for (Connection connection : connections) {
+                queued += connection.queueDepth();
+            }
+            return queued;
+        }
+
+        @Override
+        public long getQueuedBytes() {
+            long bytes = 0;
+            for (Connection connection : connections) {
+                bytes += connection.queuedBytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public long getMaxPeerLagMillis() {
+            long lag = 0;
+            for (PeerLink link : peers) {
+                lag = Math.max(lag, link.lagMillis());
+            }
+            return lag;
+        }
+
+        @Override
+        public long getWriteLatencySamples() {
+            return writeLatency.snapshot().count();
+        }
+
+        @Override
+        public double getWriteLatencyP50Micros() {
+            return micros(writeLatency.snapshot().percentile(50));
+        }
+
+        @Override
+        public double getWriteLatencyP99Micros() {
+            return micros(writeLatency.snapshot().percentile(99));
+        }
+
+        @Override
+        public double getWriteLatencyP999Micros() {
+            return micros(writeLatency.snapshot().percentile(99.9));
+        }
+
+        @Override
+        public double getWriteLatencyMaxMicros() {
+            return micros(writeLatency.snapshot().max());
+        }
+
+        @Override
+        public String[] stats() {
+            return report().toArray(new String[0]);
+        }
+
+        @Override
+        public String topicStats(String topicId) {
+            Broker.Topic topic = registry.get(topicId);
+            return topic == null ? "[ERROR] 主题没找到: " + topicId : topicReport(topic);
+        }
+    }
+}
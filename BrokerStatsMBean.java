@@ -0,0 +1,49 @@
+package com.example.node;
+
+// Broker 的 JMX 接口，注册为 com.example.node:type=Broker,port=<端口>
+// 属性与 STATS 命令的输出一致，速率为最近一秒的采样值，延迟单位为微秒
+public interface BrokerStatsMBean {
+    long getUptimeSeconds();
+
+    int getConnectionCount();
+
+    int getClientConnectionCount();
+
+    int getPeerCount();
+
+    int getThreadCount();
+
+    int getTopicCount();
+
+    long getPublishedMessages();
+
+    double getPublishRate();
+
+    long getDeliveredMessages();
+
+    double getDeliveryRate();
+
+    long getDroppedMessages();
+
+    long getQueuedMessages();
+
+    long getQueuedBytes();
+
+    long getMaxPeerLagMillis();
+
+    long getWriteLatencySamples();
+
+    double getWriteLatencyP50Micros();
+
+    double getWriteLatencyP99Micros();
+
+    double getWriteLatencyP999Micros();
+
+    double getWriteLatencyMaxMicros();
+
+    // 与 STATS 命令相同的完整报告
+    String[] stats();
+
+    // 与 STATS topicId 相同
+    String topicStats(String topicId);
+}
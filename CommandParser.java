@@ -0,0 +1,165 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+// 可复用的命令解析器，直接在连接的读缓冲区上工作，每个连接一个，只在该连接的读线程中使用
+// 解析时只记录命令和各参数在缓冲区中的偏移与长度，不为每条命令分配 String / String[]；
+// PUBLISH 的消息内容以原始字节切片的形式交给发布逻辑，不经过解码和重新编码
+class CommandParser {
+    static final int MAX_ARGS = 8;
+
+    // 文本协议的命令名，下标为 BinaryProtocol 中对应的操作码
+    private static final byte[][] COMMAND_NAMES = new byte[BinaryProtocol.MAX_COMMAND + 1][];
+
+    static {
+        for (byte opcode = BinaryProtocol.CREATE; opcode <= BinaryProtocol.MAX_COMMAND; opcode++) {
+            COMMAND_NAMES[opcode] = BinaryProtocol.command(opcode).getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private byte[] buffer;
+    private byte command;
+    private int argCount;
+    private final int[] argOffsets = new int[MAX_ARGS];
+    private final int[] argLengths = new int[MAX_ARGS];
+
+    // 最近一次解析出的主题 ID，连续发布到同一主题时复用同一个 String
+    private byte[] cachedTopicBytes = new byte[0];
+    private String cachedTopicId;
+
+    // 解析一行文本命令 [start, end)，不含换行符
+    // 参数按单个空格拆分，与 split(" ") 的结果一致；PUBLISH 的第二个参数之后全部作为消息内容，原样保留
+    void parseLine(byte[] buf, int start, int end) {
+        buffer = buf;
+        argCount = 0;
+
+        int space = indexOf(buf, start, end, (byte) ' ');
+        command = lookup(buf, start, space);
+        int maxArgs = command == BinaryProtocol.PUBLISH ? 2 : MAX_ARGS;
+        int pos = space + 1;
+        while (pos <= end && argCount < maxArgs) {
+            int next = argCount == maxArgs - 1 ? end : indexOf(buf, pos, end, (byte) ' ');
+            argOffsets[argCount] = pos;
+            argLengths[argCount] = next - pos;
+            argCount++;
+            pos = next + 1;
+        }
+        // 与 split(" ") 一致，去掉末尾的空参数
+        while (argCount > 0 && argLengths[argCount - 1] == 0) {
+            argCount--;
+        }
+    }
+
+    // 解析二进制帧体 [start, end)：操作码 | 参数个数 | 每个参数 int32 长度 + 原始字节
+    void parseFrame(byte[] buf, int start, int end) throws IOException {
+        buffer = buf;
+        if (end - start < 2) {
+            throw new IOException("Truncated frame");
+        }
+        command = buf[start];
+        int argc = buf[start + 1] & 0xFF;
+        if (argc > MAX_ARGS) {
+            throw new IOException("Too many arguments: " + argc);
+        }
+        int pos = start + 2;
+        for (argCount = 0; argCount < argc; argCount++) {
+            if (end - pos < 4) {
+                throw new IOException("Truncated frame");
+            }
+            int length = readInt(buf, pos);
+            pos += 4;
+            if (length < 0 || length > end - pos) {
+                throw new IOException("Invalid argument length: " + length);
+            }
+            argOffsets[argCount] = pos;
+            argLengths[argCount] = length;
+            pos += length;
+        }
+    }
+
+    // BinaryProtocol 中的操作码，未知命令为 -1
+    byte command() {
+        return command;
+    }
+
+    int argCount() {
+        return argCount;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int argOffset(int index) {
+        return argOffsets[index];
+    }
+
+    int argLength(int index) {
+        return argLengths[index];
+    }
+
+    String arg(int index) {
+        return new String(buffer, argOffsets[index], argLengths[index], BinaryProtocol.CHARSET);
+    }
+
+    // 第一个参数作为主题 ID，与上一次相同时不再分配新的 String
+    String topicId() {
+        int offset = argOffsets[0];
+        int length = argLengths[0];
+        if (cachedTopicId == null || !equals(cachedTopicBytes, buffer, offset, length)) {
+            cachedTopicBytes = new byte[length];
+            System.arraycopy(buffer, offset, cachedTopicBytes, 0, length);
+            cachedTopicId = new String(cachedTopicBytes, BinaryProtocol.CHARSET);
+        }
+        return cachedTopicId;
+    }
+
+    // 转换为与文本协议 split(" ") 结果相同形式的数组，只用于不在热点路径上的命令
+    String[] toParts() {
+        String[] parts = new String[argCount + 1];
+        parts[0] = BinaryProtocol.command(command);
+        for (int i = 0; i < argCount; i++) {
+            parts[i + 1] = arg(i);
+        }
+        return parts;
+    }
+
+    private static byte lookup(byte[] buf, int start, int end) {
+        for (byte opcode = 0; opcode < COMMAND_NAMES.length; opcode++) {
+            byte[] name = COMMAND_NAMES[opcode];
+            if (name != null && equals(name, buf, start, end - start)) {
+                return opcode;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equals(byte[] expected, byte[] buf, int offset, int length) {
+        if (expected.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != buf[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int indexOf(byte[] buf, int start, int end, byte value) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == value) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    static int readInt(byte[] buf, int pos) {
+        return ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16)
+                | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+    }
+}
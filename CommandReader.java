@@ -0,0 +1,76 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+
+import java.io.*;
+
+// 阻塞模式下从输入流读取命令
+// 复用同一块读缓冲区，按握手结果切分出文本行或二进制帧，交给 CommandParser 原地解析
+class CommandReader {
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    private final InputStream in;
+    private final boolean binary;
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int start; // 未解析数据的起始位置
+    private int end;   // 已读入数据的结束位置
+
+    public CommandReader(InputStream in, boolean binary) {
+        this.in = in;
+        this.binary = binary;
+    }
+
+    // 读取下一条命令并交给 parser 解析，流结束时返回 false
+    public boolean next(CommandParser parser) throws IOException {
+        while (true) {
+            if (binary) {
+                if (end - start >= 4) {
+                    int length = CommandParser.readInt(buf, start);
+                    if (length < 2 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                        throw new IOException("Invalid frame length: " + length);
+                    }
+                    if (end - start >= 4 + length) {
+                        parser.parseFrame(buf, start + 4, start + 4 + length);
+                        start += 4 + length;
+                        return true;
+                    }
+                }
+            } else {
+                int newline = CommandParser.indexOf(buf, start, end, (byte) '\n');
+                if (newline < end) {
+                    int lineEnd = newline > start && buf[newline - 1] == '\r' ? newline - 1 : newline;
+                    parser.parseLine(buf, start, lineEnd);
+                    start = newline + 1;
+                    return true;
+                }
+                if (end - start >= MAX_LINE_LENGTH) {
+                    throw new IOException("Line too long");
+                }
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    // 从输入流读入更多数据，必要时先把未解析的数据移到缓冲区开头或扩容
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buf.length) {
+            byte[] bigger = new byte[buf.length * 2];
+            System.arraycopy(buf, 0, bigger, 0, end);
+            buf = bigger;
+        }
+        int n = in.read(buf, end, buf.length - end);
+        if (n < 0) {
+            return false;
+        }
+        end += n;
+        return true;
+    }
+}
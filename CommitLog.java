@@ -0,0 +1,290 @@
+package com.example.node;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+// 单个主题的持久化消息日志：分段、内存映射、只追加
+// 每条消息分配一个从 0 开始递增的 offset，订阅者可以从任意 offset 重新消费
+//
+// 目录结构：<logDir>/<topicId>/<baseOffset>.log，每个分段预先分配固定大小并映射到内存，
+// 写满后滚动到下一个分段。记录格式：[int 长度][long 时间戳(epoch 纳秒)][payload]，
+// 长度 = 8 + payload 长度，最后写入，因此恢复时遇到长度为 0 或不完整的记录即为日志末尾。
+//
+// 追加只由持有主题发布锁的线程执行（单写者），读取可以与追加并发：
+// 读者只访问已发布的 offset（endOffset 为 volatile），各自使用映射缓冲区的副本
+final class CommitLog implements Closeable {
+    private static final int HEADER_SIZE = 4 + 8;
+    private static final String SUFFIX = ".log";
+
+    // 读取日志时的回调，payload 为只在回调期间有效的临时数组
+    interface RecordVisitor {
+        void record(long offset, long timestamp, byte[] payload, int payloadOffset, int length);
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long retentionBytes;
+    private final long retentionNanos;
+    private final boolean syncEveryMessage;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private volatile long endOffset;
+    private volatile boolean dirty;
+    private volatile boolean closed;
+
+    private CommitLog(Path dir, BrokerConfig config) {
+        this.dir = dir;
+        this.segmentBytes = config.logSegmentBytes;
+        this.retentionBytes = config.logRetentionBytes;
+        this.retentionNanos = TimeUnit.MILLISECONDS.toNanos(config.logRetentionMillis);
+        this.syncEveryMessage = config.logFsyncMillis == 0;
+    }
+
+    // 打开（或创建）主题的日志，已有分段会被扫描以恢复 offset 索引和写入位置
+    static CommitLog open(String topicId, BrokerConfig config) throws IOException {
+        Path dir = Paths.get(config.logDir, directoryName(topicId));
+        Files.createDirectories(dir);
+        CommitLog log = new CommitLog(dir, config);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(Comparator.comparingLong(CommitLog::baseOffset));
+        for (Path file : files) {
+            Segment segment = Segment.recover(file, baseOffset(file));
+            log.segments.add(segment);
+            log.endOffset = segment.baseOffset + segment.count;
+        }
+        if (log.segments.isEmpty()) {
+            log.segments.add(Segment.create(dir, 0, log.segmentBytes));
+        }
+        return log;
+    }
+
+    // 追加一条消息，返回其 offset；调用方必须持有主题的发布锁
+    long append(long timestamp, byte[] payload, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Log closed: " + dir);
+        }
+        Segment active = segments.get(segments.size() - 1);
+        if (!active.hasRoom(length)) {
+            active.force();
+            active = Segment.create(dir, endOffset, Math.max(segmentBytes, HEADER_SIZE + length));
+            segments.add(active);
+        }
+        long messageOffset = endOffset;
+        active.append(timestamp, payload, offset, length);
+        endOffset = messageOffset + 1; // 发布给并发的读者
+        if (syncEveryMessage) {
+            active.force();
+        } else {
+            dirty = true;
+        }
+        return messageOffset;
+    }
+
+    // 最早仍然保留的 offset
+    long startOffset() {
+        return segments.get(0).baseOffset;
+    }
+
+    // 下一条消息将获得的 offset
+    long endOffset() {
+        return endOffset;
+    }
+
+    // 依次读取 [from, to) 范围内的消息，from 早于最早保留的 offset 时从最早的开始，
+    // 返回下一个未读的 offset
+    long read(long from, long to, RecordVisitor visitor) {
+        long next = Math.max(from, startOffset());
+        to = Math.min(to, endOffset);
+        byte[] scratch = new byte[256];
+        for (Segment segment : segments) {
+            long segmentEnd = segment.baseOffset + segment.count;
+            if (segmentEnd <= next) {
+                continue;
+            }
+            ByteBuffer view = segment.view();
+            while (next < to && next < segmentEnd) {
+                int position = segment.position(next);
+                int length = view.getInt(position) - 8;
+                long timestamp = view.getLong(position + 4);
+                if (scratch.length < length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                view.position(position + HEADER_SIZE);
+                view.get(scratch, 0, length);
+                visitor.record(next, timestamp, scratch, 0, length);
+                next++;
+            }
+            if (next >= to) {
+                break;
+            }
+        }
+        return next;
+    }
+
+    // 把尚未落盘的数据 fsync 到磁盘，由后台线程按 -log-fsync 间隔调用，不需要持有发布锁，
+    // fsync 期间发布者可以继续追加；之后追加的数据会重新标记 dirty，由下一轮处理
+    void flush() {
+        if (dirty && !closed) {
+            dirty = false;
+            segments.get(segments.size() - 1).force();
+        }
+    }
+
+    // 按大小和时间删除过期的分段，当前正在写入的分段始终保留；调用方必须持有主题的发布锁
+    void applyRetention(long nowNanos) throws IOException {
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            boolean tooLarge = retentionBytes > 0 && size() > retentionBytes;
+            boolean tooOld = retentionNanos > 0 && nowNanos - oldest.lastTimestamp > retentionNanos;
+            if (!tooLarge && !tooOld) {
+                break;
+            }
+            segments.remove(0);
+            Files.deleteIfExists(oldest.file);
+        }
+    }
+
+    // 日志占用的字节数
+    long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.writePosition;
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            flush();
+            closed = true;
+        }
+    }
+
+    // 删除主题时一并删除日志文件；已映射的内容仍然可读，正在进行的追赶读取不受影响
+    void delete() throws IOException {
+        closed = true;
+        for (Segment segment : segments) {
+            Files.deleteIfExists(segment.file);
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    // 主题 ID 中不能作为文件名的字符按 %XX 转义
+    private static String directoryName(String topicId) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : topicId.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_') {
+                name.append(c);
+            } else {
+                name.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return name.toString();
+    }
+
+    private static long baseOffset(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    // 一个日志分段：一个预分配的文件及其内存映射
+    private static final class Segment {
+        final Path file;
+        final long baseOffset;
+        private final MappedByteBuffer buffer;
+        // 每条记录在分段中的起始位置，下标为 offset - baseOffset；写者先写入位置再增加 count
+        private volatile int[] positions = new int[1024];
+        volatile int count;
+        int writePosition;
+        long lastTimestamp;
+
+        private Segment(Path file, long baseOffset, MappedByteBuffer buffer) {
+            this.file = file;
+            this.baseOffset = baseOffset;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path dir, long baseOffset, int size) throws IOException {
+            Path file = dir.resolve(String.format("%020d", baseOffset) + SUFFIX);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(file, baseOffset, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        // 扫描已有分段，重建索引；遇到长度为 0 或越界的记录即认为到达末尾（可能是崩溃时未写完的记录）
+        static Segment recover(Path file, long baseOffset) throws IOException {
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = new Segment(file, baseOffset, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+            }
+            MappedByteBuffer buffer = segment.buffer;
+            int position = 0;
+            while (buffer.capacity() - position >= HEADER_SIZE) {
+                int length = buffer.getInt(position);
+                if (length < 8 || length > buffer.capacity() - position - 4) {
+                    break;
+                }
+                segment.addPosition(position);
+                segment.lastTimestamp = buffer.getLong(position + 4);
+                position += 4 + length;
+            }
+            segment.writePosition = position;
+            // 清掉未写完的残留记录头，之后的追加从这里继续
+            if (buffer.capacity() - position >= 4) {
+                buffer.putInt(position, 0);
+            }
+            return segment;
+        }
+
+        boolean hasRoom(int length) {
+            return buffer.capacity() - writePosition >= HEADER_SIZE + length;
+        }
+
+        void append(long timestamp, byte[] payload, int offset, int length) {
+            int position = writePosition;
+            buffer.putLong(position + 4, timestamp);
+            buffer.position(position + HEADER_SIZE);
+            buffer.put(payload, offset, length);
+            buffer.putInt(position, 8 + length); // 长度最后写入，标志记录完整
+            writePosition = position + HEADER_SIZE + length;
+            lastTimestamp = timestamp;
+            addPosition(position);
+        }
+
+        private void addPosition(int position) {
+            int[] current = positions;
+            if (count == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+                positions = current;
+            }
+            current[count] = position;
+            count = count + 1;
+        }
+
+        int position(long offset) {
+            return positions[(int) (offset - baseOffset)];
+        }
+
+        // 读者各自使用一个副本，互不影响 position
+        ByteBuffer view() {
+            return buffer.duplicate();
+        }
+
+        void force() {
+            buffer.force();
+        }
+    }
+}
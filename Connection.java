@@ -0,0 +1,93 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+
+// Broker 与对端（客户端或其他 Broker）之间的一条连接
+// 阻塞的 Socket 与 NIO 的 SocketChannel 共用同一套命令处理逻辑
+interface Connection {
+    String LINE_SEPARATOR = System.lineSeparator();
+
+    // 发送已按本连接协议编码好的数据，只入队不阻塞，由连接自己的写线程异步写出
+    // 调用方交出 buffer 的一个引用，写出或丢弃后由连接负责 release
+    void sendBuffer(SharedBuffer buffer);
+
+    default void sendRaw(byte[] data) {
+        sendBuffer(SharedBuffer.wrap(data));
+    }
+
+    // 推送一条订阅消息，对端用 CREDIT 开启了流控时受额度限制（见 CreditGate），否则与 sendBuffer 相同
+    default void sendMessage(SharedBuffer buffer) {
+        sendBuffer(buffer);
+    }
+
+    // 对端授予 n 条订阅消息的额度，第一次调用后开启流控；不支持流控的连接忽略
+    default void grantCredits(long n) {
+    }
+
+    // 发布者开启累计确认（见 PublishAcks），只有二进制连接支持
+    default void enableCumulativeAcks(long intervalMicros, int maxPending) {
+    }
+
+    // 带序号的 PUBLISH 到达时在读线程中调用；返回 true 表示已开启累计确认，处理完后必须调用 acknowledge，
+    // 返回 false 表示需要逐条响应
+    default boolean expectAcknowledge(String sequence) {
+        return false;
+    }
+
+    // expectAcknowledge 返回 true 的请求处理完（成功，或失败且已单独响应）
+    default void acknowledge(String sequence) {
+    }
+
+    // 握手时是否协商了二进制帧协议
+    boolean isBinary();
+
+    // 向对端发送一行文本（不含换行符），二进制连接上以 RESPONSE 帧发送
+    default void send(String message) {
+        sendRaw(isBinary() ? BinaryProtocol.encode(BinaryProtocol.RESPONSE, message) : encodeLine(message));
+    }
+
+    // 按本连接的协议编码一条命令，parts 与文本协议 split(" ") 的结果形式相同
+    default byte[] encodeCommand(String[] parts) {
+        if (!isBinary()) {
+            return encodeLine(String.join(" ", parts));
+        }
+        byte[][] args = new byte[parts.length - 1][];
+        for (int i = 1; i < parts.length; i++) {
+            args[i - 1] = BinaryProtocol.bytes(parts[i]);
+        }
+        return BinaryProtocol.encode(BinaryProtocol.opcode(parts[0]), args);
+    }
+
+    // 发送队列中尚未写出的消息数
+    int queueDepth();
+
+    // 发送队列中尚未写出的字节数（不含等待额度的消息）
+    default long queuedBytes() {
+        return 0;
+    }
+
+    // 因发送队列写满而丢弃的消息数
+    long droppedMessages();
+
+    // 写线程（或事件循环）每写完一批数据后调用 listener，供等待发送队列腾出空间的一方（PeerLink）唤醒；
+    // listener 必须很快返回。不支持的连接忽略，等待方只能靠超时重新检查
+    default void onDrained(Runnable listener) {
+    }
+
+    // 暂停 / 恢复读取对端的命令，只在事件循环中读取的连接需要：事件循环不能阻塞等待（例如分区收件箱已满），
+    // 改为暂停读取，由处理完的一方调用 resumeReads。其他连接由各自的线程读取，直接等待即可，忽略这两个调用
+    default void suspendReads() {
+    }
+
+    default void resumeReads() {
+    }
+
+    // 关闭连接
+    void close();
+
+    boolean isClosed();
+
+    static byte[] encodeLine(String message) {
+        return (message + LINE_SEPARATOR).getBytes(BinaryProtocol.CHARSET);
+    }
+}
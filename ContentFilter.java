@@ -0,0 +1,619 @@
+package com.example.node;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 订阅时的内容过滤表达式，例如 price > 100 AND region = 'EU'
+// 支持 = != <> > >= < <=、AND、OR、NOT 和括号，字面量为数字、'字符串'、TRUE、FALSE。
+// 字段取自消息内容：以 { 开头的按 JSON 对象解析（嵌套对象的字段用 a.b 访问），
+// 否则按 k=v 键值对解析（以空白、逗号、分号或 & 分隔）；字段不存在或不是数字时比较结果为 false
+//
+// 表达式在订阅时编译一次，相同的子表达式（按规范化后的文本）在所有订阅之间共用同一个节点；
+// 推送一条消息时每个节点最多求值一次，结果记在每个线程复用的 Evaluation 中，
+// 很多订阅者使用相似的过滤条件时公共部分只计算一次，消息内容也只在第一次需要字段时解析一次
+//
+// 共用的节点按引用计数：每个编译出的过滤器和每个父节点各持有一次引用，订阅被移除时调用 release，
+// 计数归零的节点从共享表中删除，编号回收给之后的新节点，因此共享表和 Evaluation 的数组只随当前存活的节点数增长
+final class ContentFilter {
+    private static final Map<String, Expr> SHARED = new HashMap<>();
+    private static final ReentrantLock SHARED_LOCK = new ReentrantLock(); // 保护 SHARED、FREE_IDS、nextId 和节点的引用计数
+    private static final ArrayDeque<Integer> FREE_IDS = new ArrayDeque<>();
+    private static int nextId;
+    private static final ThreadLocal<Evaluation> EVALUATIONS = ThreadLocal.withInitial(Evaluation::new);
+
+    private final String source;
+    private final Expr root;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private ContentFilter(String source, Expr root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    // 表达式有语法错误时抛出 IllegalArgumentException
+    // 解析完整个表达式之后才合并进共享表，出错时不会留下无人引用的节点
+    static ContentFilter compile(String source) {
+        Parser parser = new Parser(source);
+        Expr root = parser.expression();
+        parser.expectEnd();
+        SHARED_LOCK.lock();
+        try {
+            return new ContentFilter(source, intern(root));
+        } finally {
+            SHARED_LOCK.unlock();
+        }
+    }
+
+    // 不再使用该过滤器时释放它对共享节点的引用，重复调用只释放一次
+    void release() {
+        if (released.compareAndSet(false, true)) {
+            SHARED_LOCK.lock();
+            try {
+                release(root);
+            } finally {
+                SHARED_LOCK.unlock();
+            }
+        }
+    }
+
+    // 当前线程对一条消息的求值上下文，同一条消息的所有订阅共用
+    static Evaluation evaluate(byte[] payload, int offset, int length) {
+        Evaluation evaluation = EVALUATIONS.get();
+        evaluation.reset(payload, offset, length);
+        return evaluation;
+    }
+
+    boolean test(Evaluation evaluation) {
+        return evaluation.value(root);
+    }
+
+    String source() {
+        return source;
+    }
+
+    // 所有订阅共用的表达式节点数
+    static int sharedNodeCount() {
+        SHARED_LOCK.lock();
+        try {
+            return SHARED.size();
+        } finally {
+            SHARED_LOCK.unlock();
+        }
+    }
+
+    // 持有 SHARED_LOCK 时调用：已有相同的节点时增加它的引用，否则先合并子节点，再登记新节点
+    private static Expr intern(Expr expr) {
+        Expr shared = SHARED.get(expr.key);
+        if (shared != null) {
+            shared.references++;
+            return shared;
+        }
+        expr.internChildren();
+        expr.id = FREE_IDS.isEmpty() ? nextId++ : FREE_IDS.pop();
+        expr.references = 1;
+        SHARED.put(expr.key, expr);
+        return expr;
+    }
+
+    // 持有 SHARED_LOCK 时调用
+    private static void release(Expr expr) {
+        if (--expr.references == 0) {
+            SHARED.remove(expr.key);
+            FREE_IDS.push(expr.id);
+            expr.releaseChildren();
+        }
+    }
+
+    // 一条消息的求值状态：每个节点的结果按 generation 标记，换一条消息时只需递增 generation
+    // 编号会被回收，结果同时记下对应的节点，编号换了主人时重新求值
+    static final class Evaluation {
+        private int generation;
+        private int[] stamps = new int[64];
+        private boolean[] results = new boolean[64];
+        private Expr[] owners = new Expr[64];
+        private final Map<String, String> fields = new HashMap<>();
+        private byte[] payload;
+        private int offset;
+        private int length;
+        private boolean parsed;
+
+        private void reset(byte[] payload, int offset, int length) {
+            this.payload = payload;
+            this.offset = offset;
+            this.length = length;
+            this.parsed = false;
+            if (++generation == 0) {
+                Arrays.fill(stamps, 0);
+                generation = 1;
+            }
+        }
+
+        private boolean value(Expr expr) {
+            int id = expr.id;
+            if (id >= stamps.length) {
+                int capacity = Math.max(id + 1, stamps.length * 2);
+                stamps = Arrays.copyOf(stamps, capacity);
+                results = Arrays.copyOf(results, capacity);
+                owners = Arrays.copyOf(owners, capacity);
+            }
+            if (stamps[id] == generation && owners[id] == expr) {
+                return results[id];
+            }
+            boolean result = expr.evaluate(this);
+            stamps[id] = generation;
+            results[id] = result;
+            owners[id] = expr;
+            return result;
+        }
+
+        private String field(String name) {
+            if (!parsed) {
+                fields.clear();
+                parseFields(new String(payload, offset, length, StandardCharsets.UTF_8), fields);
+                parsed = true;
+            }
+            return fields.get(name);
+        }
+    }
+
+    private abstract static class Expr {
+        final String key; // 规范化后的文本，相同的子表达式共用节点
+        int id;
+        int references; // 持有 SHARED_LOCK 时读写
+
+        Expr(String key) {
+            this.key = key;
+        }
+
+        abstract boolean evaluate(Evaluation evaluation);
+
+        // 把子节点换成共享表中的节点（并持有引用）
+        void internChildren() {
+        }
+
+        void releaseChildren() {
+        }
+    }
+
+    private static final class Comparison extends Expr {
+        private final String field;
+        private final String op;
+        private final Double number; // 数字字面量，否则按字符串比较
+        private final String text;
+
+        Comparison(String field, String op, Double number, String text) {
+            super(field + " " + op + " " + (number != null ? number.toString() : "'" + text.replace("'", "''") + "'"));
+            this.field = field;
+            this.op = op;
+            this.number = number;
+            this.text = text;
+        }
+
+        @Override
+        boolean evaluate(Evaluation evaluation) {
+            String value = evaluation.field(field);
+            if (value == null) {
+                return false;
+            }
+            int compared;
+            if (number != null) {
+                try {
+                    compared = Double.compare(Double.parseDouble(value), number);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            } else {
+                compared = value.compareTo(text);
+            }
+            switch (op) {
+                case "=":
+                    return compared == 0;
+                case "!=":
+                    return compared != 0;
+                case ">":
+                    return compared > 0;
+                case ">=":
+                    return compared >= 0;
+                case "<":
+                    return compared < 0;
+                default:
+                    return compared <= 0;
+            }
+        }
+    }
+
+    private static final class And extends Expr {
+        private Expr left;
+        private Expr right;
+
+        And(Expr left, Expr right) {
+            super("(" + left.key + " AND " + right.key + ")");
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean evaluate(Evaluation evaluation) {
+            return evaluation.value(left) && evaluation.value(right);
+        }
+
+        @Override
+        void internChildren() {
+            left = intern(left);
+            right = intern(right);
+        }
+
+        @Override
+        void releaseChildren() {
+            release(left);
+            release(right);
+        }
+    }
+
+    private static final class Or extends Expr {
+        private Expr left;
+        private Expr right;
+
+        Or(Expr left, Expr right) {
+            super("(" + left.key + " OR " + right.key + ")");
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean evaluate(Evaluation evaluation) {
+            return evaluation.value(left) || evaluation.value(right);
+        }
+
+        @Override
+        void internChildren() {
+            left = intern(left);
+            right = intern(right);
+        }
+
+        @Override
+        void releaseChildren() {
+            release(left);
+            release(right);
+        }
+    }
+
+    private static final class Not extends Expr {
+        private Expr inner;
+
+        Not(Expr inner) {
+            super("(NOT " + inner.key + ")");
+            this.inner = inner;
+        }
+
+        @Override
+        boolean evaluate(Evaluation evaluation) {
+            return !evaluation.value(inner);
+        }
+
+        @Override
+        void internChildren() {
+            inner = intern(inner);
+        }
+
+        @Override
+        void releaseChildren() {
+            release(inner);
+        }
+    }
+
+    // 递归下降解析：OR 的优先级最低，其次 AND、NOT
+    private static final class Parser {
+        private final String source;
+        private int pos;
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        Expr expression() {
+            Expr left = and();
+            while (keyword("OR")) {
+                left = new Or(left, and());
+            }
+            return left;
+        }
+
+        private Expr and() {
+            Expr left = not();
+            while (keyword("AND")) {
+                left = new And(left, not());
+            }
+            return left;
+        }
+
+        private Expr not() {
+            if (keyword("NOT")) {
+                return new Not(not());
+            }
+            return primary();
+        }
+
+        private Expr primary() {
+            skipSpaces();
+            if (peek() == '(') {
+                pos++;
+                Expr inner = expression();
+                skipSpaces();
+                if (peek() != ')') {
+                    throw error("expected )");
+                }
+                pos++;
+                return inner;
+            }
+            String field = identifier();
+            String op = operator();
+            skipSpaces();
+            char c = peek();
+            if (c == '\'' || c == '"') {
+                return new Comparison(field, op, null, quoted(c));
+            }
+            if (keyword("TRUE")) {
+                return new Comparison(field, op, null, "true");
+            }
+            if (keyword("FALSE")) {
+                return new Comparison(field, op, null, "false");
+            }
+            return new Comparison(field, op, number(), null);
+        }
+
+        private String identifier() {
+            skipSpaces();
+            int start = pos;
+            while (pos < source.length() && isIdentifierChar(source.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("expected field name");
+            }
+            return source.substring(start, pos);
+        }
+
+        private String operator() {
+            skipSpaces();
+            for (String op : new String[]{"!=", "<>", ">=", "<=", "==", "=", ">", "<"}) {
+                if (source.startsWith(op, pos)) {
+                    pos += op.length();
+                    switch (op) {
+                        case "<>":
+                            return "!=";
+                        case "==":
+                            return "=";
+                        default:
+                            return op;
+                    }
+                }
+            }
+            throw error("expected comparison operator");
+        }
+
+        // 引号内用两个连续的引号表示引号本身
+        private String quoted(char quote) {
+            StringBuilder text = new StringBuilder();
+            pos++;
+            while (true) {
+                if (pos >= source.length()) {
+                    throw error("unterminated string");
+                }
+                char c = source.charAt(pos++);
+                if (c == quote) {
+                    if (peek() != quote) {
+                        return text.toString();
+                    }
+                    pos++;
+                }
+                text.append(c);
+            }
+        }
+
+        private Double number() {
+            int start = pos;
+            while (pos < source.length() && "+-.0123456789eE".indexOf(source.charAt(pos)) >= 0) {
+                pos++;
+            }
+            try {
+                return Double.valueOf(source.substring(start, pos));
+            } catch (NumberFormatException e) {
+                pos = start;
+                throw error("expected number, string, TRUE or FALSE");
+            }
+        }
+
+        // 不区分大小写地匹配关键字，关键字之后不能紧跟字段名中的字符
+        private boolean keyword(String word) {
+            skipSpaces();
+            int end = pos + word.length();
+            if (source.regionMatches(true, pos, word, 0, word.length())
+                    && (end == source.length() || !isIdentifierChar(source.charAt(end)))) {
+                pos = end;
+                return true;
+            }
+            return false;
+        }
+
+        void expectEnd() {
+            skipSpaces();
+            if (pos != source.length()) {
+                throw error("unexpected input");
+            }
+        }
+
+        private char peek() {
+            return pos < source.length() ? source.charAt(pos) : 0;
+        }
+
+        private void skipSpaces() {
+            while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos);
+        }
+
+        private static boolean isIdentifierChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$';
+        }
+    }
+
+    // 解析消息内容中的字段，格式不完整时保留已经解析出的部分
+    private static void parseFields(String text, Map<String, String> fields) {
+        int start = 0;
+        while (start < text.length() && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        if (start < text.length() && text.charAt(start) == '{') {
+            try {
+                new JsonFields(text, start, fields).object("");
+            } catch (RuntimeException e) {
+                // 不是完整的 JSON，使用已经解析出的字段
+            }
+            return;
+        }
+        for (String pair : text.split("[\\s,;&]+")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                String value = pair.substring(eq + 1);
+                if (value.length() >= 2 && (value.charAt(0) == '\'' || value.charAt(0) == '"')
+                        && value.charAt(value.length() - 1) == value.charAt(0)) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                fields.put(pair.substring(0, eq), value);
+            }
+        }
+    }
+
+    // 只提取标量字段，数组整体跳过；数字和布尔值保留原文，null 视为字段不存在
+    private static final class JsonFields {
+        private final String text;
+        private final Map<String, String> fields;
+        private int pos;
+
+        JsonFields(String text, int pos, Map<String, String> fields) {
+            this.text = text;
+            this.pos = pos;
+            this.fields = fields;
+        }
+
+        void object(String prefix) {
+            expect('{');
+            skipSpaces();
+            if (text.charAt(pos) == '}') {
+                pos++;
+                return;
+            }
+            while (true) {
+                skipSpaces();
+                String key = string();
+                skipSpaces();
+                expect(':');
+                skipSpaces();
+                value(prefix + key);
+                skipSpaces();
+                char c = text.charAt(pos++);
+                if (c == '}') {
+                    return;
+                }
+                if (c != ',') {
+                    throw new IllegalArgumentException("Invalid JSON");
+                }
+            }
+        }
+
+        private void value(String name) {
+            char c = text.charAt(pos);
+            if (c == '{') {
+                object(name + ".");
+            } else if (c == '[') {
+                skipArray();
+            } else if (c == '"') {
+                fields.put(name, string());
+            } else {
+                int start = pos;
+                while (pos < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos)) < 0) {
+                    pos++;
+                }
+                String raw = text.substring(start, pos);
+                if (!raw.equals("null")) {
+                    fields.put(name, raw);
+                }
+            }
+        }
+
+        private void skipArray() {
+            int depth = 0;
+            do {
+                char c = text.charAt(pos);
+                if (c == '"') {
+                    string();
+                    continue;
+                }
+                if (c == '[' || c == '{') {
+                    depth++;
+                } else if (c == ']' || c == '}') {
+                    depth--;
+                }
+                pos++;
+            } while (depth > 0);
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    case 'b':
+                        value.append('\b');
+                        break;
+                    case 'f':
+                        value.append('\f');
+                        break;
+                    case 'u':
+                        value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+        }
+
+        private void expect(char c) {
+            if (text.charAt(pos++) != c) {
+                throw new IllegalArgumentException("Invalid JSON");
+            }
+        }
+
+        private void skipSpaces() {
+            while (Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.node;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// 基于额度的推送流控，订阅者用 CREDIT n 授予 n 条消息的额度，每推送一条订阅消息消耗一个额度
+// 额度用完后的消息暂存在有界的 held 队列中（写满时按 -overflow 策略处理），收到新的额度后按顺序放入发送队列，
+// 因此慢消费者只会让推送变慢，Broker 和客户端的缓冲区都不会无限增长。
+// 响应等非订阅消息不受额度限制，直接进入发送队列
+final class CreditGate {
+    private final Connection connection;
+    private final OutboundQueue held;
+    // 在锁内向发送队列放入消息，用 ReentrantLock 而不是 synchronized，虚拟线程在锁内等待时不会占住载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+    private long credits; // 由 lock 保护
+
+    CreditGate(Connection connection, BrokerConfig config) {
+        this.connection = connection;
+        this.held = new OutboundQueue(config);
+    }
+
+    // 推送一条订阅消息，buffer 的引用交给本对象；返回 false 表示暂存队列已满且策略要求断开连接
+    boolean offer(SharedBuffer buffer) {
+        lock.lock();
+        try {
+            if (credits > 0 && held.size() == 0) {
+                credits--;
+                connection.sendBuffer(buffer);
+                return true;
+            }
+            return held.offer(buffer);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 增加额度，并把暂存的消息按顺序放入发送队列
+    void grant(long n) {
+        lock.lock();
+        try {
+            credits += n;
+            SharedBuffer buffer;
+            while (credits > 0 && (buffer = held.poll()) != null) {
+                credits--;
+                connection.sendBuffer(buffer);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long credits() {
+        lock.lock();
+        try {
+            return credits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 等待额度的消息数
+    int heldCount() {
+        return held.size();
+    }
+
+    long dropped() {
+        return held.dropped();
+    }
+
+    void clear() {
+        held.clear();
+    }
+}
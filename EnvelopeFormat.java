@@ -0,0 +1,126 @@
+package com.example.node;
+
+import com.example.node.Broker.Topic;
+import com.example.protocol.BinaryProtocol;
+
+// 消息信封格式：决定推送给订阅者的数据中除 payload 外还包含哪些内容
+// 时间戳来自共享的 TimestampCache，主题部分来自 Topic 预先编码好的前缀，
+// 组装一条消息只需要几次 arraycopy，结果写入池化的 SharedBuffer，由所有订阅者共享
+interface EnvelopeFormat {
+    // [dd/MM HH:mm:ss] [主题 ID:id:name] [payload]
+    EnvelopeFormat DEFAULT = new Standard(false);
+    // [dd/MM HH:mm:ss] [epochNanos] [主题 ID:id:name] [payload]，MESSAGE 帧末尾多一个 8 字节的 epochNanos 参数
+    EnvelopeFormat WITH_NANOS = new Standard(true);
+
+    static EnvelopeFormat parse(String name) {
+        switch (name.toLowerCase()) {
+            case "default":
+                return DEFAULT;
+            case "nanos":
+                return WITH_NANOS;
+            default:
+                throw new IllegalArgumentException("Unknown envelope format: " + name);
+        }
+    }
+
+    // 文本订阅者收到的一行（含换行符），返回的缓冲区引用计数为 1
+    SharedBuffer text(Topic topic, long epochNanos, byte[] payload, int offset, int length);
+
+    // 二进制订阅者收到的 MESSAGE 帧，返回的缓冲区引用计数为 1
+    SharedBuffer binary(Topic topic, long epochNanos, byte[] payload, int offset, int length);
+
+    final class Standard implements EnvelopeFormat {
+        private static final TimestampCache TIMESTAMPS = new TimestampCache();
+        private static final byte[] SEPARATOR = "] [".getBytes(BinaryProtocol.CHARSET);
+        private static final byte[] MESSAGE_END = ("]" + Connection.LINE_SEPARATOR).getBytes(BinaryProtocol.CHARSET);
+
+        private final boolean withNanos;
+
+        Standard(boolean withNanos) {
+            this.withNanos = withNanos;
+        }
+
+        @Override
+        public SharedBuffer text(Topic topic, long epochNanos, byte[] payload, int offset, int length) {
+            byte[] timestamp = TIMESTAMPS.format(epochNanos);
+            byte[] prefix = topic.envelopePrefix();
+            int nanosDigits = withNanos ? digits(epochNanos) : 0;
+            int size = 1 + timestamp.length + (withNanos ? SEPARATOR.length + nanosDigits : 0)
+                    + prefix.length + length + MESSAGE_END.length;
+
+            SharedBuffer buffer = SharedBuffer.allocate(size);
+            byte[] result = buffer.array();
+            int pos = 0;
+            result[pos++] = '[';
+            pos = put(result, pos, timestamp);
+            if (withNanos) {
+                pos = put(result, pos, SEPARATOR);
+                pos = putDigits(result, pos, epochNanos, nanosDigits);
+            }
+            pos = put(result, pos, prefix);
+            System.arraycopy(payload, offset, result, pos, length);
+            put(result, pos + length, MESSAGE_END);
+            return buffer;
+        }
+
+        @Override
+        public SharedBuffer binary(Topic topic, long epochNanos, byte[] payload, int offset, int length) {
+            byte[] id = topic.idBytes();
+            byte[] name = topic.nameBytes();
+            byte[] timestamp = TIMESTAMPS.format(epochNanos);
+            int body = 2 + 4 + id.length + 4 + name.length + 4 + timestamp.length + 4 + length + (withNanos ? 4 + 8 : 0);
+
+            SharedBuffer buffer = SharedBuffer.allocate(4 + body);
+            byte[] result = buffer.array();
+            int pos = putInt(result, 0, body);
+            result[pos++] = BinaryProtocol.MESSAGE;
+            result[pos++] = (byte) (withNanos ? 5 : 4);
+            pos = putArg(result, pos, id, 0, id.length);
+            pos = putArg(result, pos, name, 0, name.length);
+            pos = putArg(result, pos, timestamp, 0, timestamp.length);
+            pos = putArg(result, pos, payload, offset, length);
+            if (withNanos) {
+                pos = putInt(result, pos, 8);
+                putInt(result, putInt(result, pos, (int) (epochNanos >>> 32)), (int) epochNanos);
+            }
+            return buffer;
+        }
+
+        private static int put(byte[] dst, int pos, byte[] src) {
+            System.arraycopy(src, 0, dst, pos, src.length);
+            return pos + src.length;
+        }
+
+        private static int putArg(byte[] dst, int pos, byte[] src, int offset, int length) {
+            pos = putInt(dst, pos, length);
+            System.arraycopy(src, offset, dst, pos, length);
+            return pos + length;
+        }
+
+        private static int putInt(byte[] dst, int pos, int value) {
+            dst[pos] = (byte) (value >>> 24);
+            dst[pos + 1] = (byte) (value >>> 16);
+            dst[pos + 2] = (byte) (value >>> 8);
+            dst[pos + 3] = (byte) value;
+            return pos + 4;
+        }
+
+        private static int digits(long value) {
+            int digits = 1;
+            while (value >= 10) {
+                value /= 10;
+                digits++;
+            }
+            return digits;
+        }
+
+        // 把非负整数的十进制写入 dst，不经过 Long.toString
+        private static int putDigits(byte[] dst, int pos, long value, int digits) {
+            for (int i = pos + digits - 1; i >= pos; i--) {
+                dst[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            return pos + digits;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.node;
+
+// 存放非负 int 的开放寻址哈希集合（线性探测），不装箱，每个元素只占一个 int 槽位
+// 删除时把后续同一探测链上的元素前移，不留墓碑，集合不会因反复增删而退化；元素大量删除后自动缩容。
+// 非线程安全，由调用方加锁
+final class IntHashSet {
+    private static final int EMPTY = 0; // 槽位中存放 value + 1，0 表示空
+    private static final int INITIAL_CAPACITY = 8;
+
+    private int[] slots = new int[INITIAL_CAPACITY];
+    private int size;
+
+    boolean add(int value) {
+        int stored = value + 1;
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == stored) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = stored;
+        size++;
+        // 装载因子超过 0.5 时扩容，保持探测链短
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+        return true;
+    }
+
+    boolean remove(int value) {
+        int stored = value + 1;
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != stored) {
+            if (slots[i] == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = EMPTY;
+        size--;
+        // 把之后仍在同一探测链上的元素前移，填补空出的位置
+        int next = (i + 1) & mask;
+        while (slots[next] != EMPTY) {
+            int home = hash(slots[next] - 1) & mask;
+            if (((next - home) & mask) >= ((next - i) & mask)) {
+                slots[i] = slots[next];
+                slots[next] = EMPTY;
+                i = next;
+            }
+            next = (next + 1) & mask;
+        }
+        // 装载因子低于 1/8 时缩容一半，订阅者大量离开后归还内存；缩容后装载因子低于 1/4，离扩容阈值足够远，不会来回抖动
+        if (slots.length > INITIAL_CAPACITY && size * 8 < slots.length) {
+            rehash(slots.length / 2);
+        }
+        return true;
+    }
+
+    boolean contains(int value) {
+        int stored = value + 1;
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == stored) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // 按槽位顺序复制出所有元素
+    int[] toArray() {
+        int[] values = new int[size];
+        int n = 0;
+        for (int slot : slots) {
+            if (slot != EMPTY) {
+                values[n++] = slot - 1;
+            }
+        }
+        return values;
+    }
+
+    // 占用的内存（字节），不含对象头
+    long footprintBytes() {
+        return 4L * slots.length;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = slots;
+        slots = new int[capacity];
+        size = 0;
+        for (int slot : old) {
+            if (slot != EMPTY) {
+                add(slot - 1);
+            }
+        }
+    }
+
+    // 打散连续分配的 ID，避免线性探测时聚集
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.node;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// 低开销的并发延迟直方图（纳秒），按对数分桶：每个 2 的幂区间再均分为 8 个子桶，相对误差不超过 12.5%，
+// 覆盖 0 到 Long.MAX_VALUE，固定占用约 4KB × 分片数，不随样本数增长。
+//
+// 记录只是对一个计数做原子加，不加锁；多个线程同时记录时按线程分散到不同的分片（与 LongAdder 的思路相同），
+// 避免所有写线程争用同一组缓存行。读取时把各分片相加得到快照，读写之间不需要同步
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final int MAX_SLOT = BUCKETS; // 每个分片最后一项记录最大值
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    LatencyHistogram() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) * 2;
+        this.stripes = new AtomicLongArray[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS + 1);
+        }
+        this.mask = stripes - 1;
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        AtomicLongArray stripe = stripes[(int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 40) & mask];
+        stripe.incrementAndGet(bucket(nanos));
+        long max = stripe.get(MAX_SLOT);
+        while (nanos > max && !stripe.compareAndSet(MAX_SLOT, max, nanos)) {
+            max = stripe.get(MAX_SLOT);
+        }
+    }
+
+    // 各分片之和；与并发的记录之间不保证原子性，只用于观测
+    Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+            max = Math.max(max, stripe.get(MAX_SLOT));
+        }
+        return new Snapshot(counts, max);
+    }
+
+    // 小于 8 的值各占一个桶，其余按最高位所在的区间和其后 3 位分桶
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // 桶的上界（含），作为落在该桶中的样本的估计值
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long lower = (1L << exponent) + ((long) sub << (exponent - SUB_BUCKET_BITS));
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    // 某一时刻的直方图
+    static final class Snapshot {
+        private final long[] counts;
+        private final long max;
+        private final long count;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            this.max = max;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        long count() {
+            return count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        // percentile 为 0 到 100，没有样本时返回 0
+        long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Broker 之间的压缩链路（-link deflate，握手为 "BROKER DEFLATE"）
+// 发送线程攒出的一批命令帧整体用 Deflater 压缩为一个 DEFLATED 帧：originalLength | 压缩数据；
+// 每帧独立压缩（不依赖前面的帧），并使用双方共享的预置字典，短小的批次也能压缩掉命令名、JSON 键名等重复内容。
+// 字典默认内置，可以用 -link-dict 指定一个按本部署消息样本准备的文件，链路两端必须相同（zlib 头中带字典校验和，不一致时解压失败并断开链路）
+//
+// 压缩只在该链路的发送线程中进行，解压只在读取该链路的线程中进行，各自独占 Deflater / Inflater
+final class LinkCompression {
+    static final int MIN_COMPRESS_BYTES = 128; // 更小的批次压缩收益抵不过帧头，原样发送
+
+    // 出现越频繁的内容放在越靠后（距离越短，编码越省）
+    private static final String DEFAULT_DICTIONARY =
+            "CREATE DELETE SUBSCRIBE UNSUBSCRIBE INTEREST \"description\":\"\"message\":\"\"status\":\"ok\"error\""
+            + "\"quantity\":\"amount\":\"count\":\"price\":\"currency\":\"USD\"\"name\":\"\"user\":\"\"userId\":\""
+            + "\"event\":\"\"type\":\"\"timestamp\":\"time\":\"value\":\"data\":{\"id\":\":true,\":false,\":null,"
+            + "\u0000\u0000\u0000\u0001\u0000\u0000\u0000\u0002\u0002\u0003\u0000\u0000\u0000\u0002\u0002\u0000\u0000\u0000";
+
+    private static volatile byte[] dictionary = DEFAULT_DICTIONARY.getBytes(StandardCharsets.ISO_8859_1);
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater();
+    private final CommandParser inner = new CommandParser(); // 解析解压出的命令帧
+    private byte[] output = new byte[64 * 1024];
+    private byte[] inflated = new byte[64 * 1024];
+
+    // 以下用于报告压缩率和 CPU 开销
+    private final AtomicLong rawBytesOut = new AtomicLong();
+    private final AtomicLong compressedBytesOut = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong rawBytesIn = new AtomicLong();
+    private final AtomicLong compressedBytesIn = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    LinkCompression(int level) {
+        this.deflater = new Deflater(level);
+    }
+
+    // 启动时从文件加载共享字典
+    static void loadDictionary(String path) throws IOException {
+        byte[] data = Files.readAllBytes(Paths.get(path));
+        if (data.length == 0) {
+            throw new IOException("Empty link dictionary: " + path);
+        }
+        dictionary = data;
+    }
+
+    // 把一批已编码的命令帧压缩为一个 DEFLATED 帧，batch 的引用交给本方法
+    SharedBuffer compress(SharedBuffer batch) {
+        long start = System.nanoTime();
+        int length = batch.length();
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(batch.array(), 0, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished()) {
+            if (compressed == output.length) {
+                byte[] larger = new byte[output.length * 2];
+                System.arraycopy(output, 0, larger, 0, compressed);
+                output = larger;
+            }
+            compressed += deflater.deflate(output, compressed, output.length - compressed);
+        }
+        batch.release();
+
+        byte[] original = BinaryProtocol.bytes(Integer.toString(length));
+        byte[] frame = BinaryProtocol.encode(BinaryProtocol.DEFLATED, output, 0, compressed, original);
+        compressNanos.addAndGet(System.nanoTime() - start);
+        rawBytesOut.addAndGet(length);
+        compressedBytesOut.addAndGet(frame.length);
+        return SharedBuffer.wrap(frame);
+    }
+
+    // 解压一个 DEFLATED 帧，把其中的命令逐条解析后交给 handler
+    void decompress(CommandParser frame, FrameHandler handler) throws IOException {
+        if (frame.argCount() != 2) {
+            throw new IOException("Invalid compressed frame");
+        }
+        long start = System.nanoTime();
+        int length;
+        try {
+            length = Integer.parseInt(frame.arg(0));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid compressed frame length: " + frame.arg(0));
+        }
+        if (length < 0 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid compressed frame length: " + length);
+        }
+        if (inflated.length < length) {
+            inflated = new byte[Math.max(length, inflated.length * 2)];
+        }
+        inflater.reset();
+        inflater.setInput(frame.buffer(), frame.argOffset(1), frame.argLength(1));
+        int n = 0;
+        try {
+            while (n < length && !inflater.finished()) {
+                int read = inflater.inflate(inflated, n, length - n);
+                if (read == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(dictionary);
+                } else if (read == 0 && inflater.needsInput()) {
+                    break;
+                }
+                n += read;
+            }
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new IOException("Compressed frame error, link dictionaries may differ: " + e);
+        }
+        if (n != length) {
+            throw new IOException("Truncated compressed frame");
+        }
+        decompressNanos.addAndGet(System.nanoTime() - start);
+        compressedBytesIn.addAndGet(frame.argLength(1));
+        rawBytesIn.addAndGet(length);
+
+        int pos = 0;
+        while (pos < length) {
+            if (length - pos < 4) {
+                throw new IOException("Truncated frame");
+            }
+            int frameLength = CommandParser.readInt(inflated, pos);
+            if (frameLength < 2 || frameLength > length - pos - 4) {
+                throw new IOException("Invalid frame length: " + frameLength);
+            }
+            inner.parseFrame(inflated, pos + 4, pos + 4 + frameLength);
+            handler.handle(inner);
+            pos += 4 + frameLength;
+        }
+    }
+
+    // 发送方向的压缩率（原始字节 / 压缩后字节），尚未压缩过时为 0
+    double ratio() {
+        long compressed = compressedBytesOut.get();
+        return compressed == 0 ? 0 : (double) rawBytesOut.get() / compressed;
+    }
+
+    long rawBytesOut() {
+        return rawBytesOut.get();
+    }
+
+    long compressedBytesOut() {
+        return compressedBytesOut.get();
+    }
+
+    long compressMillis() {
+        return compressNanos.get() / 1_000_000;
+    }
+
+    long decompressMillis() {
+        return decompressNanos.get() / 1_000_000;
+    }
+
+    long rawBytesIn() {
+        return rawBytesIn.get();
+    }
+
+    long compressedBytesIn() {
+        return compressedBytesIn.get();
+    }
+
+    interface FrameHandler {
+        void handle(CommandParser command) throws IOException;
+    }
+}
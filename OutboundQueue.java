@@ -0,0 +1,105 @@
+package com.example.node;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 每个连接独享的有界发送队列
+// 发布者线程只负责入队，由连接自己的写线程（或所属事件循环）异步写出，
+// 因此一个慢订阅者不会拖慢发布者和其他订阅者
+// 队列中的每一项占有 SharedBuffer 的一个引用，被丢弃或清空时由队列负责释放
+class OutboundQueue {
+
+    // 队列写满时的处理策略
+    enum OverflowPolicy {
+        DROP_OLDEST, // 丢弃最早的一条，保留最新消息（默认）
+        DROP_NEWEST, // 丢弃当前这条
+        DISCONNECT;  // 断开慢消费者
+
+        static OverflowPolicy parse(String value) {
+            return valueOf(value.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final BlockingQueue<SharedBuffer> queue;
+    private final OverflowPolicy policy;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong(); // 排队数据的字节数，用于 STATS
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+    }
+
+    public OutboundQueue(BrokerConfig config) {
+        this(config.queueCapacity, config.overflowPolicy);
+    }
+
+    // 入队，data 的引用交给队列；返回 false 表示队列已满且策略要求断开连接
+    public boolean offer(SharedBuffer data) {
+        if (queue.offer(data)) {
+            bytes.addAndGet(data.length());
+            return true;
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                while (!queue.offer(data)) {
+                    SharedBuffer oldest = removed(queue.poll());
+                    if (oldest != null) {
+                        oldest.release();
+                        dropped.incrementAndGet();
+                    }
+                }
+                bytes.addAndGet(data.length());
+                return true;
+            case DROP_NEWEST:
+                data.release();
+                dropped.incrementAndGet();
+                return true;
+            default:
+                data.release();
+                return false;
+        }
+    }
+
+    // 取出的数据由调用方在写出后 release
+    public SharedBuffer poll() {
+        return removed(queue.poll());
+    }
+
+    public SharedBuffer take() throws InterruptedException {
+        return removed(queue.take());
+    }
+
+    public SharedBuffer poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return removed(queue.poll(timeout, unit));
+    }
+
+    public void clear() {
+        SharedBuffer data;
+        while ((data = removed(queue.poll())) != null) {
+            data.release();
+        }
+    }
+
+    private SharedBuffer removed(SharedBuffer data) {
+        if (data != null) {
+            bytes.addAndGet(-data.length());
+        }
+        return data;
+    }
+
+    // 当前排队的消息数
+    public int size() {
+        return queue.size();
+    }
+
+    // 当前排队的字节数
+    public long bytes() {
+        return bytes.get();
+    }
+
+    // 因队列写满而丢弃的消息数
+    public long dropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.node;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// 到另一个 Broker 的复制链路，包装底层连接（阻塞 Socket 或 NIO Channel）
+// 转发的命令先进入本链路独立的发送管道，由专属的发送线程攒批后交给底层连接：
+// 突发时把多条命令合并成一块数据（达到 -peer-batch-kb 或等待超过 -peer-linger 即发出），
+// 空闲时单条命令立即发出，不增加延迟。
+//
+// 管道中的 PUBLISH 最多 -peer-queue 条，写满时对转发方施加背压：最多阻塞 -peer-block-ms，仍无空间才丢弃并计数；
+// 事件循环线程不能阻塞（底层连接可能正等待同一个事件循环写出），在事件循环中写满时直接丢弃。
+// CREATE / DELETE / SUBSCRIBE / UNSUBSCRIBE / INTEREST 等控制命令从不丢弃，丢了对端的主题和兴趣表就会与本节点不一致；
+// 它们同样占用管道的名额，因此控制命令积压时 PUBLISH 会更早被丢弃
+//
+// 链路还记录对端报告的兴趣表（对端本地有订阅连接的主题），PUBLISH 只转发给感兴趣的对端；
+// 主题很多时对端可以先发送一个布隆过滤器作为初始兴趣表，之后的增减以精确集合覆盖在其上；
+// 对端的通配符订阅记录在前缀树中，与主题匹配即视为感兴趣
+//
+// 握手协商了压缩链路时，发送线程把达到一定大小的批次压缩为一个 DEFLATED 帧（见 LinkCompression）
+class PeerLink implements Connection {
+    private static final long ROOM_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Connection connection;
+    private final BlockingQueue<SharedBuffer> pending = new LinkedBlockingQueue<>();
+    private final Room room; // 管道剩余的名额，控制命令可以把它扣成负数
+    private final int batchBytes;
+    private final long lingerNanos;
+    private final long blockNanos;
+    private final Thread sender;
+    private final LinkCompression compression; // 未协商压缩时为 null
+    private volatile boolean closed;
+    private volatile boolean awaitingRoom; // 发送线程正在等底层发送队列腾出空间
+
+    // 以下用于报告落后程度
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long sentMessages;
+    private volatile long sentBatches;
+    private volatile long busySinceNanos; // 管道最近一次由空变为非空的时间，管道为空时为 0
+
+    private final Set<String> remoteInterests = ConcurrentHashMap.newKeySet();
+    private final Set<String> remoteRevoked = ConcurrentHashMap.newKeySet(); // 布隆过滤器中已被对端撤销的主题
+    private volatile BloomFilter remoteSummary;
+    private final SubscriptionTrie<Boolean> remoteWildcards = new SubscriptionTrie<>();
+
+    PeerLink(Connection connection, BrokerConfig config, boolean compressed) {
+        this.connection = connection;
+        this.compression = compressed ? new LinkCompression(config.linkCompressionLevel) : null;
+        this.room = new Room(config.peerQueueCapacity);
+        this.batchBytes = config.peerBatchBytes;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(config.peerLingerMicros);
+        this.blockNanos = TimeUnit.MILLISECONDS.toNanos(config.peerBlockMillis);
+        this.sender = Broker.startThread(this::sendLoop);
+        connection.onDrained(this::connectionDrained);
+    }
+
+    // 底层连接，用于判断命令是否来自其他 Broker
+    Connection connection() {
+        return connection;
+    }
+
+    LinkCompression compression() {
+        return compression;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return connection.isBinary();
+    }
+
+    // 对端是否可能有该主题的订阅者
+    boolean interestedIn(String topicId) {
+        if (remoteInterests.contains(topicId) || (remoteWildcards.size() != 0 && remoteWildcards.matches(topicId))) {
+            return true;
+        }
+        BloomFilter summary = remoteSummary;
+        return summary != null && !remoteRevoked.contains(topicId) && summary.mightContain(topicId);
+    }
+
+    // 对端对某个主题的兴趣变化，按链路上收到的顺序处理
+    void onInterest(String topicId, boolean interested) {
+        if (SubscriptionTrie.isWildcard(topicId)) {
+            if (!SubscriptionTrie.isValidFilter(topicId)) {
+                return;
+            }
+            if (interested) {
+                remoteWildcards.add(topicId, Boolean.TRUE);
+            } else {
+                remoteWildcards.remove(topicId, Boolean.TRUE);
+            }
+            return;
+        }
+        if (interested) {
+            remoteInterests.add(topicId);
+            remoteRevoked.remove(topicId);
+        } else {
+            remoteInterests.remove(topicId);
+            if (remoteSummary != null) {
+                remoteRevoked.add(topicId);
+            }
+        }
+    }
+
+    // 对端以布隆过滤器发送的初始兴趣表
+    void onInterestSummary(BloomFilter summary) {
+        remoteRevoked.clear();
+        remoteSummary = summary;
+    }
+
+    // 对端精确报告的感兴趣主题数，不含布隆过滤器部分
+    int remoteInterestCount() {
+        return remoteInterests.size();
+    }
+
+    int remoteWildcardCount() {
+        return remoteWildcards.size();
+    }
+
+    boolean hasInterestSummary() {
+        return remoteSummary != null;
+    }
+
+    // 控制命令，管道满了也入队
+    @Override
+    public void sendBuffer(SharedBuffer buffer) {
+        if (closed) {
+            buffer.release();
+            return;
+        }
+        room.reducePermits(1);
+        enqueue(buffer);
+    }
+
+    // 转发的 PUBLISH，管道满时等待空间，超时（或在事件循环中）丢弃
+    void sendPublish(SharedBuffer buffer) {
+        if (closed) {
+            buffer.release();
+            return;
+        }
+        boolean admitted;
+        try {
+            admitted = Reactor.isEventLoopThread()
+                    ? room.tryAcquire()
+                    : room.tryAcquire(blockNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        if (!admitted) {
+            buffer.release();
+            if (dropped.getAndIncrement() == 0) {
+                System.out.println("Peer link is falling behind, dropping messages: " + connection);
+            }
+            return;
+        }
+        enqueue(buffer);
+    }
+
+    private void enqueue(SharedBuffer buffer) {
+        boolean wasEmpty = pending.isEmpty();
+        pendingBytes.addAndGet(buffer.length());
+        pending.add(buffer);
+        if (wasEmpty && busySinceNanos == 0) {
+            busySinceNanos = System.nanoTime();
+        }
+    }
+
+    // 从管道取出一条后归还它的名额
+    private SharedBuffer taken(SharedBuffer buffer) {
+        if (buffer != null) {
+            room.release();
+        }
+        return buffer;
+    }
+
+    // 发送线程：攒批后交给底层连接
+    private void sendLoop() {
+        SharedBuffer[] batch = new SharedBuffer[256];
+        try {
+            while (!closed) {
+                SharedBuffer first = taken(pending.take());
+                batch[0] = first;
+                int count = 1;
+                int bytes = first.length();
+                long deadline = System.nanoTime() + lingerNanos;
+                SharedBuffer next = taken(pending.poll());
+                // 只有在突发（管道中已有积压）时才等待凑批
+                boolean burst = next != null;
+                while (count < batch.length && bytes < batchBytes) {
+                    if (next == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (!burst || remaining <= 0 || (next = taken(pending.poll(remaining, TimeUnit.NANOSECONDS))) == null) {
+                            break;
+                        }
+                    }
+                    batch[count++] = next;
+                    bytes += next.length();
+                    next = count < batch.length && bytes < batchBytes ? taken(pending.poll()) : null;
+                }
+                SharedBuffer merged = merge(batch, count, bytes);
+                if (compression != null && bytes >= LinkCompression.MIN_COMPRESS_BYTES) {
+                    merged = compression.compress(merged);
+                }
+                awaitConnectionRoom();
+                connection.sendBuffer(merged);
+                pendingBytes.addAndGet(-bytes);
+                sentMessages += count;
+                sentBatches++;
+                if (pending.isEmpty()) {
+                    busySinceNanos = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            // 链路关闭
+        }
+    }
+
+    // 把一批命令合并为一块数据，之后只占底层发送队列的一项、一次写出
+    private static SharedBuffer merge(SharedBuffer[] batch, int count, int bytes) {
+        if (count == 1) {
+            SharedBuffer single = batch[0];
+            batch[0] = null;
+            return single;
+        }
+        SharedBuffer merged = SharedBuffer.allocate(bytes);
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            SharedBuffer buffer = batch[i];
+            System.arraycopy(buffer.array(), 0, merged.array(), position, buffer.length());
+            position += buffer.length();
+            buffer.release();
+            batch[i] = null;
+        }
+        return merged;
+    }
+
+    // 底层连接的发送队列快满时挂起，由管道而不是底层队列承担积压，避免底层按溢出策略丢弃；
+    // 底层连接每写完一批就唤醒发送线程重新检查，超时只是兜底
+    private void awaitConnectionRoom() throws InterruptedException {
+        int limit = Math.max(1, Broker.config().queueCapacity / 2);
+        while (!closed && !connection.isClosed() && connection.queueDepth() >= limit) {
+            awaitingRoom = true;
+            // 置位之后再检查一次，避免错过写线程的唤醒
+            if (connection.queueDepth() >= limit) {
+                LockSupport.parkNanos(this, ROOM_RECHECK_NANOS);
+            }
+            awaitingRoom = false;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    // 由底层连接的写线程（或事件循环）调用
+    private void connectionDrained() {
+        if (awaitingRoom) {
+            LockSupport.unpark(sender);
+        }
+    }
+
+    @Override
+    public int queueDepth() {
+        return pending.size() + connection.queueDepth();
+    }
+
+    @Override
+    public long droppedMessages() {
+        return dropped.get() + connection.droppedMessages();
+    }
+
+    // 尚未交给底层连接的字节数
+    long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    // 管道持续非空的时长，即这条链路落后的时间
+    long lagMillis() {
+        long since = busySinceNanos;
+        return since == 0 || pending.isEmpty() ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    long sentMessages() {
+        return sentMessages;
+    }
+
+    long sentBatches() {
+        return sentBatches;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed || connection.isClosed();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        sender.interrupt();
+        SharedBuffer buffer;
+        while ((buffer = pending.poll()) != null) {
+            buffer.release();
+        }
+        connection.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(connection);
+    }
+
+    // 公开 reducePermits，控制命令入队时扣减名额而不等待
+    private static final class Room extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        Room(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 累计确认：发布者用 ACKS intervalMicros [maxPending] 开启后，带序号的 PUBLISH 成功时不再逐条响应，
+// 而是每隔 interval 发送一个 ACKED seq 帧，表示该序号及之前收到的请求都已处理完；
+// 未确认的请求达到 maxPending 条时立即发送，避免发布者因在途请求数达到上限而等待；interval 为 0 时由后台线程尽快发送，
+// 期间到达的请求合并到同一个 ACKED。
+// 失败的请求仍立即以带序号的 RESPONSE 单独响应，它总是先于覆盖它的 ACKED 到达（同一个发送队列，按顺序写出）
+//
+// 开启 -partitions 时，同一连接发往不同主题的请求在不同的分区线程上完成，完成顺序不一定是到达顺序：
+// 读线程按到达顺序用 expect 登记序号，acknowledge 只在连续的前缀都完成后才推进 lastSequence，ACKED 不会越过尚未完成的请求
+final class PublishAcks {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "ack-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Connection connection;
+    // 以下字段由 lock 保护；flush 在锁内写连接，用 ReentrantLock 而不是 synchronized，虚拟线程等待时不会占住载体线程
+    private final ReentrantLock lock = new ReentrantLock();
+    private long intervalMicros;
+    private int maxPending;
+    private String lastSequence; // 最近处理完、尚未确认的序号
+    private int pending;
+    private boolean scheduled;
+    private final ArrayDeque<String> expected = new ArrayDeque<>(); // 已到达、尚未完成的序号，按到达顺序
+    private final Set<String> completedEarly = new HashSet<>(); // 先于更早的请求完成的序号
+
+    PublishAcks(Connection connection, long intervalMicros, int maxPending) {
+        this.connection = connection;
+        this.intervalMicros = intervalMicros;
+        this.maxPending = maxPending;
+    }
+
+    // 再次收到 ACKS 时只修改参数，已登记的请求仍由本对象确认
+    void configure(long intervalMicros, int maxPending) {
+        lock.lock();
+        try {
+            this.intervalMicros = intervalMicros;
+            this.maxPending = maxPending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 只在本连接处理命令的线程中调用，序号按到达顺序登记
+    void expect(String sequence) {
+        lock.lock();
+        try {
+            expected.add(sequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 已登记的请求处理完（成功，或失败且已单独响应），可能在任意线程中调用
+    void acknowledge(String sequence) {
+        lock.lock();
+        try {
+            if (!sequence.equals(expected.peekFirst())) {
+                completedEarly.add(sequence);
+                return;
+            }
+            expected.pollFirst();
+            completed(sequence);
+            while (!expected.isEmpty() && completedEarly.remove(expected.peekFirst())) {
+                completed(expected.pollFirst());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 调用方持有 lock
+    private void completed(String sequence) {
+        lastSequence = sequence;
+        pending++;
+        if (pending >= maxPending) {
+            flush();
+        } else if (!scheduled) {
+            scheduled = true;
+            SCHEDULER.schedule(this::flushScheduled, intervalMicros, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private void flushScheduled() {
+        lock.lock();
+        try {
+            scheduled = false;
+            flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 调用方持有 lock
+    private void flush() {
+        if (pending == 0 || connection.isClosed()) {
+            return;
+        }
+        connection.sendRaw(BinaryProtocol.encode(BinaryProtocol.ACKED, lastSequence));
+        pending = 0;
+        lastSequence = null;
+    }
+}
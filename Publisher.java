@@ -1,5 +1,7 @@
 package com.example.publisher;
 
+import com.example.protocol.BinaryProtocol;
+
 import java.io.*;
 import java.net.*;
 import java.util.Arrays;
@@ -8,30 +10,40 @@ import java.util.UUID;
 public class Publisher {
 
     static String username;
+    static boolean binary; // 是否使用二进制帧协议
 
     public static void main(String[] args) throws IOException {
         if (args.length < 3) {
-            System.out.println("Usage: java -jar publisher.jar <username> <broker_ip> <broker_port>");
+            System.out.println("Usage: java -jar publisher.jar <username> <broker_ip> <broker_port> [text|binary]");
             return;
         }
 
         username = args[0];
         String brokerIp = args[1];
         int brokerPort = Integer.parseInt(args[2]);
+        binary = args.length > 3 && "binary".equalsIgnoreCase(args[3]);
 
         // 创建连接到 Broker 的 Socket
         Socket socket = new Socket(brokerIp, brokerPort);
-        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
         BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-        BufferedReader brokerReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
         // 发送身份标识
-        out.println("CLIENT");
+        send(out, binary ? "CLIENT " + BinaryProtocol.MODE : "CLIENT");
 
 
         // 创建一个线程来处理接收来自 Broker 的消息
         new Thread(() -> {
             try {
+                if (binary) {
+                    DataInputStream brokerFrames = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    BinaryProtocol.Frame frame;
+                    while ((frame = BinaryProtocol.read(brokerFrames)) != null) {
+                        System.out.println("[来自Broker的响应]: " + frame.string(0));
+                    }
+                    return;
+                }
+                BufferedReader brokerReader = new BufferedReader(new InputStreamReader(socket.getInputStream(), BinaryProtocol.CHARSET));
                 String response;
                 while ((response = brokerReader.readLine()) != null) {
                     System.out.println("[来自Broker的响应]: " + response);
@@ -67,7 +79,7 @@ public class Publisher {
         }
     }
 
-    private static void createTopic(String[] parts, PrintWriter out) {
+    private static void createTopic(String[] parts, OutputStream out) throws IOException {
         if (parts.length != 3) {
             System.out.println("[ERROR] 创建参数错误.");
             return;
@@ -75,12 +87,11 @@ public class Publisher {
 
         String topicId = parts[1];
         String topicName = parts[2];
-        String message = "CREATE " + topicId + " " + topicName + " " + username;
 
-        out.println(message);
+        send(out, "CREATE", topicId, topicName, username);
     }
 
-    private static void publishMessage(String[] parts, PrintWriter out) {
+    private static void publishMessage(String[] parts, OutputStream out) throws IOException {
         if (parts.length < 3) {
             System.out.println("[ERROR] 发布参数错误.");
             return;
@@ -88,26 +99,37 @@ public class Publisher {
 
         String topicId = parts[1];
         String content = String.join(" ", Arrays.copyOfRange(parts, 2, parts.length));
-        String message = "PUBLISH " + topicId + " " + content;
+        if (binary) {
+            // 二进制协议下消息内容按原始字节传输，允许用 \n 输入换行
+            content = content.replace("\\n", "\n");
+        }
 
-        out.println(message);
+        send(out, "PUBLISH", topicId, content);
     }
 
-    private static void showSubscribers(String[] parts, PrintWriter out) {
+    private static void showSubscribers(String[] parts, OutputStream out) throws IOException {
 
-        String message = "SHOW "+username;
-        out.println(message);
+        send(out, "SHOW", username);
     }
 
-    private static void deleteTopic(String[] parts, PrintWriter out) {
+    private static void deleteTopic(String[] parts, OutputStream out) throws IOException {
         if (parts.length != 2) {
             System.out.println("[ERROR] 删除参数错误.");
             return;
         }
 
         String topicId = parts[1];
-        String message = "DELETE " + topicId;
 
-        out.println(message);
+        send(out, "DELETE", topicId);
+    }
+
+    // 发送一条命令：文本协议下以空格拼接为一行，二进制协议下编码为帧
+    private static void send(OutputStream out, String... parts) throws IOException {
+        if (binary && parts.length > 0 && BinaryProtocol.opcode(parts[0]) > 0) {
+            out.write(BinaryProtocol.encode(BinaryProtocol.opcode(parts[0]), Arrays.copyOfRange(parts, 1, parts.length)));
+        } else {
+            out.write((String.join(" ", parts) + System.lineSeparator()).getBytes(BinaryProtocol.CHARSET));
+        }
+        out.flush();
     }
 }
@@ -0,0 +1,427 @@
+package com.example.publisher;
+
+import com.example.protocol.BinaryProtocol;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+// 可嵌入服务中的异步发布客户端，线程安全，多个线程可以共用一个实例（一条连接）
+// 使用二进制帧协议，每条 PUBLISH 带一个序号，Broker 的确认带回同一个序号，按序号完成对应的 future，
+// 因此可以同时有很多条请求在途，不需要等待上一条的确认。
+//
+// 发送按 linger / batchSize 攒批：一批中的第一条消息等待最多 linger 毫秒，或攒够 batchSize 字节即写出，
+// 一次 write + flush 发送整批；在途（未确认）的请求数超过 maxInFlight 时 publish 阻塞，
+// 既限制客户端的内存，也避免 Broker 的发送队列因确认积压而溢出
+//
+// Builder.cumulativeAcks 开启累计确认后，Broker 不再逐条返回成功响应，而是定期发送 ACKED seq，
+// 一次完成该序号及之前的所有请求，减少 Broker 的写出和本客户端读线程的负担；失败的请求仍单独响应
+public final class PublisherClient implements Closeable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final long lingerNanos;
+    private final int batchSize;
+    private final Semaphore inFlight;
+    private final Map<Long, CompletableFuture<Long>> pending = new ConcurrentHashMap<>();
+    private final Queue<CompletableFuture<String>> commands = new ConcurrentLinkedQueue<>(); // 不带序号的命令，按顺序对应响应
+    private final Thread flusher;
+    private final Thread reader;
+
+    // 以下由 lock 保护；写出时把当前批次换成备用缓冲区，写 Socket 期间其他线程可以继续 publish
+    private final Object lock = new Object();
+    private final Object writeLock = new Object(); // 保证批次按顺序写出
+    private byte[] batch;
+    private byte[] spare;
+    private int batchLength;
+    private long batchStartNanos;
+    private long nextSequence = 1;
+    private long ackedThrough; // 累计确认已完成到的序号，只在读线程中访问
+    private volatile boolean closed;
+
+    private PublisherClient(Builder builder) throws IOException {
+        this.socket = new Socket();
+        socket.connect(new InetSocketAddress(builder.host, builder.port), builder.connectTimeoutMillis);
+        socket.setTcpNoDelay(true);
+        this.out = socket.getOutputStream();
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(builder.lingerMillis);
+        this.batchSize = builder.batchSize;
+        this.inFlight = new Semaphore(builder.maxInFlight);
+        this.batch = new byte[Math.max(builder.batchSize, 1024) * 2];
+
+        out.write(("CLIENT " + BinaryProtocol.MODE + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        if (builder.ackIntervalMicros >= 0) {
+            // 在途请求达到上限的一半时 Broker 提前确认，publish 不会因等待定时确认而阻塞
+            int maxPending = Math.max(1, builder.maxInFlight / 2);
+            out.write(BinaryProtocol.encode(BinaryProtocol.ACKS,
+                    Long.toString(builder.ackIntervalMicros), Integer.toString(maxPending)));
+            out.flush();
+            commands.add(new CompletableFuture<>()); // ACKS 的响应
+        }
+
+        this.flusher = new Thread(this::flushLoop, "publisher-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        this.reader = new Thread(this::readLoop, "publisher-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    public static Builder builder(String host, int port) {
+        return new Builder(host, port);
+    }
+
+    // 异步发布，future 以消息在 Broker 日志中的 offset 完成（Broker 未开启 -log 时为 -1），
+    // Broker 返回错误时以 PublishException 异常完成
+    public CompletableFuture<Long> publish(String topicId, byte[] payload) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        byte[] topic = BinaryProtocol.bytes(topicId);
+        synchronized (lock) {
+            if (closed) {
+                inFlight.release();
+                future.completeExceptionally(new IOException("Publisher is closed"));
+                return future;
+            }
+            long sequence = nextSequence++;
+            pending.put(sequence, future);
+            appendFrame(BinaryProtocol.PUBLISH, topic, payload, BinaryProtocol.bytes(Long.toString(sequence)));
+        }
+        return future;
+    }
+
+    public CompletableFuture<Long> publish(String topicId, String payload) {
+        return publish(topicId, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 创建主题，future 以 Broker 的响应文本完成
+    public CompletableFuture<String> createTopic(String topicId, String topicName, String publisher) {
+        return command(BinaryProtocol.CREATE, topicId, topicName, publisher);
+    }
+
+    public CompletableFuture<String> deleteTopic(String topicId) {
+        return command(BinaryProtocol.DELETE, topicId);
+    }
+
+    // 在途（已发送或等待发送、尚未确认）的发布请求数
+    public int inFlight() {
+        return pending.size();
+    }
+
+    // 立即写出当前批次，不等待 linger
+    public void flush() throws IOException {
+        writeBatch();
+    }
+
+    // 写出剩余的批次并关闭连接，尚未确认的请求以异常完成
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeBatch();
+        } finally {
+            synchronized (lock) {
+                closed = true;
+                lock.notifyAll();
+            }
+            socket.close();
+        }
+        failAll(new IOException("Publisher is closed"));
+    }
+
+    // 只响应一次的命令，不带序号，响应按发送顺序对应
+    private CompletableFuture<String> command(byte opcode, String... args) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        byte[][] raw = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            raw[i] = BinaryProtocol.bytes(args[i]);
+        }
+        synchronized (lock) {
+            if (closed) {
+                future.completeExceptionally(new IOException("Publisher is closed"));
+                return future;
+            }
+            commands.add(future);
+            appendFrame(opcode, raw);
+        }
+        return future;
+    }
+
+    // 把一帧编码进当前批次，调用方持有 lock
+    private void appendFrame(byte opcode, byte[]... args) {
+        int length = 2;
+        for (byte[] arg : args) {
+            length += 4 + arg.length;
+        }
+        ensureCapacity(4 + length);
+        putInt(length);
+        batch[batchLength++] = opcode;
+        batch[batchLength++] = (byte) args.length;
+        for (byte[] arg : args) {
+            putInt(arg.length);
+            System.arraycopy(arg, 0, batch, batchLength, arg.length);
+            batchLength += arg.length;
+        }
+        if (batchStartNanos == 0) {
+            batchStartNanos = System.nanoTime();
+            lock.notifyAll();
+        } else if (batchLength >= batchSize) {
+            lock.notifyAll();
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (batchLength + extra > batch.length) {
+            byte[] larger = new byte[Math.max(batch.length * 2, batchLength + extra)];
+            System.arraycopy(batch, 0, larger, 0, batchLength);
+            batch = larger;
+        }
+    }
+
+    private void putInt(int value) {
+        batch[batchLength++] = (byte) (value >>> 24);
+        batch[batchLength++] = (byte) (value >>> 16);
+        batch[batchLength++] = (byte) (value >>> 8);
+        batch[batchLength++] = (byte) value;
+    }
+
+    // 取出当前批次写出，一次 write + flush
+    private void writeBatch() throws IOException {
+        synchronized (writeLock) {
+            byte[] data;
+            int length;
+            synchronized (lock) {
+                if (batchLength == 0) {
+                    return;
+                }
+                data = batch;
+                length = batchLength;
+                batch = spare != null ? spare : new byte[data.length];
+                spare = null;
+                batchLength = 0;
+                batchStartNanos = 0;
+            }
+            try {
+                out.write(data, 0, length);
+                out.flush();
+            } finally {
+                synchronized (lock) {
+                    spare = data;
+                }
+            }
+        }
+    }
+
+    // 后台线程：批次中的第一条消息等待满 linger，或批次达到 batchSize 时写出
+    private void flushLoop() {
+        try {
+            while (true) {
+                synchronized (lock) {
+                    while (!closed && !readyToWrite()) {
+                        if (batchLength == 0) {
+                            lock.wait();
+                        } else {
+                            TimeUnit.NANOSECONDS.timedWait(lock, batchStartNanos + lingerNanos - System.nanoTime());
+                        }
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+                writeBatch();
+            }
+        } catch (InterruptedException e) {
+            // 关闭
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            failAll(e);
+        }
+    }
+
+    // 调用方持有 lock
+    private boolean readyToWrite() {
+        return batchLength > 0 && (batchLength >= batchSize || System.nanoTime() - batchStartNanos >= lingerNanos);
+    }
+
+    // 后台线程：读取 Broker 的响应，带序号的完成对应的发布请求，不带序号的按顺序完成命令
+    private void readLoop() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            BinaryProtocol.Frame frame;
+            while ((frame = BinaryProtocol.read(in)) != null) {
+                if (frame.opcode == BinaryProtocol.ACKED && frame.args.length > 0) {
+                    completeThrough(Long.parseLong(frame.string(0)));
+                    continue;
+                }
+                if (frame.opcode != BinaryProtocol.RESPONSE || frame.args.length == 0) {
+                    continue;
+                }
+                String text = frame.string(0);
+                if (frame.args.length >= 2) {
+                    complete(Long.parseLong(frame.string(1)), text);
+                } else {
+                    CompletableFuture<String> future = commands.poll();
+                    if (future != null) {
+                        if (text.startsWith("[ERROR]")) {
+                            future.completeExceptionally(new PublishException(text));
+                        } else {
+                            future.complete(text);
+                        }
+                    }
+                }
+            }
+            failAll(new EOFException("Connection closed by broker"));
+        } catch (IOException | NumberFormatException e) {
+            failAll(e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+
+    private void complete(long sequence, String text) {
+        CompletableFuture<Long> future = pending.remove(sequence);
+        if (future == null) {
+            return;
+        }
+        inFlight.release();
+        if (text.startsWith("[ERROR]")) {
+            future.completeExceptionally(new PublishException(text));
+        } else {
+            future.complete(parseOffset(text));
+        }
+    }
+
+    // 累计确认：完成序号不超过 sequence 的所有请求，失败的请求已经单独响应并移除；
+    // 累计确认不带各条消息的 offset，future 以 -1 完成
+    private void completeThrough(long sequence) {
+        for (long s = ackedThrough + 1; s <= sequence; s++) {
+            CompletableFuture<Long> future = pending.remove(s);
+            if (future != null) {
+                inFlight.release();
+                future.complete(-1L);
+            }
+        }
+        ackedThrough = Math.max(ackedThrough, sequence);
+    }
+
+    // 确认文本中的 [offset:N]，没有时为 -1
+    private static long parseOffset(String text) {
+        int start = text.lastIndexOf("[offset:");
+        if (start < 0) {
+            return -1;
+        }
+        int end = text.indexOf(']', start);
+        return Long.parseLong(text.substring(start + "[offset:".length(), end));
+    }
+
+    // 在 lock 中标记关闭并取走所有未完成的请求：publish / command 也在 lock 中检查 closed，
+    // 之后加入的请求会直接失败，不会留下永远不完成的 future；同时唤醒 flushLoop 让它退出。
+    // 取走的请求在锁外完成，回调不在锁中执行
+    private void failAll(IOException cause) {
+        List<CompletableFuture<Long>> publishes = new ArrayList<>();
+        List<CompletableFuture<String>> unanswered = new ArrayList<>();
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+            // 逐个 remove，与读线程的 complete 竞争时每个 future 只由一方取走
+            for (Long sequence : pending.keySet()) {
+                CompletableFuture<Long> future = pending.remove(sequence);
+                if (future != null) {
+                    publishes.add(future);
+                }
+            }
+            CompletableFuture<String> command;
+            while ((command = commands.poll()) != null) {
+                unanswered.add(command);
+            }
+        }
+        for (CompletableFuture<Long> future : publishes) {
+            inFlight.release();
+            future.completeExceptionally(cause);
+        }
+        for (CompletableFuture<String> command : unanswered) {
+            command.completeExceptionally(cause);
+        }
+    }
+
+    // Broker 对某条请求返回了错误
+    public static final class PublishException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public PublishException(String message) {
+            super(message);
+        }
+    }
+
+    public static final class Builder {
+        private final String host;
+        private final int port;
+        private long lingerMillis = 1;
+        private int batchSize = 64 * 1024;
+        private int maxInFlight = 512;
+        private long ackIntervalMicros = -1;
+        private int connectTimeoutMillis = 5000;
+
+        private Builder(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        // 一批中的第一条消息最多等待的时间，0 表示不等待
+        public Builder linger(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("linger must not be negative");
+            }
+            this.lingerMillis = millis;
+            return this;
+        }
+
+        // 批次达到该字节数时立即写出
+        public Builder batchSize(int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("batchSize must be positive");
+            }
+            this.batchSize = bytes;
+            return this;
+        }
+
+        // 最多在途的发布请求数，应小于 Broker 的 -queue，否则确认可能因发送队列溢出而丢失
+        public Builder maxInFlight(int requests) {
+            if (requests <= 0) {
+                throw new IllegalArgumentException("maxInFlight must be positive");
+            }
+            this.maxInFlight = requests;
+            return this;
+        }
+
+        // 开启累计确认，Broker 每隔 intervalMicros 批量确认一次（0 表示尽快确认，由 Broker 合并期间到达的请求）；
+        // 开启后成功的 future 以 -1 完成，不再带 offset
+        public Builder cumulativeAcks(long intervalMicros) {
+            if (intervalMicros < 0) {
+                throw new IllegalArgumentException("ack interval must not be negative");
+            }
+            this.ackIntervalMicros = intervalMicros;
+            return this;
+        }
+
+        public Builder connectTimeout(int millis) {
+            this.connectTimeoutMillis = millis;
+            return this;
+        }
+
+        public PublisherClient connect() throws IOException {
+            return new PublisherClient(this);
+        }
+    }
+}
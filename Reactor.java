@@ -0,0 +1,477 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// 基于 Selector 的非阻塞 Reactor
+// 一个 acceptor 线程负责 accept，再把连接轮流分配给固定数量的事件循环线程；
+// 握手、命令读取和向订阅者写消息都在事件循环中完成，不再为每个连接创建线程
+class Reactor {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+    private static final int MAX_FRAME_LENGTH = BinaryProtocol.MAX_FRAME_LENGTH + 4;
+    private static final int MAX_GATHER = 64; // 一次 gathering write 最多合并的消息数
+
+    // 标记事件循环线程，事件循环中不能执行阻塞等待
+    private static final ThreadLocal<Boolean> EVENT_LOOP_THREAD = ThreadLocal.withInitial(() -> false);
+
+    private final int port;
+    private final EventLoop[] loops;
+    private ServerSocketChannel serverChannel;
+
+    public Reactor(int port, int eventLoops) {
+        this.port = port;
+        this.loops = new EventLoop[eventLoops];
+    }
+
+    // 绑定端口并启动事件循环线程
+    public void bind() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "event-loop-" + i);
+            thread.start();
+        }
+    }
+
+    // 在当前线程上阻塞 accept，新连接轮流注册到事件循环
+    public void run() throws IOException {
+        int next = 0;
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            loops[next].register(channel);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    static boolean isEventLoopThread() {
+        return EVENT_LOOP_THREAD.get();
+    }
+
+    // 事件循环：一个线程 + 一个 Selector，负责若干连接的全部读写
+    static class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile Thread thread;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        // 注册在事件循环中完成，返回的连接可以立即发送，数据在注册之后写出
+        ChannelConnection register(SocketChannel channel) {
+            ChannelConnection connection = new ChannelConnection(channel, this);
+            execute(() -> {
+                try {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());
+                }
+            });
+            return connection;
+        }
+
+        // 把任务投递到事件循环线程执行
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            EVENT_LOOP_THREAD.set(true);
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        ChannelConnection connection = (ChannelConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            System.out.println(e.getMessage());
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    // 基于非阻塞 SocketChannel 的连接，按握手结果解析文本行或二进制帧
+    static class ChannelConnection implements Connection {
+        private static final int HANDSHAKE = 0;
+        private static final int CLIENT = 1;
+        private static final int BROKER = 2;
+
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private int state = HANDSHAKE;
+        private volatile boolean binary;
+        private final CommandParser command = new CommandParser();
+
+        // 有界发送队列，其他线程（例如发布者所在的事件循环）只负责入队，由本连接所属的事件循环写出
+        private final OutboundQueue outbound = new OutboundQueue(Broker.config());
+        // 正在写出的一批消息，[batchStart, batchEnd) 为尚未写完的部分
+        // batch 是各条共享数据在本连接上的视图，写完一条就释放对应的 SharedBuffer
+        private final ByteBuffer[] batch = new ByteBuffer[MAX_GATHER];
+        private final SharedBuffer[] batchBuffers = new SharedBuffer[MAX_GATHER];
+        private int batchStart;
+        private int batchEnd;
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private volatile boolean closed;
+        private volatile CreditGate credits; // 对端发送 CREDIT 后才创建
+        private volatile PublishAcks acks; // 对端发送 ACKS 后才创建
+        private volatile Runnable drainListener;
+        private boolean readsSuspended; // 只在本连接的事件循环中读写
+
+        ChannelConnection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        @Override
+        public boolean isBinary() {
+            return binary;
+        }
+
+        @Override
+        public void sendBuffer(SharedBuffer data) {
+            if (closed) {
+                data.release();
+                return;
+            }
+            if (!outbound.offer(data)) {
+                System.out.println("Slow consumer disconnected: " + this);
+                close();
+                return;
+            }
+            // 即使在本连接的事件循环中也只投递任务，发布者不直接写订阅者的 socket
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(() -> {
+                    flushScheduled.set(false);
+                    flushQuietly();
+                });
+            }
+        }
+
+        @Override
+        public void sendMessage(SharedBuffer data) {
+            CreditGate gate = credits;
+            if (gate == null) {
+                sendBuffer(data);
+            } else if (!gate.offer(data)) {
+                System.out.println("Slow consumer disconnected: " + this);
+                close();
+            }
+        }
+
+        // 只在本连接的事件循环中调用
+        @Override
+        public void grantCredits(long n) {
+            if (credits == null) {
+                credits = new CreditGate(this, Broker.config());
+            }
+            credits.grant(n);
+        }
+
+        // 只在本连接的事件循环中调用
+        @Override
+        public void enableCumulativeAcks(long intervalMicros, int maxPending) {
+            if (acks == null) {
+                acks = new PublishAcks(this, intervalMicros, maxPending);
+            } else {
+                acks.configure(intervalMicros, maxPending);
+            }
+        }
+
+        @Override
+        public boolean expectAcknowledge(String sequence) {
+            PublishAcks current = acks;
+            if (current == null) {
+                return false;
+            }
+            current.expect(sequence);
+            return true;
+        }
+
+        @Override
+        public void acknowledge(String sequence) {
+            acks.acknowledge(sequence);
+        }
+
+        private void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException | CancelledKeyException e) {
+                System.out.println(e.getMessage());
+                close();
+            }
+        }
+
+        // 尽可能写出队列中的数据，写不完则关注 OP_WRITE 等待下次可写
+        // 队列中积压的多条消息通过 gathering write 合并为一次系统调用
+        void flush() throws IOException {
+            if (closed || key == null) {
+                return;
+            }
+            while (true) {
+                if (batchStart == batchEnd) {
+                    batchStart = batchEnd = 0;
+                    SharedBuffer data;
+                    while (batchEnd < batch.length && (data = outbound.poll()) != null) {
+                        batchBuffers[batchEnd] = data;
+                        batch[batchEnd++] = data.asByteBuffer();
+                    }
+                    if (batchEnd == 0) {
+                        break;
+                    }
+                }
+                channel.write(batch, batchStart, batchEnd - batchStart);
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    BrokerMetrics.written(batchBuffers[batchStart]);
+                    batchBuffers[batchStart].release();
+                    batchBuffers[batchStart] = null;
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            Runnable listener = drainListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+
+        // 包括等待额度的消息
+        @Override
+        public int queueDepth() {
+            CreditGate gate = credits;
+            return outbound.size() + (batchEnd - batchStart) + (gate == null ? 0 : gate.heldCount());
+        }
+
+        @Override
+        public void onDrained(Runnable listener) {
+            this.drainListener = listener;
+        }
+
+        @Override
+        public long queuedBytes() {
+            return outbound.bytes();
+        }
+
+        @Override
+        public long droppedMessages() {
+            CreditGate gate = credits;
+            return outbound.dropped() + (gate == null ? 0 : gate.dropped());
+        }
+
+        // 只在本连接的事件循环中调用（命令处理中），停止解析缓冲区中剩余的命令并取消关注 OP_READ
+        @Override
+        public void suspendReads() {
+            readsSuspended = true;
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+
+        // 可以在任意线程中调用：回到事件循环，先处理暂停时留在缓冲区中的命令，再恢复关注 OP_READ
+        @Override
+        public void resumeReads() {
+            loop.execute(() -> {
+                if (closed || !readsSuspended) {
+                    return;
+                }
+                readsSuspended = false;
+                try {
+                    processBuffered();
+                    if (!readsSuspended && !closed) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    }
+                } catch (IOException | CancelledKeyException e) {
+                    System.out.println(e.getMessage());
+                    close();
+                }
+            });
+        }
+
+        void onReadable() throws IOException {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close();
+                return;
+            }
+            processBuffered();
+        }
+
+        private void processBuffered() throws IOException {
+            readBuffer.flip();
+            // 握手之后可能紧跟二进制帧，因此每解析一条都重新判断协议
+            while (!closed && !readsSuspended && (binary ? readFrame() : readLine())) {
+                // 继续解析缓冲区中剩余的数据
+            }
+            readBuffer.compact();
+
+            // 一行（或一帧）超过缓冲区大小时扩容，超过上限则断开；暂停期间缓冲区写满是因为还有未解析的命令，不扩容
+            if (!readsSuspended && !readBuffer.hasRemaining()) {
+                if (readBuffer.capacity() >= (binary ? MAX_FRAME_LENGTH : MAX_LINE_LENGTH)) {
+                    System.out.println((binary ? "Frame too long" : "Line too long") + ", closing connection: " + this);
+                    close();
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                readBuffer.flip();
+                bigger.put(readBuffer);
+                readBuffer = bigger;
+            }
+        }
+
+        // 从读缓冲区解析出一行，数据不足一行时返回 false
+        private boolean readLine() throws IOException {
+            byte[] array = readBuffer.array();
+            int start = readBuffer.position();
+            int newline = CommandParser.indexOf(array, start, readBuffer.limit(), (byte) '\n');
+            if (newline == readBuffer.limit()) {
+                return false;
+            }
+            int end = newline > start && array[newline - 1] == '\r' ? newline - 1 : newline;
+            readBuffer.position(newline + 1);
+            if (state == HANDSHAKE) {
+                onHandshake(new String(array, start, end - start, BinaryProtocol.CHARSET));
+            } else {
+                // 直接在读缓冲区上解析，不创建 String
+                command.parseLine(array, start, end);
+                onCommand();
+            }
+            return true;
+        }
+
+        // 从读缓冲区解析出一帧，数据不足一帧时返回 false
+        private boolean readFrame() throws IOException {
+            int position = readBuffer.position();
+            if (readBuffer.limit() - position < 4) {
+                return false;
+            }
+            int length = readBuffer.getInt(position);
+            if (length < 2 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+                throw new IOException("Invalid frame length: " + length);
+            }
+            if (readBuffer.limit() - position < 4 + length) {
+                return false;
+            }
+            command.parseFrame(readBuffer.array(), position + 4, position + 4 + length);
+            readBuffer.position(position + 4 + length);
+            onCommand();
+            return true;
+        }
+
+        private void onCommand() throws IOException {
+            if (state == CLIENT) {
+                Broker.ClientHandler.handleClientCommand(command, this);
+            } else if (state == BROKER) {
+                Broker.BrokerHandler.handleBrokerCommand(command, this);
+            }
+        }
+
+        // 读取初始消息以确定连接类型，"CLIENT BINARY" / "BROKER BINARY" 表示之后使用二进制帧
+        private void onHandshake(String line) {
+            String[] handshake = line.trim().split(" ");
+            binary = Broker.isBinaryHandshake(handshake);
+            if ("BROKER".equalsIgnoreCase(handshake[0])) {
+                state = BROKER;
+                Broker.addBrokerConnection(this, Broker.isCompressedHandshake(handshake));
+                System.out.println("Accepted connection from another broker.");
+            } else if ("CLIENT".equalsIgnoreCase(handshake[0])) {
+                state = CLIENT;
+                BrokerMetrics.opened(this);
+                System.out.println("Accepted connection from a client.");
+            } else {
+                System.out.println("未知连接类型: " + line);
+                close();
+            }
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            outbound.clear();
+            CreditGate gate = credits;
+            if (gate != null) {
+                gate.clear();
+            }
+            // 正在写出的一批只由事件循环访问，交给它释放，避免和进行中的 flush 冲突
+            if (loop.inEventLoop()) {
+                releaseBatch();
+            } else {
+                loop.execute(this::releaseBatch);
+            }
+            Broker.removeConnection(this);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+
+        // 关闭后 flush 不再运行，释放尚未写完的部分
+        private void releaseBatch() {
+            while (batchStart < batchEnd) {
+                batchBuffers[batchStart].release();
+                batchBuffers[batchStart] = null;
+                batch[batchStart++] = null;
+            }
+            batchStart = batchEnd = 0;
+        }
+
+        @Override
+        public String toString() {
+            try {
+                return String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                return "closed";
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.node;
+
+// 每个主题在内存中保留最近若干条消息，供订阅时补发
+// 消息内容存放在字节数组（arena）中，按环形依次写入，槽位信息（时间戳、位置、长度）也存放在数组中，发布时只做 arraycopy。
+// arena 和槽位数组在第一次发布时才分配，之后按需翻倍，直到 -retain-kb / -retain 的上限，
+// 因此大量从不发布或只发布少量小消息的主题不会各自占用完整的 arena；达到上限后不再分配内存。
+// 保留最近 maxMessages 条，arena 写满时淘汰最旧的消息；按时间的保留在读取时过滤。
+//
+// 写入和读取都由持有主题发布锁的线程执行
+final class RetainedRing {
+
+    // 读取保留消息时的回调，payload 为 arena 本身，只在回调期间有效
+    interface Visitor {
+        void message(long timestamp, byte[] payload, int offset, int length);
+    }
+
+    private static final int MIN_ARENA_BYTES = 256;
+    private static final int MIN_SLOTS = 8;
+
+    private final int maxMessages;
+    private final int maxArenaBytes;
+    private byte[] arena = new byte[0];
+    private long[] timestamps = new long[0];
+    private int[] positions = new int[0];
+    private int[] lengths = new int[0];
+    private int[] footprints = new int[0]; // 消息占用的字节数，包括为避免跨越 arena 末尾而跳过的部分
+    private final long maxAgeNanos;
+    private int head;  // 最旧一条所在的槽位
+    private int count;
+    private int writePosition;
+    private int usedBytes;
+
+    RetainedRing(int maxMessages, int arenaBytes, long maxAgeMillis) {
+        this.maxMessages = maxMessages;
+        this.maxArenaBytes = arenaBytes;
+        this.maxAgeNanos = maxAgeMillis * 1_000_000L;
+    }
+
+    // 保留一条消息；比整个 arena 还大的消息无法保留，此时清空已保留的消息，
+    // 保证补发的总是一段连续的最新消息，中间不会缺失
+    void append(long timestamp, byte[] payload, int offset, int length) {
+        if (length > maxArenaBytes) {
+            clear();
+            return;
+        }
+        ensureCapacity(length);
+        while (true) {
+            if (count == 0) {
+                writePosition = 0;
+                usedBytes = 0;
+            }
+            // 消息总是连续存放，放不下 arena 末尾的剩余空间时从头开始写
+            boolean wrap = arena.length - writePosition < length;
+            int skip = wrap ? arena.length - writePosition : 0; // 末尾恰好写满时 skip 为 0，但仍要从头写
+            if (count < timestamps.length && arena.length - usedBytes >= skip + length) {
+                int position = wrap ? 0 : writePosition;
+                int slot = (head + count) % timestamps.length;
+                System.arraycopy(payload, offset, arena, position, length);
+                timestamps[slot] = timestamp;
+                positions[slot] = position;
+                lengths[slot] = length;
+                footprints[slot] = skip + length;
+                writePosition = position + length;
+                usedBytes += skip + length;
+                count++;
+                return;
+            }
+            evictOldest();
+        }
+    }
+
+    // 从旧到新访问最近的至多 limit 条消息，超过保留时间的跳过
+    int forEachRecent(int limit, long nowNanos, Visitor visitor) {
+        int visited = 0;
+        for (int i = count - Math.min(limit, count); i < count; i++) {
+            int slot = (head + i) % timestamps.length;
+            if (maxAgeNanos > 0 && nowNanos - timestamps[slot] > maxAgeNanos) {
+                continue;
+            }
+            visitor.message(timestamps[slot], arena, positions[slot], lengths[slot]);
+            visited++;
+        }
+        return visited;
+    }
+
+    int size() {
+        return count;
+    }
+
+    // 槽位已满或剩余空间放不下时，在上限之内扩容；已到上限则由 append 淘汰旧消息
+    private void ensureCapacity(int length) {
+        int slots = timestamps.length;
+        if (count == slots && slots < maxMessages) {
+            slots = (int) Math.min(maxMessages, Math.max(MIN_SLOTS, 2L * slots));
+        }
+        int arenaBytes = arena.length;
+        int skip = count > 0 && arenaBytes - writePosition < length ? arenaBytes - writePosition : 0;
+        if (arenaBytes - usedBytes < skip + length && arenaBytes < maxArenaBytes) {
+            arenaBytes = (int) Math.min(maxArenaBytes, Math.max(Math.max(MIN_ARENA_BYTES, 2L * arenaBytes), (long) usedBytes + length));
+        }
+        if (slots != timestamps.length || arenaBytes != arena.length) {
+            resize(slots, arenaBytes);
+        }
+    }
+
+    // 按从旧到新的顺序把保留的消息紧凑地复制到新数组的开头
+    private void resize(int slots, int arenaBytes) {
+        byte[] newArena = new byte[arenaBytes];
+        long[] newTimestamps = new long[slots];
+        int[] newPositions = new int[slots];
+        int[] newLengths = new int[slots];
+        int[] newFootprints = new int[slots];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = (head + i) % timestamps.length;
+            System.arraycopy(arena, positions[slot], newArena, position, lengths[slot]);
+            newTimestamps[i] = timestamps[slot];
+            newPositions[i] = position;
+            newLengths[i] = lengths[slot];
+            newFootprints[i] = lengths[slot];
+            position += lengths[slot];
+        }
+        arena = newArena;
+        timestamps = newTimestamps;
+        positions = newPositions;
+        lengths = newLengths;
+        footprints = newFootprints;
+        head = 0;
+        writePosition = position;
+        usedBytes = position;
+    }
+
+    private void evictOldest() {
+        usedBytes -= footprints[head];
+        head = (head + 1) % timestamps.length;
+        count--;
+    }
+
+    private void clear() {
+        head = 0;
+        count = 0;
+        writePosition = 0;
+        usedBytes = 0;
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.node;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// 编码好的一条待发送数据，写入完成后内容不再改变，可以被多个连接的发送队列同时持有
+// 发布时每种协议只编码一次，同一个 SharedBuffer 交给所有订阅者，而不是每个订阅者各拷贝一份
+//
+// 通过引用计数决定何时回收：每个持有者（发送队列中的一项、发布者本身）占一个引用，
+// 写出或丢弃后调用 release()，计数归零时底层数组回到池中供下一条消息复用。
+// 没有 release 的缓冲区只是不会回到池中，最终由 GC 回收；重复 release 会抛出异常
+final class SharedBuffer {
+    private static final int MIN_POOLED_SIZE = 256;
+    private static final int MAX_POOLED_SIZE = 64 * 1024;
+    private static final int POOL_BYTES_PER_CLASS = 4 * 1024 * 1024; // 每个尺寸档位最多缓存的字节数
+
+    // 按 2 的幂划分尺寸档位，每档一个有界的空闲队列
+    private static final List<BlockingQueue<SharedBuffer>> POOL = createPool();
+
+    private final byte[] array;
+    private final int sizeClass; // 不参与池化时为 -1
+    private final AtomicInteger refCount = new AtomicInteger();
+    private int length;
+    private long stampNanos; // 发布时的 System.nanoTime()，用于统计发布到写出的延迟；0 表示不统计
+
+    private SharedBuffer(byte[] array, int length, int sizeClass) {
+        this.array = array;
+        this.length = length;
+        this.sizeClass = sizeClass;
+        this.refCount.set(1);
+    }
+
+    // 包装已有的数组，不参与池化，用于响应等非热点路径
+    static SharedBuffer wrap(byte[] data) {
+        return new SharedBuffer(data, data.length, -1);
+    }
+
+    // 分配一个长度为 length 的缓冲区，引用计数为 1，调用方写入内容后即视为只读
+    static SharedBuffer allocate(int length) {
+        int sizeClass = sizeClass(length);
+        if (sizeClass < 0) {
+            return new SharedBuffer(new byte[length], length, -1);
+        }
+        SharedBuffer buffer = POOL.get(sizeClass).poll();
+        if (buffer == null) {
+            return new SharedBuffer(new byte[MIN_POOLED_SIZE << sizeClass], length, sizeClass);
+        }
+        buffer.length = length;
+        buffer.stampNanos = 0;
+        buffer.refCount.set(1);
+        return buffer;
+    }
+
+    // 底层数组，有效数据为 [0, length())；数组可能比 length 长
+    byte[] array() {
+        return array;
+    }
+
+    int length() {
+        return length;
+    }
+
+    // 在交给其他持有者之前设置，之后只读
+    void stamp(long nanos) {
+        this.stampNanos = nanos;
+    }
+
+    long stamp() {
+        return stampNanos;
+    }
+
+    // 增加一个引用，交给另一个持有者之前调用
+    // 已释放的缓冲区可能已经回到池中被复用，计数保持不变，直接拒绝
+    SharedBuffer retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Buffer already released");
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    // 释放一个引用，最后一个引用释放后回到池中；计数不会减到负数
+    void release() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Buffer released twice");
+            }
+            if (refCount.compareAndSet(count, count - 1)) {
+                if (count == 1 && sizeClass >= 0) {
+                    POOL.get(sizeClass).offer(this);
+                }
+                return;
+            }
+        }
+    }
+
+    // 当前引用数，0 表示已经释放
+    int refCount() {
+        return refCount.get();
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(array, 0, length);
+    }
+
+    // 供 gathering write 使用的视图，每个连接各自一个，互不影响读写位置
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(array, 0, length);
+    }
+
+    private static int sizeClass(int length) {
+        if (length > MAX_POOLED_SIZE) {
+            return -1;
+        }
+        int sizeClass = 0;
+        while ((MIN_POOLED_SIZE << sizeClass) < length) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    private static List<BlockingQueue<SharedBuffer>> createPool() {
+        int classes = sizeClass(MAX_POOLED_SIZE) + 1;
+        List<BlockingQueue<SharedBuffer>> pool = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            pool.add(new ArrayBlockingQueue<>(POOL_BYTES_PER_CLASS / (MIN_POOLED_SIZE << i)));
+        }
+        return pool;
+    }
+}
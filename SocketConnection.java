@@ -0,0 +1,195 @@
+package com.example.node;
+
+import java.io.*;
+import java.net.*;
+import java.util.concurrent.TimeUnit;
+
+// 基于阻塞 Socket 的连接，thread / virtual 模式下使用
+// 所有写出都先进入有界队列，由该连接专属的写线程按顺序写到 socket，
+// 同一时刻只有写线程访问输出流，无需加锁
+//
+// 写线程持有一个长期复用的缓冲输出流，并自适应地决定何时 flush：
+// 空闲时每条消息立即 flush，不增加延迟；突发时把队列中积压的多条消息合并到一次写出，
+// 并在不超过 flushDelay 的时间内继续等待后续消息，从而把多次系统调用合并为一次
+class SocketConnection implements Connection {
+    private final Socket socket;
+    private final OutboundQueue outbound;
+    private final long flushDelayNanos;
+    private final int writeBufferSize;
+    private final Thread writer;
+    private volatile boolean binary;
+    private volatile boolean closed;
+    private volatile CreditGate credits; // 对端发送 CREDIT 后才创建
+    private volatile PublishAcks acks; // 对端发送 ACKS 后才创建
+    private volatile Runnable drainListener;
+
+    public SocketConnection(Socket socket) {
+        this.socket = socket;
+        this.outbound = new OutboundQueue(Broker.config());
+        this.flushDelayNanos = TimeUnit.MICROSECONDS.toNanos(Broker.config().flushDelayMicros);
+        this.writeBufferSize = Broker.config().writeBufferSize;
+        this.writer = Broker.startThread(this::writeLoop);
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // 握手协商为二进制协议后调用，之后的发送都按帧编码
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    @Override
+    public void sendBuffer(SharedBuffer data) {
+        if (closed) {
+            data.release();
+            return;
+        }
+        if (!outbound.offer(data)) {
+            System.out.println("Slow consumer disconnected: " + this);
+            close();
+        }
+    }
+
+    @Override
+    public void sendMessage(SharedBuffer data) {
+        CreditGate gate = credits;
+        if (gate == null) {
+            sendBuffer(data);
+        } else if (!gate.offer(data)) {
+            System.out.println("Slow consumer disconnected: " + this);
+            close();
+        }
+    }
+
+    // 只在本连接的读线程中调用
+    @Override
+    public void grantCredits(long n) {
+        if (credits == null) {
+            credits = new CreditGate(this, Broker.config());
+        }
+        credits.grant(n);
+    }
+
+    // 只在本连接的读线程中调用
+    @Override
+    public void enableCumulativeAcks(long intervalMicros, int maxPending) {
+        if (acks == null) {
+            acks = new PublishAcks(this, intervalMicros, maxPending);
+        } else {
+            acks.configure(intervalMicros, maxPending);
+        }
+    }
+
+    @Override
+    public boolean expectAcknowledge(String sequence) {
+        PublishAcks current = acks;
+        if (current == null) {
+            return false;
+        }
+        current.expect(sequence);
+        return true;
+    }
+
+    @Override
+    public void acknowledge(String sequence) {
+        acks.acknowledge(sequence);
+    }
+
+    // 写线程：从队列取出数据写到 socket
+    private void writeLoop() {
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), writeBufferSize);
+            while (!closed) {
+                SharedBuffer data = outbound.take();
+                long deadline = System.nanoTime() + flushDelayNanos;
+                int batch = 0;
+                while (data != null) {
+                    data.writeTo(out); // 缓冲区满时 BufferedOutputStream 会自动写出
+                    BrokerMetrics.written(data);
+                    data.release(); // 数据已拷入缓冲区或写到 socket，不再引用
+                    batch++;
+                    data = outbound.poll();
+                    if (data == null && batch > 1) {
+                        // 正处于突发流量中，在时限内再等一会儿，把后续消息合并到同一次写出
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining > 0) {
+                            data = outbound.poll(remaining, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                }
+                out.flush();
+                Runnable listener = drainListener;
+                if (listener != null) {
+                    listener.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            // 连接关闭
+        } catch (IOException e) {
+            if (!closed) {
+                //e.printStackTrace();
+                System.out.println(e.getMessage());
+                close();
+            }
+        }
+    }
+
+    // 包括等待额度的消息
+    @Override
+    public int queueDepth() {
+        CreditGate gate = credits;
+        return outbound.size() + (gate == null ? 0 : gate.heldCount());
+    }
+
+    @Override
+    public void onDrained(Runnable listener) {
+        this.drainListener = listener;
+    }
+
+    @Override
+    public long queuedBytes() {
+        return outbound.bytes();
+    }
+
+    @Override
+    public long droppedMessages() {
+        CreditGate gate = credits;
+        return outbound.dropped() + (gate == null ? 0 : gate.dropped());
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.interrupt();
+        outbound.clear();
+        CreditGate gate = credits;
+        if (gate != null) {
+            gate.clear();
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+}
@@ -1,15 +1,20 @@
 package com.example.subscriber;
 
+import com.example.protocol.BinaryProtocol;
+
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.UUID;
 
 public class Subscriber {
     static String username;
+    static boolean binary; // 是否使用二进制帧协议
 
     public static void main(String[] args) throws IOException {
         if (args.length < 3) {
-            System.out.println("Usage: java -jar subscriber.jar <username> <broker_ip> <broker_port>");
+            System.out.println("Usage: java -jar subscriber.jar <username> <broker_ip> <broker_port> [text|binary]");
             return;
         }
 
@@ -17,19 +22,28 @@ public class Subscriber {
         username = args[0];
         String brokerIp = args[1];
         int brokerPort = Integer.parseInt(args[2]);
+        binary = args.length > 3 && "binary".equalsIgnoreCase(args[3]);
 
 
         Socket socket = new Socket(brokerIp, brokerPort);
-        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
         BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-        BufferedReader brokerReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
         // 发送身份标识
-        out.println("CLIENT");
+        send(out, binary ? "CLIENT " + BinaryProtocol.MODE : "CLIENT");
 
         // 使用多线程来接收Broker的消息
         new Thread(() -> {
             try {
+                if (binary) {
+                    DataInputStream brokerFrames = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    BinaryProtocol.Frame frame;
+                    while ((frame = BinaryProtocol.read(brokerFrames)) != null) {
+                        System.out.println("[来自Broker的消息]: " + format(frame));
+                    }
+                    return;
+                }
+                BufferedReader brokerReader = new BufferedReader(new InputStreamReader(socket.getInputStream(), BinaryProtocol.CHARSET));
                 String message;
                 while ((message = brokerReader.readLine()) != null) {
                     System.out.println("[来自Broker的消息]: " + message);
@@ -65,37 +79,65 @@ public class Subscriber {
         }
     }
 
-    private static void displayTopics(String[] parts, PrintWriter out) {
+    private static void displayTopics(String[] parts, OutputStream out) throws IOException {
         if (parts.length != 1 || !parts[0].equals("显示")) {
             System.out.println("[ERROR] 显示参数错误.");
             return;
         }
-        String message = "DISPLAY";
 
-        out.println(message);
+        send(out, "DISPLAY");
     }
 
-    private static void subscribe(String[] parts, PrintWriter out) {
-        if (parts.length != 2) {
+    // 订阅 <主题 ID> [offset]，指定 offset 时从 Broker 的持久化日志补发该位置之后的消息；
+    // 订阅 <主题 ID> recent [n]，先补发 Broker 内存中保留的最近 n 条消息
+    // 以上各种形式之后都可以加 where <表达式>，只接收满足条件的消息，例如 订阅 shop/eu where price > 100
+    private static void subscribe(String[] parts, OutputStream out) throws IOException {
+        String[] where = {};
+        for (int i = 2; i < parts.length; i++) {
+            if ("WHERE".equalsIgnoreCase(parts[i])) {
+                where = new String[]{"WHERE", String.join(" ", Arrays.copyOfRange(parts, i + 1, parts.length))};
+                parts = Arrays.copyOf(parts, i);
+                break;
+            }
+        }
+        if (parts.length < 2 || parts.length > 4) {
             System.out.println("[ERROR] 订阅参数错误.");
             return;
         }
 
         String topicId = parts[1];
+        if (parts.length >= 3 && "RECENT".equalsIgnoreCase(parts[2])) {
+            if (parts.length == 4) {
+                send(out, withFilter(where, "SUBSCRIBE", topicId, username, "RECENT", parts[3]));
+            } else {
+                send(out, withFilter(where, "SUBSCRIBE", topicId, username, "RECENT"));
+            }
+            return;
+        }
+        if (parts.length == 4) {
+            System.out.println("[ERROR] 订阅参数错误.");
+            return;
+        }
+        if (parts.length == 3) {
+            send(out, withFilter(where, "SUBSCRIBE", topicId, username, "FROM", parts[2]));
+            return;
+        }
 
-        String message = "SUBSCRIBE " + topicId + " " + username;
-
+        send(out, withFilter(where, "SUBSCRIBE", topicId, username));
+    }
 
-        out.println(message);
+    private static String[] withFilter(String[] where, String... parts) {
+        String[] result = Arrays.copyOf(parts, parts.length + where.length);
+        System.arraycopy(where, 0, result, parts.length, where.length);
+        return result;
     }
 
-    private static void currentSubscriptions(PrintWriter out) {
-        String message = "CURRENT "+username;
+    private static void currentSubscriptions(OutputStream out) throws IOException {
 
-        out.println(message);
+        send(out, "CURRENT", username);
     }
 
-    private static void unsubscribe(String[] parts, PrintWriter out) {
+    private static void unsubscribe(String[] parts, OutputStream out) throws IOException {
         if (parts.length != 2) {
             System.out.println("[ERROR] 取消订阅参数错误.");
             return;
@@ -103,8 +145,29 @@ public class Subscriber {
 
         String topicId = parts[1];
 
-        String message = "UNSUBSCRIBE " + topicId + " " + username;
+        send(out, "UNSUBSCRIBE", topicId, username);
+    }
+
+    // 发送一条命令：文本协议下以空格拼接为一行，二进制协议下编码为帧
+    private static void send(OutputStream out, String... parts) throws IOException {
+        if (binary && parts.length > 0 && BinaryProtocol.opcode(parts[0]) > 0) {
+            out.write(BinaryProtocol.encode(BinaryProtocol.opcode(parts[0]), Arrays.copyOfRange(parts, 1, parts.length)));
+        } else {
+            out.write((String.join(" ", parts) + System.lineSeparator()).getBytes(BinaryProtocol.CHARSET));
+        }
+        out.flush();
+    }
 
-        out.println(message);
+    // 二进制协议下 MESSAGE 帧按文本协议的格式显示，其余帧为响应文本
+    private static String format(BinaryProtocol.Frame frame) {
+        if (frame.opcode != BinaryProtocol.MESSAGE) {
+            return frame.string(0);
+        }
+        if (frame.args.length > 4) {
+            // Broker 以 -envelope nanos 启动时，第 5 个参数为 8 字节的 epoch 纳秒时间
+            long nanos = ByteBuffer.wrap(frame.args[4]).getLong();
+            return String.format("[%s] [%d] [主题 ID:%s:%s] [%s]", frame.string(2), nanos, frame.string(0), frame.string(1), frame.string(3));
+        }
+        return String.format("[%s] [主题 ID:%s:%s] [%s]", frame.string(2), frame.string(0), frame.string(1), frame.string(3));
     }
 }
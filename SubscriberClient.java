@@ -0,0 +1,294 @@
+package com.example.subscriber;
+
+import com.example.protocol.BinaryProtocol;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// 可嵌入服务中的订阅客户端，使用二进制帧协议和基于额度的流控
+// 连接后先用 CREDIT 授予 window 条消息的额度，Broker 最多推送这么多条未被取走的消息；
+// 应用每取走（poll 返回或回调处理完）一半窗口的消息，就补充相应的额度。
+// 应用处理得慢时 Broker 停止推送，消息暂存在 Broker 的有界队列中，本地缓冲区最多只有 window 条
+//
+// 两种用法：拉取模式调用 poll(max, timeout)；回调模式用 Builder.onMessage 注册回调，由内部线程逐条调用
+public final class SubscriberClient implements Closeable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final String username;
+    private final int window;
+    private final BlockingQueue<Message> received;
+    private final Queue<CompletableFuture<String>> commands = new ConcurrentLinkedQueue<>(); // 按顺序对应响应
+    private final Thread reader;
+    private Thread dispatcher;
+    private int consumed; // 已取走但尚未补充额度的消息数，由 creditLock 保护
+    private final Object creditLock = new Object();
+    private volatile boolean closed;
+
+    private SubscriberClient(Builder builder) throws IOException {
+        this.socket = new Socket();
+        socket.connect(new InetSocketAddress(builder.host, builder.port), builder.connectTimeoutMillis);
+        socket.setTcpNoDelay(true);
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.username = builder.username;
+        this.window = builder.window;
+        // 额度保证未取走的消息不超过 window 条，队列永远不会写满
+        this.received = new ArrayBlockingQueue<>(builder.window);
+
+        synchronized (out) {
+            out.write(("CLIENT " + BinaryProtocol.MODE + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        send(BinaryProtocol.CREDIT, Integer.toString(window));
+
+        this.reader = new Thread(this::readLoop, "subscriber-reader");
+        this.reader.setDaemon(true);
+        this.reader.start();
+        if (builder.callback != null) {
+            Consumer<Message> callback = builder.callback;
+            this.dispatcher = new Thread(() -> dispatchLoop(callback), "subscriber-dispatcher");
+            // 与读线程一样不阻止 JVM 退出；close 不等待它，回调中也可以调用 close
+            this.dispatcher.setDaemon(true);
+            this.dispatcher.start();
+        }
+    }
+
+    public static Builder builder(String host, int port, String username) {
+        return new Builder(host, port, username);
+    }
+
+    // 订阅主题（可以使用 + / # 通配符），filter 为 WHERE 之后的过滤表达式，为 null 表示接收全部消息
+    // future 以 Broker 的响应文本完成，Broker 返回错误时以 IOException 异常完成
+    public CompletableFuture<String> subscribe(String topicId, String filter) {
+        if (filter == null) {
+            return command(BinaryProtocol.SUBSCRIBE, topicId, username);
+        }
+        return command(BinaryProtocol.SUBSCRIBE, topicId, username, "WHERE", filter);
+    }
+
+    public CompletableFuture<String> subscribe(String topicId) {
+        return subscribe(topicId, null);
+    }
+
+    public CompletableFuture<String> unsubscribe(String topicId) {
+        return command(BinaryProtocol.UNSUBSCRIBE, topicId, username);
+    }
+
+    // 取走最多 max 条消息，没有消息时最多等待 timeout；回调模式下不要调用
+    public List<Message> poll(int max, long timeout, TimeUnit unit) throws InterruptedException {
+        List<Message> batch = new ArrayList<>(Math.min(max, window));
+        Message first = received.poll(timeout, unit);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        received.drainTo(batch, max - 1);
+        consumed(batch.size());
+        return batch;
+    }
+
+    // 本地已收到、尚未取走的消息数
+    public int buffered() {
+        return received.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+        socket.close();
+    }
+
+    // 取走的消息累计达到半个窗口时补充额度，减少 CREDIT 命令的数量
+    private void consumed(int count) {
+        int grant;
+        synchronized (creditLock) {
+            consumed += count;
+            if (consumed < Math.max(1, window / 2)) {
+                return;
+            }
+            grant = consumed;
+            consumed = 0;
+        }
+        try {
+            send(BinaryProtocol.CREDIT, Integer.toString(grant));
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    private CompletableFuture<String> command(byte opcode, String... args) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        synchronized (out) {
+            commands.add(future);
+            try {
+                send(opcode, args);
+            } catch (IOException e) {
+                commands.remove(future);
+                future.completeExceptionally(e);
+            }
+        }
+        return future;
+    }
+
+    private void send(byte opcode, String... args) throws IOException {
+        byte[] frame = BinaryProtocol.encode(opcode, args);
+        synchronized (out) {
+            out.write(frame);
+            out.flush();
+        }
+    }
+
+    // 后台线程：MESSAGE 帧放入本地队列，RESPONSE 帧按顺序完成命令
+    private void readLoop() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            BinaryProtocol.Frame frame;
+            while ((frame = BinaryProtocol.read(in)) != null) {
+                if (frame.opcode == BinaryProtocol.MESSAGE) {
+                    received.put(Message.from(frame));
+                } else if (frame.opcode == BinaryProtocol.RESPONSE && frame.args.length > 0) {
+                    String text = frame.string(0);
+                    CompletableFuture<String> future = commands.poll();
+                    if (future == null) {
+                        continue;
+                    }
+                    if (text.startsWith("[ERROR]")) {
+                        future.completeExceptionally(new IOException(text));
+                    } else {
+                        future.complete(text);
+                    }
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            if (!closed) {
+                System.out.println(e.getMessage());
+            }
+        } finally {
+            closed = true;
+            CompletableFuture<String> future;
+            while ((future = commands.poll()) != null) {
+                future.completeExceptionally(new EOFException("Connection closed"));
+            }
+        }
+    }
+
+    // 回调模式：逐条取出消息交给回调，回调返回后才算取走
+    private void dispatchLoop(Consumer<Message> callback) {
+        try {
+            while (!closed || !received.isEmpty()) {
+                Message message = received.poll(100, TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    continue;
+                }
+                try {
+                    callback.accept(message);
+                } catch (RuntimeException e) {
+                    System.out.println("Subscriber callback failed: " + e.getMessage());
+                }
+                consumed(1);
+            }
+        } catch (InterruptedException e) {
+            // 关闭
+        }
+    }
+
+    // 收到的一条消息
+    public static final class Message {
+        private final String topicId;
+        private final String topicName;
+        private final String timestamp;
+        private final byte[] payload;
+        private final long epochNanos; // Broker 使用 -envelope nanos 时才有，否则为 0
+
+        Message(String topicId, String topicName, String timestamp, byte[] payload, long epochNanos) {
+            this.topicId = topicId;
+            this.topicName = topicName;
+            this.timestamp = timestamp;
+            this.payload = payload;
+            this.epochNanos = epochNanos;
+        }
+
+        static Message from(BinaryProtocol.Frame frame) {
+            long nanos = 0;
+            if (frame.args.length > 4 && frame.args[4].length == 8) {
+                for (byte b : frame.args[4]) {
+                    nanos = (nanos << 8) | (b & 0xFF);
+                }
+            }
+            return new Message(frame.string(0), frame.string(1), frame.string(2), frame.args[3], nanos);
+        }
+
+        public String topicId() {
+            return topicId;
+        }
+
+        public String topicName() {
+            return topicName;
+        }
+
+        public String timestamp() {
+            return timestamp;
+        }
+
+        public byte[] payload() {
+            return payload;
+        }
+
+        public String payloadAsString() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+
+        public long epochNanos() {
+            return epochNanos;
+        }
+    }
+
+    public static final class Builder {
+        private final String host;
+        private final int port;
+        private final String username;
+        private int window = 1000;
+        private int connectTimeoutMillis = 5000;
+        private Consumer<Message> callback;
+
+        private Builder(String host, int port, String username) {
+            this.host = host;
+            this.port = port;
+            this.username = username;
+        }
+
+        // Broker 最多推送、本地最多缓存的未取走消息数
+        public Builder window(int messages) {
+            if (messages <= 0) {
+                throw new IllegalArgumentException("window must be positive");
+            }
+            this.window = messages;
+            return this;
+        }
+
+        // 回调模式，回调在内部的单个线程中逐条调用
+        public Builder onMessage(Consumer<Message> callback) {
+            this.callback = callback;
+            return this;
+        }
+
+        public Builder connectTimeout(int millis) {
+            this.connectTimeoutMillis = millis;
+            return this;
+        }
+
+        public SubscriberClient connect() throws IOException {
+            return new SubscriberClient(this);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.node;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+// 订阅者名称与整数 ID 的双向映射，所有主题共享
+// 每个名称只保存一份，主题内的订阅关系只记录 int ID；ID 一经分配不再回收
+final class SubscriberIds {
+    private static final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[1024];
+    private static int next;
+
+    private SubscriberIds() {
+    }
+
+    // 返回名称对应的 ID，第一次出现时分配
+    static int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (SubscriberIds.class) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            if (next == names.length) {
+                names = Arrays.copyOf(names, names.length * 2);
+            }
+            names[next] = name; // 先写入名称，再发布 ID
+            ids.put(name, next);
+            return next++;
+        }
+    }
+
+    // 名称从未出现过时返回 -1，不分配 ID
+    static int lookup(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    static String name(int id) {
+        return names[id];
+    }
+
+    static int size() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.node;
+
+// 本节点上的一个订阅：推送的目标连接和可选的内容过滤器
+// 同一连接对同一主题（或同一通配符）只有一个订阅，重新订阅时替换原来的过滤器
+final class Subscription {
+    final Connection connection;
+    final ContentFilter filter; // null 表示推送所有消息
+
+    Subscription(Connection connection, ContentFilter filter) {
+        this.connection = connection;
+        this.filter = filter;
+    }
+
+    // 订阅被移除时释放过滤器对共享表达式节点的引用
+    void release() {
+        if (filter != null) {
+            filter.release();
+        }
+    }
+
+    // 消息是否应推送给该订阅
+    boolean accepts(ContentFilter.Evaluation evaluation) {
+        return filter == null || filter.test(evaluation);
+    }
+}
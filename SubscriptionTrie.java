@@ -0,0 +1,209 @@
+package com.example.node;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// 通配符订阅的前缀树，主题 ID 按 '/' 分层，例如 orders/123/eu
+// "+" 匹配恰好一层，"#" 只能作为最后一层，匹配其余的零层或多层（orders/# 也匹配 orders 本身）
+// 发布时沿主题的各层向下查找，代价只与主题层数有关，与通配符订阅的数量无关
+//
+// 增删很少，在前缀树上加锁；查找很频繁，子节点使用 ConcurrentHashMap、每个节点的值使用 CopyOnWriteArraySet，不加锁
+final class SubscriptionTrie<T> {
+    static final char SEPARATOR = '/';
+    static final String SINGLE_LEVEL = "+";
+    static final String MULTI_LEVEL = "#";
+
+    private final Node<T> root = new Node<>();
+    private final ReentrantLock lock = new ReentrantLock(); // 只用于增删，调用方可能在虚拟线程中
+    private volatile int filterCount; // 至少有一个值的过滤器个数
+
+    private static final class Node<T> {
+        final Map<String, Node<T>> children = new ConcurrentHashMap<>();
+        final Set<T> values = new CopyOnWriteArraySet<>();
+    }
+
+    // 是否包含通配符
+    static boolean isWildcard(String filter) {
+        return filter.indexOf('+') >= 0 || filter.indexOf('#') >= 0;
+    }
+
+    // 通配符必须独占一层，"#" 只能出现在最后一层
+    static boolean isValidFilter(String filter) {
+        String[] levels = split(filter);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.equals(MULTI_LEVEL)) {
+                if (i != levels.length - 1) {
+                    return false;
+                }
+            } else if (!level.equals(SINGLE_LEVEL) && isWildcard(level)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 返回 true 表示该过滤器从没有值变为有值
+    boolean add(String filter, T value) {
+        lock.lock();
+        try {
+            Node<T> node = root;
+            for (String level : split(filter)) {
+                node = node.children.computeIfAbsent(level, k -> new Node<>());
+            }
+            boolean first = node.values.isEmpty();
+            if (node.values.add(value) && first) {
+                filterCount++;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 返回 true 表示该过滤器的最后一个值被移除；同时删除不再有用的节点
+    boolean remove(String filter, T value) {
+        return removeIf(filter, value::equals);
+    }
+
+    // 移除过滤器下满足条件的值，返回 true 表示该过滤器因此变空
+    boolean removeIf(String filter, Predicate<? super T> condition) {
+        lock.lock();
+        try {
+            String[] levels = split(filter);
+            List<Node<T>> path = new ArrayList<>(levels.length + 1);
+            Node<T> node = root;
+            path.add(node);
+            for (String level : levels) {
+                node = node.children.get(level);
+                if (node == null) {
+                    return false;
+                }
+                path.add(node);
+            }
+            if (!node.values.removeIf(condition) || !node.values.isEmpty()) {
+                return false;
+            }
+            filterCount--;
+            for (int i = levels.length; i > 0; i--) {
+                Node<T> current = path.get(i);
+                if (!current.values.isEmpty() || !current.children.isEmpty()) {
+                    break;
+                }
+                path.get(i - 1).children.remove(levels[i - 1]);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 从所有过滤器中移除满足条件的值（例如属于断开的连接），对每个因此变空的过滤器回调
+    void removeAll(Predicate<? super T> condition, Consumer<String> emptied) {
+        lock.lock();
+        try {
+            List<String> filters = new ArrayList<>();
+            collect(root, null, condition, filters);
+            for (String filter : filters) {
+                if (removeIf(filter, condition)) {
+                    emptied.accept(filter);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 把与主题匹配的所有过滤器的值交给 visitor，同一个值可能因匹配多个过滤器而出现多次
+    void match(String topicId, Consumer<? super T> visitor) {
+        if (filterCount == 0) {
+            return;
+        }
+        match(root, topicId, 0, visitor);
+    }
+
+    // 是否有过滤器与主题匹配，找到第一个有值的节点即返回，不必遍历其余分支
+    boolean matches(String topicId) {
+        return filterCount != 0 && matches(root, topicId, 0);
+    }
+
+    // 当前有值的所有过滤器
+    List<String> filters() {
+        lock.lock();
+        try {
+            List<String> filters = new ArrayList<>();
+            collect(root, null, null, filters);
+            return filters;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        return filterCount;
+    }
+
+    private static <T> void match(Node<T> node, String topicId, int start, Consumer<? super T> visitor) {
+        Node<T> multi = node.children.get(MULTI_LEVEL);
+        if (multi != null) {
+            multi.values.forEach(visitor);
+        }
+        if (start > topicId.length()) {
+            node.values.forEach(visitor);
+            return;
+        }
+        int end = topicId.indexOf(SEPARATOR, start);
+        if (end < 0) {
+            end = topicId.length();
+        }
+        Node<T> exact = node.children.get(topicId.substring(start, end));
+        if (exact != null) {
+            match(exact, topicId, end + 1, visitor);
+        }
+        Node<T> single = node.children.get(SINGLE_LEVEL);
+        if (single != null) {
+            match(single, topicId, end + 1, visitor);
+        }
+    }
+
+    private static <T> boolean matches(Node<T> node, String topicId, int start) {
+        Node<T> multi = node.children.get(MULTI_LEVEL);
+        if (multi != null && !multi.values.isEmpty()) {
+            return true;
+        }
+        if (start > topicId.length()) {
+            return !node.values.isEmpty();
+        }
+        int end = topicId.indexOf(SEPARATOR, start);
+        if (end < 0) {
+            end = topicId.length();
+        }
+        Node<T> exact = node.children.get(topicId.substring(start, end));
+        if (exact != null && matches(exact, topicId, end + 1)) {
+            return true;
+        }
+        Node<T> single = node.children.get(SINGLE_LEVEL);
+        return single != null && matches(single, topicId, end + 1);
+    }
+
+    // prefix 为 null 表示根节点；condition 为 null 时收集所有有值的过滤器，否则只收集有满足条件的值的过滤器
+    private static <T> void collect(Node<T> node, String prefix, Predicate<? super T> condition, List<String> filters) {
+        for (Map.Entry<String, Node<T>> entry : node.children.entrySet()) {
+            String filter = prefix == null ? entry.getKey() : prefix + SEPARATOR + entry.getKey();
+            Node<T> child = entry.getValue();
+            if (condition == null ? !child.values.isEmpty() : child.values.stream().anyMatch(condition)) {
+                filters.add(filter);
+            }
+            collect(child, filter, condition, filters);
+        }
+    }
+
+    private static String[] split(String filter) {
+        return filter.split(String.valueOf(SEPARATOR), -1);
+    }
+}
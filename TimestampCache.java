@@ -0,0 +1,53 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+
+// 秒级精度的时间戳缓存，所有线程共享
+// 每条消息都要带 "dd/MM HH:mm:ss" 格式的时间戳，而同一秒内的结果都相同；
+// 只在秒数变化时重新格式化一次，其余时候直接返回缓存的字节
+final class TimestampCache {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("dd/MM HH:mm:ss");
+
+    private static final class Entry {
+        final long second;
+        final byte[] bytes;
+
+        Entry(long second, byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ZoneId zone;
+    private volatile Entry current = new Entry(Long.MIN_VALUE, new byte[0]);
+
+    TimestampCache(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    TimestampCache() {
+        this(ZoneId.systemDefault());
+    }
+
+    // 当前时间，纳秒精度的 epoch 时间
+    static long epochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    // 返回给定时刻所在秒的格式化结果（ASCII），调用方不得修改返回的数组
+    // 多个线程同时跨秒时可能各自格式化一次，结果相同，无需加锁
+    byte[] format(long epochNanos) {
+        long second = Math.floorDiv(epochNanos, 1_000_000_000L);
+        Entry entry = current;
+        if (entry.second != second) {
+            String text = FORMAT.format(LocalDateTime.ofEpochSecond(second, 0, zone.getRules().getOffset(Instant.ofEpochSecond(second))));
+            entry = new Entry(second, text.getBytes(BinaryProtocol.CHARSET));
+            current = entry;
+        }
+        return entry.bytes;
+    }
+}
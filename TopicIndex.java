@@ -0,0 +1,57 @@
+package com.example.node;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// 倒排索引：发布者 / 订阅者名称 -> 相关的主题 ID
+// 由 TopicRegistry 在创建、删除、订阅、取消订阅主题的 compute 中维护（包括从其他 Broker 同步来的操作），
+// SHOW / CURRENT 查询只访问结果本身，不再扫描所有主题
+class TopicIndex {
+    // 内存占用估算（64 位 JVM、压缩指针）：键和主题 ID 与 Topic 共用同一个 String，不重复计算
+    private static final int BYTES_PER_KEY = 280;  // 外层节点 + 每个键的 KeySetView 与其内部 ConcurrentHashMap
+    private static final int BYTES_PER_ENTRY = 44; // 内层节点 + 桶数组中的引用
+
+    private final ConcurrentMap<String, Set<String>> index = new ConcurrentHashMap<>();
+    private final AtomicLong entries = new AtomicLong();
+
+    void add(String key, String topicId) {
+        index.compute(key, (k, topicIds) -> {
+            if (topicIds == null) {
+                topicIds = ConcurrentHashMap.newKeySet();
+            }
+            if (topicIds.add(topicId)) {
+                entries.incrementAndGet();
+            }
+            return topicIds;
+        });
+    }
+
+    // 移除后集合为空时连同键一起删除
+    void remove(String key, String topicId) {
+        index.computeIfPresent(key, (k, topicIds) -> {
+            if (topicIds.remove(topicId)) {
+                entries.decrementAndGet();
+            }
+            return topicIds.isEmpty() ? null : topicIds;
+        });
+    }
+
+    Set<String> get(String key) {
+        Set<String> topicIds = index.get(key);
+        return topicIds == null ? Collections.emptySet() : Collections.unmodifiableSet(topicIds);
+    }
+
+    int keyCount() {
+        return index.size();
+    }
+
+    long entryCount() {
+        return entries.get();
+    }
+
+    // 估算的内存占用（字节）
+    long footprintBytes() {
+        return (long) keyCount() * BYTES_PER_KEY + entryCount() * BYTES_PER_ENTRY;
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.node;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// 按主题分区的单写者发布（-partitions n）
+// 主题 ID 按哈希固定分配到 n 个分区之一，每个分区由一个线程独占：该分区所有主题的发布、存储、推送和向其他 Broker 的转发，
+// 以及主题的创建、删除、订阅和取消订阅（见 Broker.runOnOwner）都在这个线程中按入队顺序执行。
+// 因此同一主题只有一个写者，所有订阅者、日志和其他 Broker 看到的顺序一致（按到达 Broker 的顺序），发布时不再需要主题的发布锁，
+// 处理不同分区的线程之间没有共享的锁，发布吞吐量随分区数（CPU 核数）增长
+//
+// 读取命令的线程（连接线程或事件循环）只把 PUBLISH 拷贝进分区的收件箱就返回。收件箱是预分配的环形缓冲区，
+// 多个生产者用 CAS 领取槽位，消息内容拷贝进槽位自己复用的数组，入队不分配内存。
+// 收件箱写满时，连接线程等待，反压到 TCP 连接；事件循环不能等待（分区线程向其他 Broker 转发时可能正等着事件循环写出，
+// 等待会形成环），改为放进分区的溢出队列，并暂停该连接的读取，溢出的这一项处理完后再恢复，反压同样落到 TCP 连接上。
+// 溢出项记下入队时的 tail，分区线程在处理该位置的槽位之前先处理它，同一连接的命令仍按到达顺序执行
+final class TopicPartitions {
+    private static final int SPIN_TRIES = 64;
+    private static final int YIELD_TRIES = 16;
+    private static final int SLOT_PAYLOAD_SIZE = 1024; // 槽位数组的初始大小
+    private static final int MAX_SLOT_PAYLOAD_SIZE = 64 * 1024; // 处理完更大的消息后收回数组，避免每个槽位长期占用大块内存
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Partition[] partitions;
+
+    TopicPartitions(int count, int inboxCapacity) {
+        this.partitions = new Partition[count];
+        for (int i = 0; i < count; i++) {
+            partitions[i] = new Partition(inboxCapacity);
+            Thread thread = new Thread(partitions[i], "partition-" + i);
+            thread.setDaemon(true);
+            partitions[i].owner = thread;
+            thread.start();
+        }
+    }
+
+    // 把一条 PUBLISH 交给主题所属的分区，payload 被拷贝，调用返回后 buf 可以复用
+    // source 为 null 表示来自其他 Broker；cumulative 表示成功后由累计确认覆盖（见 PublishAcks）
+    // reader 是读到这条命令的连接，在事件循环中遇到收件箱已满时暂停它的读取
+    void submit(String topicId, byte[] buf, int offset, int length, String sequence, boolean cumulative, Connection source, Connection reader) {
+        partitions[partition(topicId)].offer(topicId, buf, offset, length, sequence, cumulative, source, null, reader);
+    }
+
+    // 在主题所属的分区线程中执行 task，排在之前入队的命令之后；reader 的含义同 submit，可以为 null
+    void execute(String topicId, Runnable task, Connection reader) {
+        partitions[partition(topicId)].offer(topicId, EMPTY, 0, 0, null, false, null, task, reader);
+    }
+
+    // 当前线程是否就是该主题所属的分区线程
+    boolean isOwner(String topicId) {
+        return Thread.currentThread() == partitions[partition(topicId)].owner;
+    }
+
+    int count() {
+        return partitions.length;
+    }
+
+    // 所有分区收件箱（包括溢出队列）中尚未处理的命令数
+    long backlog() {
+        long backlog = 0;
+        for (Partition partition : partitions) {
+            backlog += partition.backlog();
+        }
+        return backlog;
+    }
+
+    private int partition(String topicId) {
+        int hash = topicId.hashCode();
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, partitions.length);
+    }
+
+    // 收件箱中的一项，sequence 标记槽位的状态：等于 position 表示空闲，等于 position + 1 表示已写入、等待处理
+    // 溢出队列中的项复用同一个类，sequence 为入队时的 tail
+    // task 不为 null 时这一项是主题的修改命令，否则是一条 PUBLISH
+    private static final class Slot {
+        volatile long sequence;
+        String topicId;
+        byte[] payload;
+        int length;
+        String publishSequence;
+        boolean cumulative;
+        Connection source;
+        Runnable task;
+        Connection reader; // 只用于溢出项：处理完后恢复读取的连接
+
+        Slot(long sequence, byte[] payload) {
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+
+        void fill(String topicId, byte[] buf, int offset, int length, String sequence, boolean cumulative, Connection source, Runnable task) {
+            this.topicId = topicId;
+            if (payload.length < length) {
+                payload = new byte[length];
+            }
+            System.arraycopy(buf, offset, payload, 0, length);
+            this.length = length;
+            this.publishSequence = sequence;
+            this.cumulative = cumulative;
+            this.source = source;
+            this.task = task;
+        }
+
+        void clear() {
+            topicId = null;
+            publishSequence = null;
+            source = null;
+            task = null;
+            if (payload.length > MAX_SLOT_PAYLOAD_SIZE) {
+                payload = new byte[SLOT_PAYLOAD_SIZE];
+            }
+        }
+    }
+
+    // 一个分区：多生产者、单消费者的有界环形收件箱和独占它的线程
+    private static final class Partition implements Runnable {
+        private final Slot[] slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong(); // 下一个可领取的位置，生产者之间用 CAS 竞争
+        private final AtomicLong head = new AtomicLong(); // 下一个待处理的位置，只由分区线程推进
+        // 事件循环在收件箱已满时放入的项，按 sequence（入队时的 tail）排序，由 overflowLock 保护
+        private final ArrayDeque<Slot> overflow = new ArrayDeque<>();
+        private final ReentrantLock overflowLock = new ReentrantLock();
+        private volatile int overflowSize;
+        private volatile boolean parked;
+        private Thread owner;
+
+        Partition(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+            this.slots = new Slot[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Slot(i, new byte[SLOT_PAYLOAD_SIZE]);
+            }
+            this.mask = size - 1;
+        }
+
+        void offer(String topicId, byte[] buf, int offset, int length, String sequence, boolean cumulative,
+                   Connection source, Runnable task, Connection reader) {
+            boolean eventLoop = Reactor.isEventLoopThread();
+            Slot slot;
+            long position;
+            int idle = 0;
+            while (true) {
+                position = tail.get();
+                slot = slots[(int) position & mask];
+                long available = slot.sequence - position;
+                if (available == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        break;
+                    }
+                } else if (available < 0) {
+                    if (eventLoop) {
+                        overflow(topicId, buf, offset, length, sequence, cumulative, source, task, reader);
+                        return;
+                    }
+                    idle = backOff(idle); // 收件箱已满，等分区线程腾出槽位
+                }
+            }
+            slot.fill(topicId, buf, offset, length, sequence, cumulative, source, task);
+            slot.sequence = position + 1;
+            if (parked) {
+                LockSupport.unpark(owner);
+            }
+        }
+
+        // 先暂停读取再入队，保证恢复读取总在暂停之后
+        private void overflow(String topicId, byte[] buf, int offset, int length, String sequence, boolean cumulative,
+                              Connection source, Runnable task, Connection reader) {
+            if (reader != null) {
+                reader.suspendReads();
+            }
+            overflowLock.lock();
+            try {
+                Slot entry = new Slot(tail.get(), EMPTY);
+                entry.fill(topicId, buf, offset, length, sequence, cumulative, source, task);
+                entry.reader = reader;
+                overflow.add(entry);
+                overflowSize = overflow.size();
+            } finally {
+                overflowLock.unlock();
+            }
+            if (parked) {
+                LockSupport.unpark(owner);
+            }
+        }
+
+        long backlog() {
+            return tail.get() - head.get() + overflowSize;
+        }
+
+        @Override
+        public void run() {
+            long position = 0;
+            int idle = 0;
+            while (true) {
+                if (overflowSize > 0 && drainOverflow(position)) {
+                    idle = 0;
+                    continue;
+                }
+                Slot slot = slots[(int) position & mask];
+                if (slot.sequence != position + 1) {
+                    idle = await(slot, position, idle);
+                    continue;
+                }
+                idle = 0;
+                process(slot);
+                slot.clear();
+                slot.sequence = position + slots.length; // 槽位交还给生产者
+                position++;
+                head.lazySet(position);
+            }
+        }
+
+        // 处理在 position 处的槽位之前入队的溢出项，返回是否处理了至少一项
+        private boolean drainOverflow(long position) {
+            List<Slot> ready = new ArrayList<>();
+            overflowLock.lock();
+            try {
+                while (!overflow.isEmpty() && overflow.peekFirst().sequence <= position) {
+                    ready.add(overflow.pollFirst());
+                }
+                overflowSize = overflow.size();
+            } finally {
+                overflowLock.unlock();
+            }
+            for (Slot entry : ready) {
+                process(entry);
+                if (entry.reader != null) {
+                    entry.reader.resumeReads();
+                }
+            }
+            return !ready.isEmpty();
+        }
+
+        private boolean overflowReady(long position) {
+            if (overflowSize == 0) {
+                return false;
+            }
+            overflowLock.lock();
+            try {
+                return !overflow.isEmpty() && overflow.peekFirst().sequence <= position;
+            } finally {
+                overflowLock.unlock();
+            }
+        }
+
+        private static void process(Slot slot) {
+            try {
+                if (slot.task != null) {
+                    slot.task.run();
+                } else if (slot.source == null) {
+                    Broker.BrokerHandler.publishMessage(slot.topicId, slot.payload, 0, slot.length);
+                } else {
+                    Broker.ClientHandler.publishMessage(slot.topicId, slot.payload, 0, slot.length,
+                            slot.publishSequence, slot.cumulative, slot.source);
+                    Broker.broadcastPublish(slot.topicId, slot.payload, 0, slot.length);
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Partition command failed: " + e);
+            }
+        }
+
+        // 收件箱为空：先自旋，再让出 CPU，最后挂起直到生产者唤醒
+        private int await(Slot slot, long position, int idle) {
+            if (idle < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                parked = true;
+                // 置位之后再检查一次，避免与生产者的唤醒错过
+                if (slot.sequence != position + 1 && !overflowReady(position)) {
+                    LockSupport.park(this);
+                }
+                parked = false;
+            }
+            return idle + 1;
+        }
+
+        private static int backOff(int idle) {
+            if (idle < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (idle < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+            return idle + 1;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.node;
+
+import com.example.node.Broker.Topic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// 线程安全的主题注册表，所有处理线程共享
+// topics 使用 ConcurrentHashMap（按桶加锁），不同主题上的操作互不阻塞；
+// 每个主题的订阅（连接和可选的内容过滤器）读多写少，使用 CopyOnWriteArraySet，发布时无锁遍历，不会出现 ConcurrentModificationException。
+// 创建、删除、订阅、取消订阅都在 topics 对应 key 的 compute 中完成，对同一主题是原子的，
+// 发布者和订阅者的倒排索引也在同一个 compute 中更新。开启 -partitions 时，对单个主题的这些操作由主题所属的分区线程调用（见 Broker.runOnOwner）。
+// 本节点对某个主题的兴趣（是否有本地订阅连接）变化时，在同一个 compute 中通知 Broker，
+// 因此同一主题的兴趣变化按发生的顺序发给其他 Broker。通知只把变化放进 Broker 的发送队列，不在 compute 中写链路。
+// 带 + / # 的通配符订阅不对应某个主题，记录在前缀树中，在 wildcardLock 内通知兴趣变化
+class TopicRegistry {
+    private final ConcurrentMap<String, Topic> topics = new ConcurrentHashMap<>();
+    //记录各自节点下订阅了该主题的连接，用于通知
+    private final ConcurrentMap<String, Set<Subscription>> subscriberConnections = new ConcurrentHashMap<>();
+    private final TopicIndex publisherIndex = new TopicIndex();  // 发布者 -> 主题
+    private final TopicIndex subscriberIndex = new TopicIndex(); // 订阅者 -> 主题
+    private final SubscriptionTrie<Subscription> wildcardConnections = new SubscriptionTrie<>(); // 本节点连接的通配符订阅
+    private final ReentrantLock wildcardLock = new ReentrantLock(); // 通配符订阅的增删和兴趣通知，虚拟线程在锁内阻塞时不占住载体线程
+    private final TopicIndex wildcardIndex = new TopicIndex(); // 订阅者 -> 通配符过滤器，包括从其他 Broker 同步来的
+    // 创建和删除主题时打开 / 删除持久化日志要做磁盘 I/O，不能放在 topics 的 compute 中（会长时间占住桶锁）；
+    // 按主题 ID 分段加锁，同一主题的创建和删除互斥，日志文件不会被同时打开或在打开时被删除
+    private final ReentrantLock[] storageLocks = new ReentrantLock[64];
+
+    TopicRegistry() {
+        for (int i = 0; i < storageLocks.length; i++) {
+            storageLocks[i] = new ReentrantLock();
+        }
+    }
+
+    public Topic get(String topicId) {
+        return topics.get(topicId);
+    }
+
+    public Collection<Topic> topics() {
+        return topics.values();
+    }
+
+    public boolean isEmpty() {
+        return topics.isEmpty();
+    }
+
+    // 主题不存在时创建，返回 false 表示主题已存在
+    // 开启了 -log 时同时打开主题的持久化日志，已有的日志会被恢复，offset 接着之前的继续；
+    // 开启了 -retain 时分配保留最近消息的内存
+    public boolean createIfAbsent(String topicId, String topicName, String publisher) {
+        ReentrantLock lock = storageLock(topicId);
+        lock.lock();
+        try {
+            if (topics.containsKey(topicId)) {
+                return false;
+            }
+            Topic topic = new Topic(topicId, topicName, publisher);
+            topic.openStorage(Broker.config());
+            // 同一主题的创建已由 lock 互斥，这里一定插入成功
+            topics.computeIfAbsent(topicId, id -> {
+                if (publisher != null) {
+                    publisherIndex.add(publisher, id);
+                }
+                return topic;
+            });
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 删除主题及其订阅连接和持久化日志，返回被删除的主题，不存在时返回 null
+    public Topic delete(String topicId) {
+        ReentrantLock lock = storageLock(topicId);
+        lock.lock();
+        try {
+            Topic removed = remove(topicId);
+            if (removed != null) {
+                removed.deleteLog();
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Topic remove(String topicId) {
+        Topic[] removed = new Topic[1];
+        topics.computeIfPresent(topicId, (id, topic) -> {
+            removed[0] = topic;
+            if (topic.getPublisher() != null) {
+                publisherIndex.remove(topic.getPublisher(), id);
+            }
+            for (String subscriber : topic.getSubscribers()) {
+                subscriberIndex.remove(subscriber, id);
+            }
+            Set<Subscription> subscriptions = subscriberConnections.remove(id);
+            if (subscriptions != null && !subscriptions.isEmpty()) {
+                subscriptions.forEach(Subscription::release);
+                Broker.interestChanged(id, false);
+            }
+            return null;
+        });
+        return removed[0];
+    }
+
+    private ReentrantLock storageLock(String topicId) {
+        int hash = topicId.hashCode();
+        return storageLocks[(hash ^ (hash >>> 16)) & (storageLocks.length - 1)];
+    }
+
+    // 订阅主题，connection 为 null 表示来自其他 Broker 的同步（本地没有需要通知的连接）
+    // filter 为 null 表示推送所有消息；同一连接重复订阅时替换原来的过滤器
+    // filter 交给注册表管理：没有登记为订阅时（主题不存在、格式错误或没有本地连接）在这里释放
+    // 返回 false 表示主题不存在，或通配符过滤器格式错误
+    public boolean subscribe(String topicId, String subscriber, Connection connection, ContentFilter filter) {
+        if (SubscriptionTrie.isWildcard(topicId)) {
+            return subscribeWildcard(topicId, subscriber, connection, filter);
+        }
+        Subscription subscription = new Subscription(connection, filter);
+        boolean found = topics.computeIfPresent(topicId, (id, topic) -> {
+            topic.addSubscriber(subscriber);
+            subscriberIndex.add(subscriber, id);
+            if (connection != null) {
+                Set<Subscription> subscriptions = subscriberConnections.computeIfAbsent(id, k -> new CopyOnWriteArraySet<>());
+                boolean first = subscriptions.isEmpty();
+                removeSubscriptions(subscriptions, connection);
+                subscriptions.add(subscription);
+                if (first) {
+                    Broker.interestChanged(id, true);
+                }
+            }
+            return topic;
+        }) != null;
+        if (!found || connection == null) {
+            subscription.release();
+        }
+        return found;
+    }
+
+    // 取消订阅，返回 false 表示主题不存在
+    public boolean unsubscribe(String topicId, String subscriber, Connection connection) {
+        if (SubscriptionTrie.isWildcard(topicId)) {
+            return unsubscribeWildcard(topicId, subscriber, connection);
+        }
+        return topics.computeIfPresent(topicId, (id, topic) -> {
+            if (topic.removeSubscriber(subscriber)) {
+                subscriberIndex.remove(subscriber, id);
+            }
+            if (connection != null) {
+                removeConnection(id, connection);
+            }
+            return topic;
+        }) != null;
+    }
+
+    private boolean subscribeWildcard(String filter, String subscriber, Connection connection, ContentFilter contentFilter) {
+        Subscription subscription = new Subscription(connection, contentFilter);
+        if (!SubscriptionTrie.isValidFilter(filter)) {
+            subscription.release();
+            return false;
+        }
+        wildcardLock.lock();
+        try {
+            wildcardIndex.add(subscriber, filter);
+            if (connection != null) {
+                boolean emptied = wildcardConnections.removeIf(filter, releasing(connection));
+                if (wildcardConnections.add(filter, subscription) && !emptied) {
+                    Broker.interestChanged(filter, true);
+                }
+            } else {
+                subscription.release();
+            }
+        } finally {
+            wildcardLock.unlock();
+        }
+        return true;
+    }
+
+    private boolean unsubscribeWildcard(String filter, String subscriber, Connection connection) {
+        if (!SubscriptionTrie.isValidFilter(filter)) {
+            return false;
+        }
+        wildcardLock.lock();
+        try {
+            wildcardIndex.remove(subscriber, filter);
+            if (connection != null && wildcardConnections.removeIf(filter, releasing(connection))) {
+                Broker.interestChanged(filter, false);
+            }
+        } finally {
+            wildcardLock.unlock();
+        }
+        return true;
+    }
+
+    public boolean hasWildcards() {
+        return wildcardConnections.size() > 0;
+    }
+
+    // 把本节点上与主题匹配的通配符订阅交给 visitor，同一连接可能出现多次
+    public void matchWildcards(String topicId, Consumer<Subscription> visitor) {
+        wildcardConnections.match(topicId, visitor);
+    }
+
+    // 某个订阅者的通配符订阅
+    public Set<String> wildcardsBySubscriber(String subscriber) {
+        return wildcardIndex.get(subscriber);
+    }
+
+    // 某个发布者创建的主题，只访问结果本身
+    public List<Topic> topicsByPublisher(String publisher) {
+        List<Topic> result = new ArrayList<>();
+        for (String topicId : publisherIndex.get(publisher)) {
+            Topic topic = topics.get(topicId);
+            // 索引与 topics 之间可能有短暂的不一致（主题刚被删除或重建），以主题本身为准
+            if (topic != null && publisher.equals(topic.getPublisher())) {
+                result.add(topic);
+            }
+        }
+        return result;
+    }
+
+    // 某个订阅者订阅的主题，只访问结果本身
+    public List<Topic> topicsBySubscriber(String subscriber) {
+        List<Topic> result = new ArrayList<>();
+        for (String topicId : subscriberIndex.get(subscriber)) {
+            Topic topic = topics.get(topicId);
+            if (topic != null) {
+                result.add(topic);
+            }
+        }
+        return result;
+    }
+
+    public TopicIndex publisherIndex() {
+        return publisherIndex;
+    }
+
+    public TopicIndex subscriberIndex() {
+        return subscriberIndex;
+    }
+
+    // 获取主题在本节点上的订阅，用于发布时通知
+    public Set<Subscription> subscriptions(String topicId) {
+        Set<Subscription> subscriptions = subscriberConnections.get(topicId);
+        return subscriptions == null ? Collections.emptySet() : subscriptions;
+    }
+
+    // 本节点有订阅连接的主题和通配符过滤器，用于向新连接的 Broker 发送初始兴趣表
+    public List<String> localInterests() {
+        List<String> result = new ArrayList<>(wildcardConnections.filters());
+        for (Map.Entry<String, Set<Subscription>> entry : subscriberConnections.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    // 连接断开后，从所有主题的订阅连接中移除
+    public void removeConnection(Connection connection) {
+        for (Map.Entry<String, Set<Subscription>> entry : subscriberConnections.entrySet()) {
+            if (entry.getValue().stream().anyMatch(s -> s.connection == connection)) {
+                topics.computeIfPresent(entry.getKey(), (id, topic) -> {
+                    removeConnection(id, connection);
+                    return topic;
+                });
+            }
+        }
+        wildcardLock.lock();
+        try {
+            wildcardConnections.removeAll(releasing(connection), filter -> Broker.interestChanged(filter, false));
+        } finally {
+            wildcardLock.unlock();
+        }
+    }
+
+    // 在主题的 compute 中调用
+    private void removeConnection(String topicId, Connection connection) {
+        Set<Subscription> subscriptions = subscriberConnections.get(topicId);
+        if (subscriptions != null && removeSubscriptions(subscriptions, connection) && subscriptions.isEmpty()) {
+            Broker.interestChanged(topicId, false);
+        }
+    }
+
+    // 移除连接在该主题上的订阅并释放其过滤器，返回是否有订阅被移除
+    private static boolean removeSubscriptions(Set<Subscription> subscriptions, Connection connection) {
+        boolean removed = false;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.connection == connection && subscriptions.remove(subscription)) {
+                subscription.release();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    // 前缀树中匹配连接的订阅，匹配时释放其过滤器，随后在前缀树的同一把锁内被移除（重复释放无副作用）
+    private static Predicate<Subscription> releasing(Connection connection) {
+        return subscription -> {
+            if (subscription.connection != connection) {
+                return false;
+            }
+            subscription.release();
+            return true;
+        };
+    }
+}
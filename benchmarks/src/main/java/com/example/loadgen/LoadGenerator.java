@@ -0,0 +1,445 @@
+package com.example.loadgen;
+
+import com.example.publisher.PublisherClient;
+import com.example.subscriber.SubscriberClient;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// 端到端压测工具：在本机回环地址上启动 Broker 集群（每个 Broker 一个子进程），
+// 用 N 个发布者（PublisherClient）、M 个订阅者（SubscriberClient）按给定速率收发消息，
+// 统计端到端延迟的 p50 / p99 / p99.9 / max 和持续吞吐量，用于容量规划
+//
+// 发布者和订阅者都在本进程中，payload 的前 16 个字节是这条消息按速率计划的发送时间（System.nanoTime 的十六进制，
+// 不含换行和空格，可以经过文本协议的复制链路），
+// 订阅者收到后把 当前时间 - 计划发送时间 记入 HdrHistogram；
+// 使用计划时间而不是实际发送时间，发布者被背压阻塞时的排队延迟也会计入（避免 coordinated omission）
+//
+// 场景：
+//   single  1 个 Broker，每个发布者一个主题，订阅者轮流订阅这些主题
+//   mesh    3 个 Broker 互联，发布者和订阅者连接不同的 Broker，消息要经过复制链路
+//   hot     1 个 Broker，所有发布者发布到同一个主题，所有订阅者都订阅它
+//   cold    1 个 Broker，大量主题（-topics），每条消息随机发到其中一个主题，每个主题由一个订阅者订阅
+//
+// 用法: java -cp benchmarks/target/benchmarks.jar com.example.loadgen.LoadGenerator
+//          [-scenario single|mesh|hot|cold|all] [-publishers n] [-subscribers m] [-rate 总消息数/秒，0 表示不限速]
+//          [-duration 秒] [-warmup 秒] [-payload 字节] [-topics n] [-acks 累计确认间隔微秒，-1 表示逐条确认]
+//          [-port 起始端口] [-broker "Broker 的额外参数"]
+public class LoadGenerator {
+    private static final String[] ALL_SCENARIOS = {"single", "mesh", "hot", "cold"};
+    private static final String HOST = "127.0.0.1";
+    private static final int STAMP_LENGTH = 16;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    // 启动参数
+    static class Options {
+        List<String> scenarios = Arrays.asList(ALL_SCENARIOS);
+        int publishers = 4;
+        int subscribers = 4;
+        long rate = 100_000;
+        int durationSeconds = 10;
+        int warmupSeconds = 3;
+        int payloadBytes = 100;
+        int coldTopics = 10_000;
+        long ackMicros = -1;
+        int basePort = 19000;
+        String brokerArgs = "";
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-scenario":
+                        String scenario = args[++i].toLowerCase();
+                        options.scenarios = "all".equals(scenario) ? Arrays.asList(ALL_SCENARIOS) : Arrays.asList(scenario.split(","));
+                        break;
+                    case "-publishers":
+                        options.publishers = Integer.parseInt(args[++i]);
+                        break;
+                    case "-subscribers":
+                        options.subscribers = Integer.parseInt(args[++i]);
+                        break;
+                    case "-rate":
+                        options.rate = Long.parseLong(args[++i]);
+                        break;
+                    case "-duration":
+                        options.durationSeconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "-warmup":
+                        options.warmupSeconds = Integer.parseInt(args[++i]);
+                        break;
+                    case "-payload":
+                        options.payloadBytes = Math.max(STAMP_LENGTH, Integer.parseInt(args[++i]));
+                        break;
+                    case "-topics":
+                        options.coldTopics = Integer.parseInt(args[++i]);
+                        break;
+                    case "-acks":
+                        options.ackMicros = Long.parseLong(args[++i]);
+                        break;
+                    case "-port":
+                        options.basePort = Integer.parseInt(args[++i]);
+                        break;
+                    case "-broker":
+                        options.brokerArgs = args[++i].trim();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            for (String scenario : options.scenarios) {
+                if (!Arrays.asList(ALL_SCENARIOS).contains(scenario)) {
+                    throw new IllegalArgumentException("Unknown scenario: " + scenario);
+                }
+            }
+            if (options.publishers < 1 || options.subscribers < 1) {
+                throw new IllegalArgumentException("-publishers and -subscribers must be at least 1");
+            }
+            return options;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        System.out.printf("publishers=%d subscribers=%d rate=%s payload=%dB warmup=%ds duration=%ds%n",
+                options.publishers, options.subscribers, options.rate == 0 ? "unlimited" : options.rate + "/s",
+                options.payloadBytes, options.warmupSeconds, options.durationSeconds);
+        List<Result> results = new ArrayList<>();
+        int port = options.basePort;
+        for (String scenario : options.scenarios) {
+            Result result = new Scenario(scenario, options, port).run();
+            result.print(System.out);
+            results.add(result);
+            port += 10;
+        }
+        System.out.println();
+        Result.printHeader(System.out);
+        for (Result result : results) {
+            result.printRow(System.out);
+        }
+    }
+
+    // 一个场景的一次运行：启动集群、建立主题和订阅、压测、汇总结果、关闭集群
+    static class Scenario {
+        private final String name;
+        private final Options options;
+        private final int basePort;
+        private final List<Process> brokers = new ArrayList<>();
+        private final List<PublisherClient> publisherClients = new ArrayList<>();
+        private final List<SubscriberClient> subscriberClients = new ArrayList<>();
+        private final Recorder latencies = new Recorder(3);
+        private final LongAdder published = new LongAdder();
+        private final LongAdder expected = new LongAdder(); // 按各主题的订阅者数量，应当推送的消息数
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private volatile boolean running = true;
+
+        private int brokerCount;
+        private String[] topics;
+        private int[] fanOut; // 每个主题的订阅者数量
+
+        Scenario(String name, Options options, int basePort) {
+            this.name = name;
+            this.options = options;
+            this.basePort = basePort;
+        }
+
+        Result run() throws Exception {
+            try {
+                brokerCount = "mesh".equals(name) ? 3 : 1;
+                startBrokers();
+                createTopics();
+                subscribe();
+                return measure();
+            } finally {
+                shutdown();
+            }
+        }
+
+        // 每个 Broker 一个子进程，使用与本进程相同的 JVM 和 classpath；第 i 个 Broker 连接前面的所有 Broker，组成全互联
+        private void startBrokers() throws IOException, InterruptedException {
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            for (int i = 0; i < brokerCount; i++) {
+                List<String> command = new ArrayList<>(Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+                        "com.example.node.Broker", String.valueOf(basePort + i)));
+                if (!options.brokerArgs.isEmpty()) {
+                    command.addAll(Arrays.asList(options.brokerArgs.split("\\s+")));
+                }
+                if (i > 0) {
+                    command.add("-b");
+                    for (int j = 0; j < i; j++) {
+                        command.add(HOST + ":" + (basePort + j));
+                    }
+                }
+                Process process = new ProcessBuilder(command)
+                        .redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .start();
+                brokers.add(process);
+                awaitPort(basePort + i, process);
+            }
+            if (brokerCount > 1) {
+                Thread.sleep(500); // 等待复制链路建立
+            }
+        }
+
+        private static void awaitPort(int port, Process process) throws IOException, InterruptedException {
+            for (int attempt = 0; attempt < 200; attempt++) {
+                if (!process.isAlive()) {
+                    throw new IOException("Broker exited with code " + process.exitValue() + " on port " + port);
+                }
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(HOST, port), 100);
+                    return;
+                } catch (IOException e) {
+                    Thread.sleep(50);
+                }
+            }
+            throw new IOException("Broker did not start on port " + port);
+        }
+
+        private int brokerPort(int index) {
+            return basePort + index % brokerCount;
+        }
+
+        // 主题都在第一个 Broker 上创建，由复制链路同步到其他 Broker
+        private void createTopics() throws Exception {
+            int count;
+            switch (name) {
+                case "hot":
+                    count = 1;
+                    break;
+                case "cold":
+                    count = options.coldTopics;
+                    break;
+                default:
+                    count = options.publishers;
+            }
+            topics = new String[count];
+            fanOut = new int[count];
+            try (PublisherClient admin = PublisherClient.builder(HOST, brokerPort(0)).connect()) {
+                List<CompletableFuture<String>> creates = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    topics[i] = "load/" + name + "/" + i;
+                    creates.add(admin.createTopic(topics[i], "load-" + i, "loadgen"));
+                }
+                for (CompletableFuture<String> create : creates) {
+                    create.get(30, TimeUnit.SECONDS);
+                }
+            }
+            if (brokerCount > 1) {
+                Thread.sleep(500); // 等待 CREATE 复制到其他 Broker
+            }
+        }
+
+        // 订阅者 j 连接第 j+1 个 Broker（mesh 场景下与发布者错开）；
+        // hot 场景订阅唯一的主题，cold 场景按 j, j+M, j+2M ... 分摊所有主题，其余场景订阅第 j % 主题数 个主题
+        private void subscribe() throws Exception {
+            int subscribers = options.subscribers;
+            for (int j = 0; j < subscribers; j++) {
+                SubscriberClient client = SubscriberClient.builder(HOST, brokerPort(j + 1), "loadsub" + j)
+                        .onMessage(this::onMessage)
+                        .connect();
+                subscriberClients.add(client);
+                List<CompletableFuture<String>> requests = new ArrayList<>();
+                if ("cold".equals(name)) {
+                    for (int t = j; t < topics.length; t += subscribers) {
+                        requests.add(client.subscribe(topics[t]));
+                        fanOut[t]++;
+                    }
+                } else {
+                    int t = j % topics.length;
+                    requests.add(client.subscribe(topics[t]));
+                    fanOut[t]++;
+                }
+                for (CompletableFuture<String> request : requests) {
+                    request.get(30, TimeUnit.SECONDS);
+                }
+            }
+            if (brokerCount > 1) {
+                Thread.sleep(500); // 等待订阅兴趣传播到其他 Broker
+            }
+        }
+
+        private void onMessage(SubscriberClient.Message message) {
+            byte[] payload = message.payload();
+            long sent = 0;
+            for (int i = 0; i < STAMP_LENGTH; i++) {
+                sent = (sent << 4) | Character.digit(payload[i], 16);
+            }
+            latencies.recordValue(Math.max(0, System.nanoTime() - sent));
+            delivered.increment();
+        }
+
+        // 预热后清空直方图再开始计量；结束后再等待一会儿，让在途的消息到达，用于统计丢失的消息
+        private Result measure() throws Exception {
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < options.publishers; i++) {
+                PublisherClient.Builder builder = PublisherClient.builder(HOST, brokerPort(i));
+                if (options.ackMicros >= 0) {
+                    builder.cumulativeAcks(options.ackMicros);
+                }
+                PublisherClient client = builder.connect();
+                publisherClients.add(client);
+                int index = i;
+                Thread thread = new Thread(() -> publishLoop(client, index), "loadgen-publisher-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(options.warmupSeconds));
+            latencies.getIntervalHistogram(); // 丢弃预热阶段的数据
+            long publishedBefore = published.sum();
+            long deliveredBefore = delivered.sum();
+            long start = System.nanoTime();
+            Thread.sleep(TimeUnit.SECONDS.toMillis(options.durationSeconds));
+            Histogram histogram = latencies.getIntervalHistogram();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long publishedDuring = published.sum() - publishedBefore;
+            long deliveredDuring = delivered.sum() - deliveredBefore;
+
+            running = false;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (PublisherClient client : publisherClients) {
+                client.flush();
+            }
+            awaitDrain();
+            return new Result(name, brokerCount, publishedDuring / seconds, deliveredDuring / seconds,
+                    histogram, expected.sum(), delivered.sum(), errors.sum());
+        }
+
+        // 按计划时间发送：第 k 条消息计划在 start + k * interval 发出，落后时立即补发，不跳过
+        private void publishLoop(PublisherClient client, int index) {
+            byte[] payload = new byte[options.payloadBytes];
+            Arrays.fill(payload, STAMP_LENGTH, payload.length, (byte) 'x');
+            long interval = options.rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) * options.publishers / options.rate;
+            long next = System.nanoTime();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (running) {
+                long now = System.nanoTime();
+                if (interval == 0) {
+                    next = now;
+                } else if (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+                int topic = "cold".equals(name) ? random.nextInt(topics.length) : index % topics.length;
+                for (int i = 0; i < STAMP_LENGTH; i++) {
+                    payload[i] = HEX[(int) (next >>> (60 - 4 * i)) & 0xF];
+                }
+                client.publish(topics[topic], payload).whenComplete((offset, error) -> {
+                    if (error != null) {
+                        errors.increment();
+                    }
+                });
+                published.increment();
+                expected.add(fanOut[topic]);
+                next += interval;
+            }
+        }
+
+        // 等到推送的消息数不再增长（最多 5 秒）
+        private void awaitDrain() throws InterruptedException {
+            long last = -1;
+            for (int i = 0; i < 50 && delivered.sum() != last; i++) {
+                last = delivered.sum();
+                if (last >= expected.sum()) {
+                    return;
+                }
+                Thread.sleep(100);
+            }
+        }
+
+        private void shutdown() {
+            for (PublisherClient client : publisherClients) {
+                closeQuietly(client);
+            }
+            for (SubscriberClient client : subscriberClients) {
+                closeQuietly(client);
+            }
+            for (Process broker : brokers) {
+                broker.destroy();
+            }
+            for (Process broker : brokers) {
+                try {
+                    if (!broker.waitFor(5, TimeUnit.SECONDS)) {
+                        broker.destroyForcibly();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private static void closeQuietly(AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    // 一个场景的结果，延迟以微秒为单位
+    static class Result {
+        final String scenario;
+        final int brokers;
+        final double publishRate;
+        final double deliveryRate;
+        final Histogram histogram;
+        final long expected;
+        final long delivered;
+        final long errors;
+
+        Result(String scenario, int brokers, double publishRate, double deliveryRate,
+               Histogram histogram, long expected, long delivered, long errors) {
+            this.scenario = scenario;
+            this.brokers = brokers;
+            this.publishRate = publishRate;
+            this.deliveryRate = deliveryRate;
+            this.histogram = histogram;
+            this.expected = expected;
+            this.delivered = delivered;
+            this.errors = errors;
+        }
+
+        private double micros(double percentile) {
+            return histogram.getValueAtPercentile(percentile) / 1000.0;
+        }
+
+        // 没有送达的消息比例（例如慢订阅者的发送队列溢出被丢弃）
+        private double lossPercent() {
+            return expected == 0 ? 0 : Math.max(0, expected - delivered) * 100.0 / expected;
+        }
+
+        void print(PrintStream out) {
+            out.printf("%n== %s (%d broker%s)%n", scenario, brokers, brokers > 1 ? "s" : "");
+            out.printf("throughput: published %.0f msg/s, delivered %.0f msg/s%n", publishRate, deliveryRate);
+            out.printf("latency us: p50 %.1f  p99 %.1f  p99.9 %.1f  max %.1f  (%d samples)%n",
+                    micros(50), micros(99), micros(99.9), histogram.getMaxValue() / 1000.0, histogram.getTotalCount());
+            out.printf("delivered %d of %d expected (%.3f%% lost), %d publish errors%n", delivered, expected, lossPercent(), errors);
+        }
+
+        static void printHeader(PrintStream out) {
+            out.printf("%-8s %7s %12s %12s %10s %10s %10s %10s %8s%n",
+                    "scenario", "brokers", "publish/s", "deliver/s", "p50(us)", "p99(us)", "p99.9(us)", "max(us)", "lost%");
+        }
+
+        void printRow(PrintStream out) {
+            out.printf("%-8s %7d %12.0f %12.0f %10.1f %10.1f %10.1f %10.1f %8.3f%n",
+                    scenario, brokers, publishRate, deliveryRate, micros(50), micros(99), micros(99.9),
+                    histogram.getMaxValue() / 1000.0, lossPercent());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// 客户端命令的解析与处理：CommandParser 原地解析文本行 / 二进制帧，
+// 以及 ClientHandler.handleClientCommand 处理一条 PUBLISH 的完整路径（解析结果 -> 发布 -> 响应，主题没有订阅者）
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CommandParsingBenchmark {
+    private static final String TOPIC = "orders/eu";
+    private static final String PAYLOAD = "{\"id\":12345,\"type\":\"order\",\"price\":42.5,\"quantity\":3,\"currency\":\"USD\"}";
+
+    private final CommandParser parser = new CommandParser();
+    private byte[] textPublish;
+    private byte[] binaryPublish;
+    private byte[] textSubscribe;
+    private NullConnection textClient;
+    private NullConnection binaryClient;
+
+    @Setup
+    public void setup() throws Exception {
+        textPublish = ("PUBLISH " + TOPIC + " " + PAYLOAD).getBytes(StandardCharsets.UTF_8);
+        binaryPublish = BinaryProtocol.encode(BinaryProtocol.PUBLISH, TOPIC, PAYLOAD, "1");
+        textSubscribe = ("SUBSCRIBE " + TOPIC + " bob WHERE price > 10 AND currency = 'USD'").getBytes(StandardCharsets.UTF_8);
+        textClient = new NullConnection(false);
+        binaryClient = new NullConnection(true);
+        parser.parseLine(("CREATE " + TOPIC + " orders bench").getBytes(StandardCharsets.UTF_8), 0, ("CREATE " + TOPIC + " orders bench").length());
+        Broker.ClientHandler.handleClientCommand(parser, textClient);
+    }
+
+    @Benchmark
+    public int parseTextPublish() {
+        parser.parseLine(textPublish, 0, textPublish.length);
+        return parser.topicId().length() + parser.argLength(1);
+    }
+
+    @Benchmark
+    public int parseBinaryPublish() throws Exception {
+        parser.parseFrame(binaryPublish, 4, binaryPublish.length);
+        return parser.topicId().length() + parser.argLength(1);
+    }
+
+    // 非热点命令转换为 String[] 处理，衡量这部分的分配
+    @Benchmark
+    public String[] parseSubscribeToParts() {
+        parser.parseLine(textSubscribe, 0, textSubscribe.length);
+        return parser.toParts();
+    }
+
+    @Benchmark
+    public long handleTextPublish() {
+        parser.parseLine(textPublish, 0, textPublish.length);
+        Broker.ClientHandler.handleClientCommand(parser, textClient);
+        return textClient.messages;
+    }
+
+    // 带序号的 PUBLISH，响应为带序号的 RESPONSE 帧
+    @Benchmark
+    public long handleBinaryPublish() throws Exception {
+        parser.parseFrame(binaryPublish, 4, binaryPublish.length);
+        Broker.ClientHandler.handleClientCommand(parser, binaryClient);
+        return binaryClient.messages;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.node;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// publish 中为订阅者组装消息信封：文本行和 MESSAGE 帧，两种信封格式、不同的 payload 大小
+// 缓冲区来自 SharedBuffer 的池，组装后立即释放，正常情况下每次操作不应有分配
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EnvelopeBenchmark {
+    @Param({"default", "nanos"})
+    public String envelope;
+
+    @Param({"64", "1024"})
+    public int payloadSize;
+
+    private EnvelopeFormat format;
+    private Broker.Topic topic;
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        format = EnvelopeFormat.parse(envelope);
+        topic = new Broker.Topic("orders/eu", "orders", "bench");
+        payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) 'x');
+    }
+
+    @Benchmark
+    public int text() {
+        SharedBuffer buffer = format.text(topic, TimestampCache.epochNanos(), payload, 0, payload.length);
+        int length = buffer.length();
+        buffer.release();
+        return length;
+    }
+
+    @Benchmark
+    public int binary() {
+        SharedBuffer buffer = format.binary(topic, TimestampCache.epochNanos(), payload, 0, payload.length);
+        int length = buffer.length();
+        buffer.release();
+        return length;
+    }
+}
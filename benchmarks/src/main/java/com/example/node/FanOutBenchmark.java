@@ -0,0 +1,51 @@
+package com.example.node;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// 一条消息推送给 1 / 100 / 10k 个进程内订阅者（Broker.publish 的 fan-out 部分）
+// 每种协议只编码一次，订阅者的发送队列共享同一块数据，分配应当与订阅者数量无关
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FanOutBenchmark {
+    private static final String TOPIC = "bench/fanout";
+
+    @Param({"1", "100", "10000"})
+    public int subscribers;
+
+    @Param({"text", "binary"})
+    public String protocol;
+
+    private Broker.Topic topic;
+    private byte[] payload;
+
+    @Setup
+    public void setup() {
+        CommandParser parser = new CommandParser();
+        NullConnection admin = new NullConnection(false);
+        run(parser, admin, "CREATE " + TOPIC + " fanout bench");
+        boolean binary = "binary".equals(protocol);
+        for (int i = 0; i < subscribers; i++) {
+            run(parser, new NullConnection(binary), "SUBSCRIBE " + TOPIC + " sub" + i);
+        }
+        topic = Broker.ClientHandler.getTopicsByPublisher("bench").get(0);
+        payload = "{\"id\":12345,\"type\":\"order\",\"price\":42.5,\"quantity\":3}".getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void run(CommandParser parser, Connection connection, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        parser.parseLine(bytes, 0, bytes.length);
+        Broker.ClientHandler.handleClientCommand(parser, connection);
+    }
+
+    @Benchmark
+    public long publish() {
+        return Broker.publish(topic, payload, 0, payload.length);
+    }
+}
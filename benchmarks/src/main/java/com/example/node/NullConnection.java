@@ -0,0 +1,45 @@
+package com.example.node;
+
+// 进程内的连接，收到的数据只计数后立即释放，用来测量 Broker 自身的开销，不包含网络和写线程
+final class NullConnection implements Connection {
+    private final boolean binary;
+    private volatile boolean closed;
+    long messages;
+    long bytes;
+
+    NullConnection(boolean binary) {
+        this.binary = binary;
+    }
+
+    @Override
+    public void sendBuffer(SharedBuffer buffer) {
+        messages++;
+        bytes += buffer.length();
+        buffer.release();
+    }
+
+    @Override
+    public boolean isBinary() {
+        return binary;
+    }
+
+    @Override
+    public int queueDepth() {
+        return 0;
+    }
+
+    @Override
+    public long droppedMessages() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
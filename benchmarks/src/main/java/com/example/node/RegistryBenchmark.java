@@ -0,0 +1,78 @@
+package com.example.node;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// TopicRegistry 的查询：按 ID 取主题、取主题的订阅连接，以及 getTopicsBySubscriber / getTopicsByPublisher 用到的倒排索引
+// 每个订阅者订阅 topics / 1000 个主题，每个发布者发布 topics / 100 个主题
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RegistryBenchmark {
+    private static final int SUBSCRIBERS = 1000;
+    private static final int PUBLISHERS = 100;
+
+    @Param({"1000", "100000"})
+    public int topics;
+
+    private TopicRegistry registry;
+    private String[] topicIds;
+    private String[] subscriberNames;
+    private String[] publisherNames;
+    private int next;
+
+    @Setup
+    public void setup() {
+        registry = new TopicRegistry();
+        topicIds = new String[topics];
+        subscriberNames = new String[SUBSCRIBERS];
+        publisherNames = new String[PUBLISHERS];
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            subscriberNames[i] = "sub" + i;
+        }
+        for (int i = 0; i < PUBLISHERS; i++) {
+            publisherNames[i] = "pub" + i;
+        }
+        NullConnection connection = new NullConnection(false);
+        for (int i = 0; i < topics; i++) {
+            topicIds[i] = "topic/" + i;
+            registry.createIfAbsent(topicIds[i], "name" + i, publisherNames[i % PUBLISHERS]);
+            registry.subscribe(topicIds[i], subscriberNames[i % SUBSCRIBERS], connection, null);
+        }
+    }
+
+    // 依次轮换查询的键，避免总是命中同一个缓存行
+    private int next(int bound) {
+        int index = next++;
+        if (next == Integer.MAX_VALUE) {
+            next = 0;
+        }
+        return index % bound;
+    }
+
+    @Benchmark
+    public Broker.Topic get() {
+        return registry.get(topicIds[next(topics)]);
+    }
+
+    @Benchmark
+    public Set<Subscription> subscriptions() {
+        return registry.subscriptions(topicIds[next(topics)]);
+    }
+
+    @Benchmark
+    public List<Broker.Topic> topicsBySubscriber() {
+        return registry.topicsBySubscriber(subscriberNames[next(SUBSCRIBERS)]);
+    }
+
+    @Benchmark
+    public List<Broker.Topic> topicsByPublisher() {
+        return registry.topicsByPublisher(publisherNames[next(PUBLISHERS)]);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    @Test
+    void neverReportsFalseNegatives() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("topic-" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("topic-" + i));
+        }
+    }
+
+    @Test
+    void falsePositiveRateIsNearTarget() {
+        BloomFilter filter = BloomFilter.create(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("topic-" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("other-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "false positives: " + falsePositives);
+    }
+
+    @Test
+    void emptyFilterContainsNothing() {
+        BloomFilter filter = BloomFilter.create(0, 0.01);
+        assertFalse(filter.mightContain("t1"));
+        assertTrue(filter.hashes() >= 1);
+    }
+
+    @Test
+    void encodeDecodeRoundTrip() {
+        BloomFilter filter = BloomFilter.create(1_000, 0.01);
+        for (int i = 0; i < 1_000; i++) {
+            filter.add("topic-" + i);
+        }
+        String encoded = filter.encodeBits();
+        assertEquals(filter.encodedLength(), encoded.length());
+        assertFalse(encoded.contains(" "));
+
+        BloomFilter decoded = BloomFilter.decode(filter.hashes(), encoded);
+        assertEquals(encoded, decoded.encodeBits());
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(decoded.mightContain("topic-" + i));
+        }
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(filter.mightContain("other-" + i), decoded.mightContain("other-" + i));
+        }
+    }
+
+    @Test
+    void rejectsInvalidEncoding() {
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.decode(3, ""));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.decode(0, BloomFilter.create(10, 0.01).encodeBits()));
+        assertThrows(IllegalArgumentException.class, () -> BloomFilter.decode(3, "not base64!"));
+    }
+}
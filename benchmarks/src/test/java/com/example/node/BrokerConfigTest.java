@@ -0,0 +1,30 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BrokerConfigTest {
+
+    @Test
+    void parsesSizesInTheirUnits() {
+        BrokerConfig config = BrokerConfig.parse(new String[]{"9000",
+                "-log-segment-mb", "1024", "-retain-kb", "2048", "-peer-batch-kb", "16", "-log-retention-mb", "4097"});
+        assertEquals(1024 * 1024 * 1024, config.logSegmentBytes);
+        assertEquals(2 * 1024 * 1024, config.retainBytes);
+        assertEquals(16 * 1024, config.peerBatchBytes);
+        assertEquals(4097L * 1024 * 1024, config.logRetentionBytes);
+    }
+
+    // 换算成字节会超出 int 的值被拒绝，而不是溢出成一个看起来合法的值
+    @Test
+    void rejectsSizesThatOverflow() {
+        // 4097 MiB 溢出后恰好是 1 MiB
+        assertThrows(IllegalArgumentException.class, () -> BrokerConfig.parse(new String[]{"9000", "-log-segment-mb", "4097"}));
+        assertThrows(IllegalArgumentException.class, () -> BrokerConfig.parse(new String[]{"9000", "-log-segment-mb", "2048"}));
+        assertThrows(IllegalArgumentException.class, () -> BrokerConfig.parse(new String[]{"9000", "-log-segment-mb", "0"}));
+        assertThrows(IllegalArgumentException.class, () -> BrokerConfig.parse(new String[]{"9000", "-retain-kb", "4194305"}));
+        assertThrows(IllegalArgumentException.class, () -> BrokerConfig.parse(new String[]{"9000", "-peer-batch-kb", "4194304"}));
+        assertThrows(IllegalArgumentException.class, () -> BrokerConfig.parse(new String[]{"9000", "-peer-batch-kb", "-1"}));
+    }
+}
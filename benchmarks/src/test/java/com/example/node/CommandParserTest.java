@@ -0,0 +1,135 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandParserTest {
+
+    private static CommandParser parseLine(String line) {
+        byte[] buf = line.getBytes(StandardCharsets.UTF_8);
+        CommandParser parser = new CommandParser();
+        parser.parseLine(buf, 0, buf.length);
+        return parser;
+    }
+
+    @Test
+    void textPublishKeepsPayloadVerbatim() {
+        CommandParser parser = parseLine("PUBLISH t1 hello  world x");
+        assertEquals(BinaryProtocol.PUBLISH, parser.command());
+        assertEquals(2, parser.argCount());
+        assertEquals("t1", parser.topicId());
+        assertEquals("hello  world x", parser.arg(1));
+    }
+
+    // 与 split(" ") 一致：中间的空参数保留，末尾的去掉
+    @Test
+    void textCommandSplitsLikeStringSplit() {
+        String line = "SUBSCRIBE t1  bob  ";
+        CommandParser parser = parseLine(line);
+        assertEquals(BinaryProtocol.SUBSCRIBE, parser.command());
+        assertArrayEquals(line.split(" "), parser.toParts());
+    }
+
+    // 文本命令和二进制帧都按 UTF-8 解码，与运行机器的默认编码无关
+    @Test
+    void textAndFramesDecodeAsUtf8() throws IOException {
+        CommandParser parser = parseLine("CREATE 主题 新闻 张三");
+        assertArrayEquals(new String[]{"CREATE", "主题", "新闻", "张三"}, parser.toParts());
+        assertEquals("主题", parser.topicId());
+
+        byte[] frame = BinaryProtocol.encode(BinaryProtocol.CREATE, "主题", "新闻", "张三");
+        parser.parseFrame(frame, 4, frame.length);
+        assertArrayEquals(new String[]{"CREATE", "主题", "新闻", "张三"}, parser.toParts());
+        assertArrayEquals(("主题" + Connection.LINE_SEPARATOR).getBytes(StandardCharsets.UTF_8), Connection.encodeLine("主题"));
+    }
+
+    @Test
+    void unknownCommand() {
+        CommandParser parser = parseLine("FOO bar");
+        assertEquals(-1, parser.command());
+        assertEquals("UNKNOWN", parser.toParts()[0]);
+    }
+
+    @Test
+    void commandWithoutArguments() {
+        CommandParser parser = parseLine("DISPLAY");
+        assertEquals(BinaryProtocol.DISPLAY, parser.command());
+        assertEquals(0, parser.argCount());
+    }
+
+    @Test
+    void topicIdIsReusedForSameTopic() {
+        CommandParser parser = new CommandParser();
+        byte[] first = "PUBLISH t1 a".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "PUBLISH t1 b".getBytes(StandardCharsets.UTF_8);
+        byte[] third = "PUBLISH t2 c".getBytes(StandardCharsets.UTF_8);
+        parser.parseLine(first, 0, first.length);
+        String topicId = parser.topicId();
+        parser.parseLine(second, 0, second.length);
+        assertSame(topicId, parser.topicId());
+        parser.parseLine(third, 0, third.length);
+        assertEquals("t2", parser.topicId());
+    }
+
+    @Test
+    void parsesBinaryFrame() throws IOException {
+        byte[] frame = BinaryProtocol.encode(BinaryProtocol.PUBLISH, "t1", "line 1\nline 2", "42");
+        CommandParser parser = new CommandParser();
+        parser.parseFrame(frame, 4, frame.length);
+        assertEquals(BinaryProtocol.PUBLISH, parser.command());
+        assertEquals(3, parser.argCount());
+        assertEquals("t1", parser.topicId());
+        assertEquals("line 1\nline 2", parser.arg(1));
+        assertEquals("42", parser.arg(2));
+    }
+
+    @Test
+    void rejectsTruncatedFrame() {
+        byte[] frame = BinaryProtocol.encode(BinaryProtocol.CREATE, "t1", "news", "alice");
+        CommandParser parser = new CommandParser();
+        assertThrows(IOException.class, () -> parser.parseFrame(frame, 4, frame.length - 1));
+        assertThrows(IOException.class, () -> parser.parseFrame(frame, 4, 5));
+    }
+
+    @Test
+    void readerSplitsLinesAndStripsCarriageReturn() throws IOException {
+        byte[] input = "CREATE t1 news alice\r\nPUBLISH t1 hi\nDISPLAY\n".getBytes(StandardCharsets.UTF_8);
+        CommandReader reader = new CommandReader(new ByteArrayInputStream(input), false);
+        CommandParser parser = new CommandParser();
+
+        assertTrue(reader.next(parser));
+        assertArrayEquals(new String[]{"CREATE", "t1", "news", "alice"}, parser.toParts());
+        assertTrue(reader.next(parser));
+        assertEquals("hi", parser.arg(1));
+        assertTrue(reader.next(parser));
+        assertEquals(BinaryProtocol.DISPLAY, parser.command());
+        assertFalse(reader.next(parser));
+    }
+
+    @Test
+    void readerReadsFramesLargerThanItsBuffer() throws IOException {
+        byte[] payload = new byte[100_000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) ('a' + i % 26);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(BinaryProtocol.encode(BinaryProtocol.PUBLISH, payload, 0, payload.length, BinaryProtocol.bytes("t1")));
+        out.write(BinaryProtocol.encode(BinaryProtocol.DELETE, "t1"));
+        CommandReader reader = new CommandReader(new ByteArrayInputStream(out.toByteArray()), true);
+        CommandParser parser = new CommandParser();
+
+        assertTrue(reader.next(parser));
+        assertEquals(BinaryProtocol.PUBLISH, parser.command());
+        assertEquals(payload.length, parser.argLength(1));
+        assertTrue(reader.next(parser));
+        assertEquals(BinaryProtocol.DELETE, parser.command());
+        assertFalse(reader.next(parser));
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommitLogTest {
+
+    @TempDir
+    Path dir;
+
+    private BrokerConfig config(int segmentBytes) {
+        BrokerConfig config = new BrokerConfig();
+        config.logDir = dir.toString();
+        config.logSegmentBytes = segmentBytes;
+        return config;
+    }
+
+    private static long append(CommitLog log, String message) throws IOException {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        return log.append(System.nanoTime(), payload, 0, payload.length);
+    }
+
+    private static List<String> readAll(CommitLog log, long from) {
+        List<String> messages = new ArrayList<>();
+        log.read(from, Long.MAX_VALUE, (offset, timestamp, payload, payloadOffset, length) ->
+                messages.add(offset + ":" + new String(payload, payloadOffset, length, StandardCharsets.UTF_8)));
+        return messages;
+    }
+
+    private long segmentFiles(String topicDir) throws IOException {
+        try (Stream<Path> files = Files.list(dir.resolve(topicDir))) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void appendAssignsOffsetsAndReadsBack() throws IOException {
+        try (CommitLog log = CommitLog.open("t1", config(4096))) {
+            assertEquals(0, append(log, "a"));
+            assertEquals(1, append(log, "bb"));
+            assertEquals(2, append(log, "新闻"));
+            assertEquals(0, log.startOffset());
+            assertEquals(3, log.endOffset());
+            assertEquals(List.of("0:a", "1:bb", "2:新闻"), readAll(log, 0));
+            assertEquals(List.of("1:bb", "2:新闻"), readAll(log, 1));
+        }
+    }
+
+    @Test
+    void readStopsAtUpperBound() throws IOException {
+        try (CommitLog log = CommitLog.open("t1", config(4096))) {
+            for (int i = 0; i < 5; i++) {
+                append(log, "m" + i);
+            }
+            List<String> messages = new ArrayList<>();
+            long next = log.read(1, 3, (offset, timestamp, payload, payloadOffset, length) -> messages.add("" + offset));
+            assertEquals(List.of("1", "2"), messages);
+            assertEquals(3, next);
+        }
+    }
+
+    // 记录头 12 字节 + 88 字节 payload，每个 1024 字节的分段放得下 10 条
+    @Test
+    void rollsSegmentsWhenFull() throws IOException {
+        try (CommitLog log = CommitLog.open("t1", config(1024))) {
+            for (int i = 0; i < 25; i++) {
+                append(log, String.format("%088d", i));
+            }
+            assertEquals(3, segmentFiles("t1"));
+            List<String> messages = readAll(log, 0);
+            assertEquals(25, messages.size());
+            assertEquals("24:" + String.format("%088d", 24), messages.get(24));
+        }
+    }
+
+    @Test
+    void recoversOffsetsAfterReopen() throws IOException {
+        BrokerConfig config = config(1024);
+        try (CommitLog log = CommitLog.open("t1", config)) {
+            for (int i = 0; i < 15; i++) {
+                append(log, String.format("%088d", i));
+            }
+        }
+        try (CommitLog log = CommitLog.open("t1", config)) {
+            assertEquals(15, log.endOffset());
+            assertEquals(15, append(log, "after"));
+            List<String> messages = readAll(log, 14);
+            assertEquals(List.of("14:" + String.format("%088d", 14), "15:after"), messages);
+        }
+    }
+
+    @Test
+    void retentionBySizeKeepsActiveSegment() throws IOException {
+        BrokerConfig config = config(1024);
+        config.logRetentionBytes = 1500;
+        try (CommitLog log = CommitLog.open("t1", config)) {
+            for (int i = 0; i < 35; i++) {
+                append(log, String.format("%088d", i));
+            }
+            log.applyRetention(System.nanoTime());
+            assertTrue(log.size() <= 1500);
+            assertEquals(20, log.startOffset());
+            assertEquals(2, segmentFiles("t1"));
+            // 早于最早保留的 offset 时从最早的开始读
+            assertEquals("20:" + String.format("%088d", 20), readAll(log, 0).get(0));
+        }
+    }
+
+    @Test
+    void retentionByAge() throws IOException {
+        BrokerConfig config = config(1024);
+        config.logRetentionMillis = 1000;
+        try (CommitLog log = CommitLog.open("t1", config)) {
+            // 分段按最后一条消息的时间判断是否过期
+            byte[] payload = new byte[88];
+            for (int i = 0; i < 21; i++) {
+                log.append(i < 10 ? 0 : i < 20 ? 1_500_000_000L : 3_000_000_000L, payload, 0, payload.length);
+            }
+            log.applyRetention(2_000_000_000L);
+            assertEquals(10, log.startOffset());
+            log.applyRetention(3_000_000_000L);
+            assertEquals(20, log.startOffset());
+            assertEquals(21, log.endOffset());
+        }
+    }
+
+    @Test
+    void escapesTopicIdInDirectoryName() throws IOException {
+        try (CommitLog log = CommitLog.open("a/b c", config(4096))) {
+            append(log, "x");
+        }
+        assertTrue(Files.isDirectory(dir.resolve("a%2Fb%20c")));
+    }
+
+    @Test
+    void deleteRemovesFiles() throws IOException {
+        CommitLog log = CommitLog.open("t1", config(1024));
+        for (int i = 0; i < 15; i++) {
+            append(log, String.format("%088d", i));
+        }
+        log.delete();
+        assertFalse(Files.exists(dir.resolve("t1")));
+        assertThrows(IOException.class, () -> append(log, "late"));
+    }
+}
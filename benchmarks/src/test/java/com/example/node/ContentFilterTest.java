@@ -0,0 +1,126 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentFilterTest {
+
+    private static boolean matches(String filter, String message) {
+        ContentFilter compiled = ContentFilter.compile(filter);
+        try {
+            byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+            return compiled.test(ContentFilter.evaluate(payload, 0, payload.length));
+        } finally {
+            compiled.release();
+        }
+    }
+
+    @Test
+    void comparesNumbersAndStrings() {
+        String message = "price=150 region=EU";
+        assertTrue(matches("price > 100", message));
+        assertTrue(matches("price >= 150", message));
+        assertFalse(matches("price < 150", message));
+        assertTrue(matches("price <= 150.0", message));
+        assertTrue(matches("price = 1.5e2", message));
+        assertTrue(matches("price != 100", message));
+        assertTrue(matches("price <> 100", message));
+        assertTrue(matches("region = 'EU'", message));
+        assertTrue(matches("region == \"EU\"", message));
+        assertFalse(matches("region = 'US'", message));
+    }
+
+    @Test
+    void missingOrNonNumericFieldIsFalse() {
+        assertFalse(matches("price > 0", "region=EU"));
+        assertFalse(matches("price != 0", "region=EU"));
+        assertFalse(matches("region > 0", "region=EU"));
+    }
+
+    @Test
+    void parsesKeyValueSeparators() {
+        String message = "a=1, b='x';c=\"z\"&d=4";
+        assertTrue(matches("a = 1 AND b = 'x' AND c = 'z' AND d = 4", message));
+    }
+
+    @Test
+    void parsesJsonFields() {
+        String message = "{\"price\": 99.5, \"ok\": true, \"tags\": [1, {\"x\": 2}], \"geo\": {\"region\": \"EU\"}, \"note\": null}";
+        assertTrue(matches("price < 100", message));
+        assertTrue(matches("ok = TRUE", message));
+        assertTrue(matches("geo.region = 'EU'", message));
+        assertFalse(matches("note = 'null'", message));
+        assertFalse(matches("x = 2", message));
+    }
+
+    // 不完整的 JSON 使用已经解析出的字段
+    @Test
+    void truncatedJsonKeepsParsedFields() {
+        assertTrue(matches("a = 1", "{\"a\": 1, \"b\": "));
+        assertFalse(matches("b = 2", "{\"a\": 1, \"b\": "));
+    }
+
+    @Test
+    void combinesWithAndOrNot() {
+        String message = "price=150 region=EU";
+        assertTrue(matches("price > 100 AND region = 'EU'", message));
+        assertFalse(matches("price > 200 AND region = 'EU'", message));
+        assertTrue(matches("price > 200 OR region = 'EU'", message));
+        assertTrue(matches("NOT price > 200", message));
+        assertTrue(matches("not (price > 200 or region = 'US') and region = 'EU'", message));
+        // AND 的优先级高于 OR
+        assertTrue(matches("region = 'EU' OR price > 200 AND region = 'US'", message));
+        assertFalse(matches("(region = 'EU' OR price > 200) AND region = 'US'", message));
+    }
+
+    @Test
+    void rejectsSyntaxErrors() {
+        for (String source : new String[]{"", "price >", "price 100", "> 100", "(price > 1", "price > 1 AND",
+                "region = 'EU", "price > abc", "price > 1 extra"}) {
+            assertThrows(IllegalArgumentException.class, () -> ContentFilter.compile(source), source);
+        }
+    }
+
+    @Test
+    void quotesInsideStrings() {
+        assertTrue(matches("name = 'O''Brien'", "name=O'Brien"));
+    }
+
+    @Test
+    void sharesAndReleasesNodes() {
+        int baseline = ContentFilter.sharedNodeCount();
+        ContentFilter first = ContentFilter.compile("price > 100 AND region = 'EU'");
+        assertEquals(baseline + 3, ContentFilter.sharedNodeCount());
+        // 规范化后相同的子表达式共用节点
+        ContentFilter second = ContentFilter.compile("price>100.0 and region='EU'");
+        ContentFilter third = ContentFilter.compile("region = 'EU' OR NOT price > 100");
+        assertEquals(baseline + 5, ContentFilter.sharedNodeCount());
+
+        first.release();
+        first.release(); // 重复释放不影响其他过滤器
+        assertEquals(baseline + 5, ContentFilter.sharedNodeCount());
+        second.release();
+        assertEquals(baseline + 4, ContentFilter.sharedNodeCount());
+        third.release();
+        assertEquals(baseline, ContentFilter.sharedNodeCount());
+    }
+
+    // 编号回收给新节点后，同一条消息的求值结果不会混用
+    @Test
+    void recycledIdsAreEvaluatedAgain() {
+        byte[] payload = "price=150".getBytes(StandardCharsets.UTF_8);
+        ContentFilter.Evaluation evaluation = ContentFilter.evaluate(payload, 0, payload.length);
+        ContentFilter old = ContentFilter.compile("price > 100");
+        assertTrue(old.test(evaluation));
+        old.release();
+        ContentFilter recycled = ContentFilter.compile("price > 200");
+        try {
+            assertFalse(recycled.test(evaluation));
+        } finally {
+            recycled.release();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CreditGateTest {
+
+    private static BrokerConfig config(int queueCapacity, OutboundQueue.OverflowPolicy policy) {
+        BrokerConfig config = new BrokerConfig();
+        config.queueCapacity = queueCapacity;
+        config.overflowPolicy = policy;
+        return config;
+    }
+
+    private static SharedBuffer buffer(String text) {
+        return SharedBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> received(RecordingConnection connection) {
+        List<String> messages = new ArrayList<>();
+        for (byte[] data : connection.received()) {
+            messages.add(new String(data, StandardCharsets.UTF_8));
+        }
+        return messages;
+    }
+
+    @Test
+    void holdsMessagesUntilCreditIsGranted() {
+        RecordingConnection connection = new RecordingConnection(false);
+        CreditGate gate = new CreditGate(connection, config(16, OutboundQueue.OverflowPolicy.DROP_OLDEST));
+        assertTrue(gate.offer(buffer("a")));
+        assertTrue(gate.offer(buffer("b")));
+        assertEquals(List.of(), received(connection));
+        assertEquals(2, gate.heldCount());
+
+        gate.grant(1);
+        assertEquals(List.of("a"), received(connection));
+        gate.grant(3);
+        assertEquals(List.of("a", "b"), received(connection));
+        assertEquals(2, gate.credits());
+
+        // 有额度且没有暂存的消息时直接发出
+        gate.offer(buffer("c"));
+        assertEquals(List.of("a", "b", "c"), received(connection));
+        assertEquals(1, gate.credits());
+    }
+
+    @Test
+    void overflowPolicyAppliesToHeldMessages() {
+        RecordingConnection connection = new RecordingConnection(false);
+        CreditGate dropping = new CreditGate(connection, config(2, OutboundQueue.OverflowPolicy.DROP_OLDEST));
+        for (String message : new String[]{"a", "b", "c"}) {
+            assertTrue(dropping.offer(buffer(message)));
+        }
+        assertEquals(1, dropping.dropped());
+        dropping.grant(10);
+        assertEquals(List.of("b", "c"), received(connection));
+
+        CreditGate disconnecting = new CreditGate(connection, config(1, OutboundQueue.OverflowPolicy.DISCONNECT));
+        assertTrue(disconnecting.offer(buffer("x")));
+        assertFalse(disconnecting.offer(buffer("y")));
+    }
+
+    @Test
+    void clearReleasesHeldMessages() {
+        CreditGate gate = new CreditGate(new RecordingConnection(false), config(4, OutboundQueue.OverflowPolicy.DROP_OLDEST));
+        SharedBuffer held = buffer("a");
+        gate.offer(held);
+        gate.clear();
+        assertEquals(0, gate.heldCount());
+        assertThrows(IllegalStateException.class, held::retain);
+    }
+
+    // 推送和授予额度并发进行：所有消息按顺序发出，发出的条数不超过授予的额度
+    @Test
+    void concurrentOffersAndGrantsKeepOrder() throws InterruptedException {
+        int count = 50_000;
+        RecordingConnection connection = new RecordingConnection(false);
+        CreditGate gate = new CreditGate(connection, config(count, OutboundQueue.OverflowPolicy.DROP_OLDEST));
+        Thread publisher = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                gate.offer(buffer(String.valueOf(i)));
+            }
+        });
+        Thread subscriber = new Thread(() -> {
+            for (int i = 0; i < count / 10; i++) {
+                gate.grant(10);
+                Thread.yield();
+            }
+        });
+        publisher.start();
+        subscriber.start();
+        publisher.join();
+        subscriber.join();
+
+        List<String> messages = received(connection);
+        assertEquals(count, messages.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(String.valueOf(i), messages.get(i));
+        }
+        assertEquals(0, gate.credits());
+        assertEquals(0, gate.heldCount());
+    }
+}
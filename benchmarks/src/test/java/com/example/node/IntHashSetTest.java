@@ -0,0 +1,71 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntHashSetTest {
+
+    @Test
+    void addRemoveContains() {
+        IntHashSet set = new IntHashSet();
+        assertTrue(set.add(0));
+        assertTrue(set.add(42));
+        assertFalse(set.add(42));
+        assertEquals(2, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(42));
+        assertFalse(set.contains(1));
+
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(1, set.size());
+        assertArrayEquals(new int[]{42}, set.toArray());
+    }
+
+    @Test
+    void growsAndShrinks() {
+        IntHashSet set = new IntHashSet();
+        long initial = set.footprintBytes();
+        for (int i = 0; i < 10_000; i++) {
+            set.add(i);
+        }
+        assertEquals(10_000, set.size());
+        assertTrue(set.footprintBytes() >= 4L * 2 * 10_000);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(set.remove(i));
+        }
+        assertEquals(0, set.size());
+        assertEquals(initial, set.footprintBytes());
+    }
+
+    // 增删交替不会让集合退化，保持与 HashSet 一致
+    @Test
+    void matchesHashSetUnderRandomOperations() {
+        Random random = new Random(1);
+        IntHashSet set = new IntHashSet();
+        Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < 200_000; i++) {
+            int value = random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value));
+            } else {
+                assertEquals(expected.add(value), set.add(value));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (int value = 0; value < 2_000; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+        int[] values = set.toArray();
+        Arrays.sort(values);
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).sorted().toArray(), values);
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogram() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.count());
+        assertEquals(0, snapshot.max());
+        assertEquals(0, snapshot.percentile(99));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 8; i++) {
+            histogram.record(i);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(8, snapshot.count());
+        assertEquals(0, snapshot.percentile(0));
+        assertEquals(3, snapshot.percentile(50));
+        assertEquals(7, snapshot.percentile(100));
+    }
+
+    // 估计值是桶的上界：不小于真实值，相对误差不超过 12.5%
+    @Test
+    void bucketErrorIsBounded() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10_000; i++) {
+            long value = random.nextLong() >>> (1 + random.nextInt(63));
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+            long estimate = histogram.snapshot().percentile(50);
+            assertTrue(estimate >= value, value + " -> " + estimate);
+            assertTrue(estimate - value <= value / 8, value + " -> " + estimate);
+        }
+    }
+
+    @Test
+    void percentilesOfUniformSamples() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10_000, snapshot.count());
+        assertEquals(10_000_000, snapshot.max());
+        assertEquals(5_000_000, snapshot.percentile(50), 5_000_000 / 8.0);
+        assertEquals(9_900_000, snapshot.percentile(99), 9_900_000 / 8.0);
+        // 不超过记录到的最大值
+        assertEquals(10_000_000, snapshot.percentile(100));
+    }
+
+    @Test
+    void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.count());
+        assertEquals(0, snapshot.percentile(100));
+    }
+
+    @Test
+    void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            long value = (t + 1) * 100L;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(value);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(800_000, snapshot.count());
+        assertEquals(800, snapshot.max());
+    }
+}
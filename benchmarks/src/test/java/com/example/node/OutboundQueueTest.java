@@ -0,0 +1,92 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+
+    private static SharedBuffer buffer(String text) {
+        return SharedBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String text(SharedBuffer data) {
+        return new String(data.array(), 0, data.length(), StandardCharsets.UTF_8);
+    }
+
+    // 引用已经全部释放的缓冲区不能再 retain
+    private static void assertReleased(SharedBuffer data) {
+        assertThrows(IllegalStateException.class, data::retain);
+    }
+
+    @Test
+    void dropOldestKeepsNewestMessages() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        SharedBuffer first = buffer("a");
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(buffer("bb")));
+        assertTrue(queue.offer(buffer("ccc")));
+
+        assertEquals(2, queue.size());
+        assertEquals(5, queue.bytes());
+        assertEquals(1, queue.dropped());
+        assertReleased(first);
+        assertEquals("bb", text(queue.poll()));
+        assertEquals("ccc", text(queue.poll()));
+        assertNull(queue.poll());
+        assertEquals(0, queue.bytes());
+    }
+
+    @Test
+    void dropNewestKeepsQueuedMessages() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        assertTrue(queue.offer(buffer("a")));
+        assertTrue(queue.offer(buffer("bb")));
+        SharedBuffer rejected = buffer("ccc");
+        assertTrue(queue.offer(rejected));
+
+        assertEquals(1, queue.dropped());
+        assertEquals(3, queue.bytes());
+        assertReleased(rejected);
+        assertEquals("a", text(queue.poll()));
+        assertEquals("bb", text(queue.poll()));
+    }
+
+    // 断开策略不计入丢弃数，由调用方关闭连接
+    @Test
+    void disconnectRejectsWhenFull() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.OverflowPolicy.DISCONNECT);
+        assertTrue(queue.offer(buffer("a")));
+        SharedBuffer rejected = buffer("b");
+        assertFalse(queue.offer(rejected));
+
+        assertEquals(0, queue.dropped());
+        assertEquals(1, queue.size());
+        assertReleased(rejected);
+    }
+
+    @Test
+    void clearReleasesQueuedMessages() {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        SharedBuffer first = buffer("a");
+        SharedBuffer second = buffer("b");
+        queue.offer(first);
+        queue.offer(second);
+        queue.clear();
+
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.bytes());
+        assertReleased(first);
+        assertReleased(second);
+    }
+
+    @Test
+    void parsesPolicyNames() {
+        assertEquals(OutboundQueue.OverflowPolicy.DROP_OLDEST, OutboundQueue.OverflowPolicy.parse("drop-oldest"));
+        assertEquals(OutboundQueue.OverflowPolicy.DROP_NEWEST, OutboundQueue.OverflowPolicy.parse("Drop_Newest"));
+        assertEquals(OutboundQueue.OverflowPolicy.DISCONNECT, OutboundQueue.OverflowPolicy.parse("disconnect"));
+        assertThrows(IllegalArgumentException.class, () -> OutboundQueue.OverflowPolicy.parse("block"));
+    }
+}
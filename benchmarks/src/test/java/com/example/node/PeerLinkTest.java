@@ -0,0 +1,150 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeerLinkTest {
+
+    private static BrokerConfig config(int queueCapacity) {
+        BrokerConfig config = new BrokerConfig();
+        config.peerQueueCapacity = queueCapacity;
+        config.peerBatchBytes = 64 * 1024;
+        config.peerLingerMicros = 1000;
+        config.peerBlockMillis = 0;
+        return config;
+    }
+
+    private static SharedBuffer line(String text) {
+        return SharedBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String joined(List<byte[]> received) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        received.forEach(out::writeBytes);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            Thread.sleep(1);
+        }
+    }
+
+    // 底层发送队列达到上限时发送线程挂起，模拟写不出去的对端
+    private static void stall(RecordingConnection connection) {
+        connection.queueDepth = Broker.config().queueCapacity;
+    }
+
+    private static void resume(RecordingConnection connection) {
+        connection.queueDepth = 0;
+        connection.drainListener.run();
+    }
+
+    @Test
+    void idleCommandGoesOutAlone() throws InterruptedException {
+        RecordingConnection connection = new RecordingConnection(false);
+        PeerLink link = new PeerLink(connection, config(16), false);
+        try {
+            link.sendBuffer(line("CREATE t1 news alice\n"));
+            await(() -> connection.received().size() == 1);
+            assertEquals("CREATE t1 news alice\n", joined(connection.received()));
+            assertEquals(1, link.sentBatches());
+            assertEquals(0, link.pendingBytes());
+        } finally {
+            link.close();
+        }
+        assertTrue(connection.isClosed());
+    }
+
+    // 积压的命令合并成一块数据发出，顺序不变
+    @Test
+    void backlogIsMergedIntoOneBatch() throws InterruptedException {
+        RecordingConnection connection = new RecordingConnection(false);
+        PeerLink link = new PeerLink(connection, config(16), false);
+        try {
+            stall(connection);
+            link.sendPublish(line("PUBLISH t1 0\n"));
+            // 第一条已经被发送线程取走，停在等待底层空间上
+            await(() -> link.queueDepth() == connection.queueDepth);
+            StringBuilder expected = new StringBuilder("PUBLISH t1 0\n");
+            for (int i = 1; i <= 10; i++) {
+                link.sendPublish(line("PUBLISH t1 " + i + "\n"));
+                expected.append("PUBLISH t1 ").append(i).append('\n');
+            }
+            assertEquals(10 + connection.queueDepth, link.queueDepth());
+
+            resume(connection);
+            await(() -> link.sentMessages() == 11);
+            List<byte[]> received = connection.received();
+            assertEquals(2, received.size());
+            assertEquals(expected.toString(), joined(received));
+            assertEquals(2, link.sentBatches());
+        } finally {
+            link.close();
+        }
+    }
+
+    // 管道满时丢弃 PUBLISH，控制命令照常入队，之后按入队顺序发出
+    @Test
+    void fullPipelineDropsOnlyPublish() throws InterruptedException {
+        RecordingConnection connection = new RecordingConnection(false);
+        PeerLink link = new PeerLink(connection, config(4), false);
+        try {
+            stall(connection);
+            link.sendPublish(line("p0 "));
+            await(() -> link.queueDepth() == connection.queueDepth);
+            for (int i = 1; i <= 4; i++) {
+                link.sendPublish(line("p" + i + " "));
+            }
+            link.sendPublish(line("dropped "));
+            link.sendBuffer(line("SUBSCRIBE "));
+            link.sendBuffer(line("INTEREST "));
+            link.sendPublish(line("dropped "));
+            assertEquals(2, link.droppedMessages());
+            assertEquals(6 + connection.queueDepth, link.queueDepth());
+
+            resume(connection);
+            await(() -> link.sentMessages() == 7);
+            assertEquals("p0 p1 p2 p3 p4 SUBSCRIBE INTEREST ", joined(connection.received()));
+
+            // 控制命令借用的名额随发送归还，管道清空后 PUBLISH 又能入队
+            stall(connection);
+            link.sendPublish(line("q0 "));
+            await(() -> link.queueDepth() == connection.queueDepth);
+            for (int i = 1; i <= 4; i++) {
+                link.sendPublish(line("q" + i + " "));
+            }
+            assertEquals(2, link.droppedMessages());
+            resume(connection);
+            await(() -> link.sentMessages() == 12);
+            assertTrue(joined(connection.received()).endsWith("q0 q1 q2 q3 q4 "));
+        } finally {
+            link.close();
+        }
+    }
+
+    @Test
+    void closeReleasesQueuedCommands() throws InterruptedException {
+        RecordingConnection connection = new RecordingConnection(false);
+        PeerLink link = new PeerLink(connection, config(4), false);
+        stall(connection);
+        link.sendPublish(line("p0"));
+        await(() -> link.queueDepth() == connection.queueDepth);
+        SharedBuffer queued = line("p1");
+        link.sendPublish(queued.retain());
+        link.close();
+        assertEquals(1, queued.refCount());
+        // 关闭后的命令直接释放
+        SharedBuffer late = line("late");
+        link.sendBuffer(late.retain());
+        assertEquals(1, late.refCount());
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.node;
+
+import com.example.protocol.BinaryProtocol;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PublishAcksTest {
+
+    private static List<Long> acked(RecordingConnection connection) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        for (byte[] data : connection.received()) {
+            BinaryProtocol.Frame frame = BinaryProtocol.decode(ByteBuffer.wrap(data));
+            assertEquals(BinaryProtocol.ACKED, frame.opcode);
+            sequences.add(Long.parseLong(frame.string(0)));
+        }
+        return sequences;
+    }
+
+    private static void awaitAcked(RecordingConnection connection, long sequence) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!acked(connection).contains(sequence)) {
+            assertTrue(System.currentTimeMillis() < deadline, "ACKED " + sequence + " not sent");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void acknowledgesOnlyContiguousPrefix() throws IOException {
+        RecordingConnection connection = new RecordingConnection(true);
+        PublishAcks acks = new PublishAcks(connection, 1_000_000, 1);
+        for (int i = 1; i <= 4; i++) {
+            acks.expect(String.valueOf(i));
+        }
+        acks.acknowledge("3");
+        acks.acknowledge("2");
+        assertEquals(List.of(), acked(connection));
+        acks.acknowledge("1");
+        assertEquals(List.of(1L, 2L, 3L), acked(connection));
+        acks.acknowledge("4");
+        assertEquals(List.of(1L, 2L, 3L, 4L), acked(connection));
+    }
+
+    // 达到 maxPending 之前按间隔合并为一个 ACKED
+    @Test
+    void mergesAcknowledgementsWithinInterval() throws IOException, InterruptedException {
+        RecordingConnection connection = new RecordingConnection(true);
+        PublishAcks acks = new PublishAcks(connection, 20_000, 1_000);
+        for (int i = 1; i <= 5; i++) {
+            acks.expect(String.valueOf(i));
+            acks.acknowledge(String.valueOf(i));
+        }
+        awaitAcked(connection, 5);
+        assertEquals(List.of(5L), acked(connection));
+    }
+
+    // 在多个分区线程上乱序完成：ACKED 单调递增，从不越过尚未完成的请求，最后确认到最后一个序号
+    @Test
+    void concurrentCompletionsNeverSkipAhead() throws Exception {
+        int count = 20_000;
+        boolean[] completed = new boolean[count + 1];
+        List<String> violations = Collections.synchronizedList(new ArrayList<>());
+        RecordingConnection connection = new RecordingConnection(true);
+        // 发出 ACKED n 时，n 及之前的请求必须都已完成
+        Connection checking = new Connection() {
+            @Override
+            public void sendBuffer(SharedBuffer buffer) {
+                try {
+                    int acked = Integer.parseInt(BinaryProtocol.decode(buffer.asByteBuffer()).string(0));
+                    synchronized (completed) {
+                        for (int i = 1; i <= acked; i++) {
+                            if (!completed[i]) {
+                                violations.add(acked + " before " + i);
+                                break;
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    violations.add(e.getMessage());
+                }
+                connection.sendBuffer(buffer);
+            }
+
+            @Override
+            public boolean isBinary() {
+                return true;
+            }
+
+            @Override
+            public int queueDepth() {
+                return 0;
+            }
+
+            @Override
+            public long droppedMessages() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean isClosed() {
+                return false;
+            }
+        };
+        PublishAcks acks = new PublishAcks(checking, 0, 64);
+        List<String> sequences = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            acks.expect(String.valueOf(i));
+            sequences.add(String.valueOf(i));
+        }
+        List<List<String>> shards = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            shards.add(new ArrayList<>());
+        }
+        for (String sequence : sequences) {
+            shards.get(Integer.parseInt(sequence) % shards.size()).add(sequence);
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (List<String> shard : shards) {
+            Collections.shuffle(shard.subList(0, shard.size() / 2));
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (String sequence : shard) {
+                    synchronized (completed) {
+                        completed[Integer.parseInt(sequence)] = true;
+                    }
+                    acks.acknowledge(sequence);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        awaitAcked(connection, count);
+
+        long previous = 0;
+        for (long sequence : acked(connection)) {
+            assertTrue(sequence > previous);
+            previous = sequence;
+        }
+        assertEquals(List.of(), violations);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.node;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReactorTest {
+    private Reactor.EventLoop loop;
+    private ServerSocketChannel server;
+
+    @BeforeEach
+    void start() throws IOException {
+        loop = new Reactor.EventLoop();
+        Thread thread = new Thread(loop, "test-event-loop");
+        thread.setDaemon(true);
+        thread.start();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+    }
+
+    private Reactor.ChannelConnection accept() throws IOException {
+        SocketChannel channel = server.accept();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, 8 * 1024);
+        return loop.register(channel);
+    }
+
+    private static String readUntil(BufferedReader in, String fragment) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.contains(fragment)) {
+                return line;
+            }
+        }
+        throw new AssertionError("连接关闭，没有收到: " + fragment);
+    }
+
+    @Test
+    void clientSessionOverTextProtocol() throws IOException {
+        try (Socket client = new Socket()) {
+            client.connect(server.getLocalAddress());
+            client.setSoTimeout(5000);
+            Reactor.ChannelConnection connection = accept();
+            OutputStream out = client.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+
+            out.write("CLIENT\nCREATE reactor-t1 新闻 alice\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in, "reactor-t1");
+            // 一次写入多条命令，事件循环逐条解析
+            out.write("SUBSCRIBE reactor-t1 bob\nPUBLISH reactor-t1 hello reactor\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in, "hello reactor");
+
+            out.write("DELETE reactor-t1\n".getBytes(StandardCharsets.UTF_8));
+            readUntil(in, "reactor-t1");
+            connection.close();
+            assertTrue(connection.isClosed());
+            while (in.readLine() != null) {
+                // 读完关闭前已经写出的响应
+            }
+        }
+    }
+
+    // 对端不读，部分消息停在 gathering write 的批次中，关闭后它们都要被释放
+    @Test
+    void closeReleasesBuffersStillBeingWritten() throws Exception {
+        try (SocketChannel client = SocketChannel.open()) {
+            client.setOption(StandardSocketOptions.SO_RCVBUF, 8 * 1024);
+            client.connect(server.getLocalAddress());
+            Reactor.ChannelConnection connection = accept();
+
+            List<SharedBuffer> sent = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                SharedBuffer data = SharedBuffer.wrap(new byte[4 * 1024]);
+                sent.add(data.retain());
+                connection.sendBuffer(data);
+            }
+            // 等到第一条写完、最后一批还没写完
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (sent.get(0).refCount() > 1 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, sent.get(0).refCount());
+            assertEquals(2, sent.get(sent.size() - 1).refCount());
+
+            connection.close();
+            deadline = System.nanoTime() + 5_000_000_000L;
+            for (SharedBuffer data : sent) {
+                while (data.refCount() > 1 && System.nanoTime() < deadline) {
+                    Thread.sleep(1);
+                }
+                assertEquals(1, data.refCount());
+                data.release();
+            }
+            assertEquals(0, connection.queueDepth());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// 测试用的连接：记下收到的每块数据的拷贝后立即释放，queueDepth 可以由测试设置，用来模拟写不出去的对端
+final class RecordingConnection implements Connection {
+    private final boolean binary;
+    private final List<byte[]> received = new ArrayList<>();
+    private volatile boolean closed;
+    volatile int queueDepth;
+    volatile Runnable drainListener;
+
+    RecordingConnection(boolean binary) {
+        this.binary = binary;
+    }
+
+    @Override
+    public void sendBuffer(SharedBuffer buffer) {
+        byte[] data = Arrays.copyOf(buffer.array(), buffer.length());
+        buffer.release();
+        synchronized (received) {
+            received.add(data);
+        }
+    }
+
+    // 到目前为止收到的数据，按收到的顺序
+    List<byte[]> received() {
+        synchronized (received) {
+            return new ArrayList<>(received);
+        }
+    }
+
+    @Override
+    public boolean isBinary() {
+        return binary;
+    }
+
+    @Override
+    public int queueDepth() {
+        return queueDepth;
+    }
+
+    @Override
+    public long droppedMessages() {
+        return 0;
+    }
+
+    @Override
+    public void onDrained(Runnable listener) {
+        this.drainListener = listener;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
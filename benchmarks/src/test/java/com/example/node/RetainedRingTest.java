@@ -0,0 +1,120 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetainedRingTest {
+
+    private static void append(RetainedRing ring, long timestamp, String message) {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        ring.append(timestamp, payload, 0, payload.length);
+    }
+
+    private static List<String> recent(RetainedRing ring, int limit, long nowNanos) {
+        List<String> messages = new ArrayList<>();
+        ring.forEachRecent(limit, nowNanos, (timestamp, payload, offset, length) ->
+                messages.add(new String(payload, offset, length, StandardCharsets.UTF_8)));
+        return messages;
+    }
+
+    @Test
+    void keepsLatestMessagesUpToCount() {
+        RetainedRing ring = new RetainedRing(3, 1024, 0);
+        for (int i = 0; i < 5; i++) {
+            append(ring, i, "m" + i);
+        }
+        assertEquals(3, ring.size());
+        assertEquals(List.of("m2", "m3", "m4"), recent(ring, Integer.MAX_VALUE, 0));
+        assertEquals(List.of("m3", "m4"), recent(ring, 2, 0));
+    }
+
+    @Test
+    void evictsOldestWhenArenaIsFull() {
+        RetainedRing ring = new RetainedRing(100, 10, 0);
+        append(ring, 0, "aaaa");
+        append(ring, 1, "bbbb");
+        append(ring, 2, "cccc");
+        // cccc 放不下末尾剩余的 2 字节，从头写，跳过的部分也算占用
+        assertEquals(List.of("bbbb", "cccc"), recent(ring, Integer.MAX_VALUE, 0));
+        append(ring, 3, "dd");
+        assertEquals(List.of("cccc", "dd"), recent(ring, Integer.MAX_VALUE, 0));
+    }
+
+    @Test
+    void messageLargerThanArenaClearsRing() {
+        RetainedRing ring = new RetainedRing(10, 8, 0);
+        append(ring, 0, "a");
+        append(ring, 1, "b");
+        append(ring, 2, "123456789");
+        assertEquals(0, ring.size());
+        append(ring, 3, "c");
+        assertEquals(List.of("c"), recent(ring, Integer.MAX_VALUE, 0));
+    }
+
+    @Test
+    void skipsExpiredMessagesWhenReading() {
+        RetainedRing ring = new RetainedRing(10, 1024, 1);
+        append(ring, 0, "old");
+        append(ring, 1_500_000, "new");
+        assertEquals(List.of("new"), recent(ring, Integer.MAX_VALUE, 2_000_000));
+        assertEquals(2, ring.size());
+        assertEquals(0, ring.forEachRecent(Integer.MAX_VALUE, 10_000_000, (timestamp, payload, offset, length) -> fail()));
+    }
+
+    @Test
+    void passesTimestampsInOrder() {
+        RetainedRing ring = new RetainedRing(4, 1024, 0);
+        for (int i = 0; i < 6; i++) {
+            append(ring, 100 + i, "m");
+        }
+        List<Long> timestamps = new ArrayList<>();
+        ring.forEachRecent(Integer.MAX_VALUE, 0, (timestamp, payload, offset, length) -> timestamps.add(timestamp));
+        assertEquals(List.of(102L, 103L, 104L, 105L), timestamps);
+    }
+
+    // 随机的上限和消息长度：保留的总是一段连续的最新消息，且不超过条数和字节上限
+    @Test
+    void retainsContiguousSuffixUnderRandomLoad() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 200; trial++) {
+            int maxMessages = 1 + random.nextInt(50);
+            int maxBytes = 1 + random.nextInt(3000);
+            RetainedRing ring = new RetainedRing(maxMessages, maxBytes, 0);
+            List<byte[]> history = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                byte[] message = new byte[random.nextInt(400)];
+                random.nextBytes(message);
+                ring.append(i, message, 0, message.length);
+                history.add(message);
+
+                List<byte[]> retained = new ArrayList<>();
+                List<Long> timestamps = new ArrayList<>();
+                ring.forEachRecent(Integer.MAX_VALUE, 0, (timestamp, payload, offset, length) -> {
+                    retained.add(Arrays.copyOfRange(payload, offset, offset + length));
+                    timestamps.add(timestamp);
+                });
+                if (message.length > maxBytes) {
+                    assertTrue(retained.isEmpty());
+                    continue;
+                }
+                assertFalse(retained.isEmpty());
+                assertTrue(retained.size() <= maxMessages);
+                int total = 0;
+                for (int j = 0; j < retained.size(); j++) {
+                    long expected = i - retained.size() + 1 + j;
+                    assertEquals(expected, timestamps.get(j));
+                    assertArrayEquals(history.get((int) expected), retained.get(j));
+                    total += retained.get(j).length;
+                }
+                assertTrue(total <= maxBytes);
+            }
+        }
+    }
+}
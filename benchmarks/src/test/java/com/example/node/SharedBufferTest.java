@@ -0,0 +1,90 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedBufferTest {
+
+    @Test
+    void retainAndReleaseCountReferences() {
+        SharedBuffer buffer = SharedBuffer.wrap(new byte[]{1, 2, 3});
+        assertEquals(1, buffer.refCount());
+        assertSame(buffer, buffer.retain());
+        assertEquals(2, buffer.refCount());
+        buffer.release();
+        buffer.release();
+        assertEquals(0, buffer.refCount());
+    }
+
+    // 释放后的 retain 和 release 都被拒绝，计数保持为 0
+    @Test
+    void useAfterReleaseLeavesCountUntouched() {
+        SharedBuffer buffer = SharedBuffer.wrap(new byte[8]);
+        buffer.release();
+        assertThrows(IllegalStateException.class, buffer::retain);
+        assertEquals(0, buffer.refCount());
+        assertThrows(IllegalStateException.class, buffer::release);
+        assertEquals(0, buffer.refCount());
+        assertThrows(IllegalStateException.class, buffer::retain);
+        assertEquals(0, buffer.refCount());
+    }
+
+    @Test
+    void releasedPooledBufferIsReused() {
+        SharedBuffer buffer = SharedBuffer.allocate(300);
+        buffer.stamp(42);
+        buffer.release();
+        // 池是全局的，其他档位或先前测试留下的缓冲区不影响这里的判断
+        SharedBuffer again = null;
+        List<SharedBuffer> taken = new ArrayList<>();
+        for (int i = 0; i < 10_000 && again != buffer; i++) {
+            again = SharedBuffer.allocate(300);
+            taken.add(again);
+        }
+        assertSame(buffer, again);
+        assertEquals(1, again.refCount());
+        assertEquals(300, again.length());
+        assertEquals(0, again.stamp());
+        taken.forEach(SharedBuffer::release);
+
+        // 超出池化上限的缓冲区不回收
+        SharedBuffer large = SharedBuffer.allocate(1 << 20);
+        assertEquals(1 << 20, large.array().length);
+        large.release();
+    }
+
+    @Test
+    void concurrentRetainAndReleaseBalance() throws InterruptedException {
+        SharedBuffer buffer = SharedBuffer.wrap(new byte[1]);
+        int threads = 4;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 100_000; i++) {
+                    buffer.retain();
+                    buffer.release();
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(1, buffer.refCount());
+        buffer.release();
+        assertThrows(IllegalStateException.class, buffer::release);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubscriptionTrieTest {
+
+    private static Set<String> match(SubscriptionTrie<String> trie, String topicId) {
+        Set<String> values = new HashSet<>();
+        trie.match(topicId, values::add);
+        return values;
+    }
+
+    @Test
+    void singleLevelWildcardMatchesExactlyOneLevel() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>();
+        trie.add("orders/+/eu", "a");
+        assertEquals(Set.of("a"), match(trie, "orders/123/eu"));
+        assertEquals(Set.of(), match(trie, "orders/eu"));
+        assertEquals(Set.of(), match(trie, "orders/1/2/eu"));
+        assertEquals(Set.of(), match(trie, "orders/123/us"));
+    }
+
+    @Test
+    void multiLevelWildcardMatchesZeroOrMoreLevels() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>();
+        trie.add("orders/#", "a");
+        assertEquals(Set.of("a"), match(trie, "orders"));
+        assertEquals(Set.of("a"), match(trie, "orders/1"));
+        assertEquals(Set.of("a"), match(trie, "orders/1/eu"));
+        assertEquals(Set.of(), match(trie, "order"));
+        assertEquals(Set.of(), match(trie, "payments/1"));
+    }
+
+    @Test
+    void collectsValuesFromAllMatchingFilters() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>();
+        trie.add("#", "all");
+        trie.add("a/b", "exact");
+        trie.add("a/+", "single");
+        trie.add("+/b", "first");
+        trie.add("a/+/c", "deeper");
+        assertEquals(Set.of("all", "exact", "single", "first"), match(trie, "a/b"));
+        assertEquals(Set.of("all"), match(trie, "x/y/z"));
+        assertTrue(trie.matches("a/x/c"));
+
+        // 同一个值匹配多个过滤器时出现多次
+        List<String> values = new ArrayList<>();
+        trie.add("a/#", "single");
+        trie.match("a/b", values::add);
+        assertEquals(2, values.stream().filter("single"::equals).count());
+    }
+
+    // matches 在找到第一个匹配时返回，结果与完整遍历一致
+    @Test
+    void matchesAgreesWithMatch() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>();
+        assertFalse(trie.matches("a"));
+        trie.add("a/+/c", "x");
+        trie.add("b/#", "y");
+        trie.add("+/+", "z");
+        trie.add("d/e", "w");
+        String[] topics = {"a", "a/b", "a/b/c", "a/b/d", "b", "b/x/y", "c", "c/d/e", "d/e", "d/e/f", "", "a//c"};
+        for (String topic : topics) {
+            assertEquals(!match(trie, topic).isEmpty(), trie.matches(topic), topic);
+        }
+
+        // 值被移除后中间节点仍在时不算匹配
+        trie.add("a/b/c", "v");
+        trie.remove("a/+/c", "x");
+        trie.remove("+/+", "z");
+        trie.add("a/+/c/d", "u");
+        assertFalse(trie.matches("a/q/c"));
+        assertTrue(trie.matches("a/b/c"));
+    }
+
+    @Test
+    void validatesFilters() {
+        assertTrue(SubscriptionTrie.isValidFilter("a/+/c"));
+        assertTrue(SubscriptionTrie.isValidFilter("a/#"));
+        assertTrue(SubscriptionTrie.isValidFilter("#"));
+        assertFalse(SubscriptionTrie.isValidFilter("a/#/c"));
+        assertFalse(SubscriptionTrie.isValidFilter("a/b+"));
+        assertFalse(SubscriptionTrie.isValidFilter("a/#b"));
+        assertTrue(SubscriptionTrie.isWildcard("a/+"));
+        assertFalse(SubscriptionTrie.isWildcard("a/b"));
+    }
+
+    @Test
+    void reportsFirstAndLastValue() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>();
+        assertTrue(trie.add("a/+", "x"));
+        assertFalse(trie.add("a/+", "y"));
+        assertFalse(trie.add("a/+", "y"));
+        assertEquals(1, trie.size());
+
+        assertFalse(trie.remove("a/+", "x"));
+        assertFalse(trie.remove("b/+", "y"));
+        assertTrue(trie.remove("a/+", "y"));
+        assertEquals(0, trie.size());
+        assertFalse(trie.matches("a/1"));
+    }
+
+    // 删除后不再有值的中间节点被裁掉，保留仍有值或有子节点的
+    @Test
+    void removePrunesOnlyEmptyNodes() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>();
+        trie.add("a", "x");
+        trie.add("a/b/c", "y");
+        trie.add("a/b/d", "z");
+        assertTrue(trie.remove("a/b/c", "y"));
+        assertEquals(Set.of("a", "a/b/d"), new HashSet<>(trie.filters()));
+        assertTrue(trie.remove("a/b/d", "z"));
+        assertEquals(List.of("a"), trie.filters());
+        assertEquals(Set.of("x"), match(trie, "a"));
+        assertTrue(trie.add("a/b/c", "y"));
+        assertEquals(Set.of("y"), match(trie, "a/b/c"));
+    }
+
+    @Test
+    void removeAllReportsEmptiedFilters() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>();
+        trie.add("a/+", "conn1");
+        trie.add("a/+", "conn2");
+        trie.add("b/#", "conn1");
+        trie.add("c", "conn2");
+        List<String> emptied = new ArrayList<>();
+        trie.removeAll("conn1"::equals, emptied::add);
+        assertEquals(List.of("b/#"), emptied);
+        assertEquals(2, trie.size());
+        assertEquals(Set.of("conn2"), match(trie, "a/1"));
+        assertEquals(Set.of(), match(trie, "b/1"));
+    }
+}
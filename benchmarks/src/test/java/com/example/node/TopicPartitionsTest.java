@@ -0,0 +1,177 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopicPartitionsTest {
+
+    // 模拟事件循环上的一个连接：依次把 total 条命令交给分区，暂停读取后停下，恢复后回到事件循环接着入队
+    private static final class Reader implements Connection {
+        final AtomicInteger suspensions = new AtomicInteger();
+        final AtomicInteger resumptions = new AtomicInteger();
+        private final Reactor.EventLoop loop;
+        private final TopicPartitions partitions;
+        private final List<String> log;
+        private final CountDownLatch done;
+        private final int total;
+        private int next; // 只在事件循环中读写
+        private boolean suspended;
+
+        Reader(Reactor.EventLoop loop, TopicPartitions partitions, List<String> log, CountDownLatch done, int total) {
+            this.loop = loop;
+            this.partitions = partitions;
+            this.log = log;
+            this.done = done;
+            this.total = total;
+        }
+
+        void pump() {
+            while (!suspended && next < total) {
+                partitions.execute("t1", task(log, "loop " + next++, done), this);
+            }
+        }
+
+        @Override
+        public void suspendReads() {
+            assertTrue(Reactor.isEventLoopThread());
+            suspended = true;
+            suspensions.incrementAndGet();
+        }
+
+        @Override
+        public void resumeReads() {
+            resumptions.incrementAndGet();
+            loop.execute(() -> {
+                suspended = false;
+                pump();
+            });
+        }
+
+        @Override
+        public void sendBuffer(SharedBuffer buffer) {
+            buffer.release();
+        }
+
+        @Override
+        public boolean isBinary() {
+            return false;
+        }
+
+        @Override
+        public int queueDepth() {
+            return 0;
+        }
+
+        @Override
+        public long droppedMessages() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+    }
+
+    private static Reactor.EventLoop startEventLoop() throws Exception {
+        Reactor.EventLoop loop = new Reactor.EventLoop();
+        Thread thread = new Thread(loop, "test-event-loop");
+        thread.setDaemon(true);
+        thread.start();
+        return loop;
+    }
+
+    // 分区线程上处理得慢一些，让只有 2 个槽位的收件箱写满
+    private static Runnable task(List<String> log, String entry, CountDownLatch done) {
+        return () -> {
+            long until = System.nanoTime() + 2_000;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            log.add(entry);
+            done.countDown();
+        };
+    }
+
+    // 任务执行完之后分区线程才推进 head，backlog 稍后才归零
+    private static void awaitIdle(TopicPartitions partitions) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (partitions.backlog() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "backlog " + partitions.backlog());
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void tasksRunOnOwnerInSubmissionOrder() throws InterruptedException {
+        TopicPartitions partitions = new TopicPartitions(2, 2);
+        int count = 10_000;
+        List<String> log = new ArrayList<>(); // 只由所属的分区线程写入
+        CountDownLatch done = new CountDownLatch(count);
+        boolean[] owner = {true};
+        for (int i = 0; i < count; i++) {
+            String entry = String.valueOf(i);
+            partitions.execute("t1", () -> {
+                owner[0] &= partitions.isOwner("t1");
+                log.add(entry);
+                done.countDown();
+            }, null);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(owner[0]);
+        assertFalse(partitions.isOwner("t1"));
+        for (int i = 0; i < count; i++) {
+            assertEquals(String.valueOf(i), log.get(i));
+        }
+        awaitIdle(partitions);
+    }
+
+    // 事件循环遇到满的收件箱时放进溢出队列并暂停读取；与普通线程的生产者混在一起，每个生产者的顺序不变
+    @Test
+    void overflowKeepsPerProducerOrder() throws Exception {
+        TopicPartitions partitions = new TopicPartitions(1, 2);
+        Reactor.EventLoop loop = startEventLoop();
+        int perProducer = 5_000;
+        List<String> log = new ArrayList<>(); // 只由分区线程写入
+        CountDownLatch done = new CountDownLatch(perProducer * 3);
+        Reader reader = new Reader(loop, partitions, log, done, perProducer);
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < perProducer; i++) {
+                partitions.execute("t1", task(log, "thread " + i, done), null);
+            }
+        });
+        producer.start();
+        loop.execute(reader::pump);
+        for (int i = 0; i < perProducer; i++) {
+            partitions.execute("t1", task(log, "main " + i, done), null);
+        }
+        producer.join();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        awaitIdle(partitions);
+
+        int[] next = new int[3];
+        String[] producers = {"thread ", "loop ", "main "};
+        assertEquals(perProducer * 3, log.size());
+        for (String entry : log) {
+            for (int p = 0; p < producers.length; p++) {
+                if (entry.startsWith(producers[p])) {
+                    assertEquals(producers[p] + next[p]++, entry);
+                }
+            }
+        }
+        assertTrue(reader.suspensions.get() > 0, "overflow not exercised");
+        assertEquals(reader.suspensions.get(), reader.resumptions.get());
+    }
+}
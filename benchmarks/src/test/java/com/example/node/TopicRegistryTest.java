@@ -0,0 +1,131 @@
+package com.example.node;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopicRegistryTest {
+
+    private static Set<Connection> connections(TopicRegistry registry, String topicId) {
+        Set<Connection> connections = new HashSet<>();
+        registry.subscriptions(topicId).forEach(s -> connections.add(s.connection));
+        return connections;
+    }
+
+    private static Set<Connection> wildcardConnections(TopicRegistry registry, String topicId) {
+        Set<Connection> connections = new HashSet<>();
+        registry.matchWildcards(topicId, s -> connections.add(s.connection));
+        return connections;
+    }
+
+    @Test
+    void resubscribeReplacesFilter() {
+        int baseline = ContentFilter.sharedNodeCount();
+        TopicRegistry registry = new TopicRegistry();
+        Connection a = new RecordingConnection(false);
+        registry.createIfAbsent("t1", "news", "alice");
+        assertTrue(registry.subscribe("t1", "bob", a, ContentFilter.compile("price > 1")));
+        assertTrue(registry.subscribe("t1", "bob", a, ContentFilter.compile("price > 2")));
+        assertEquals(1, registry.subscriptions("t1").size());
+        assertEquals(baseline + 1, ContentFilter.sharedNodeCount());
+
+        // 主题不存在或通配符格式错误时过滤器不会留在共享表中
+        assertFalse(registry.subscribe("missing", "bob", a, ContentFilter.compile("price > 3")));
+        assertFalse(registry.subscribe("a/#/b", "bob", a, ContentFilter.compile("price > 4")));
+        assertEquals(baseline + 1, ContentFilter.sharedNodeCount());
+
+        assertNotNull(registry.delete("t1"));
+        assertEquals(baseline, ContentFilter.sharedNodeCount());
+    }
+
+    @Test
+    void removeConnectionDropsAllItsSubscriptions() {
+        int baseline = ContentFilter.sharedNodeCount();
+        TopicRegistry registry = new TopicRegistry();
+        Connection a = new RecordingConnection(false);
+        Connection b = new RecordingConnection(false);
+        registry.createIfAbsent("t1", "news", "alice");
+        registry.createIfAbsent("t2", "sport", "alice");
+        registry.subscribe("t1", "bob", a, ContentFilter.compile("price > 100"));
+        registry.subscribe("t2", "bob", a, null);
+        registry.subscribe("t1", "carol", b, null);
+        registry.subscribe("t/+", "bob", a, ContentFilter.compile("region = 'EU'"));
+        registry.subscribe("t/#", "carol", b, null);
+        assertEquals(List.of("t/#", "t/+", "t1", "t2"), sorted(registry.localInterests()));
+
+        registry.removeConnection(a);
+        assertEquals(Set.of(b), connections(registry, "t1"));
+        assertEquals(Set.of(), connections(registry, "t2"));
+        assertEquals(Set.of(b), wildcardConnections(registry, "t/1"));
+        assertEquals(List.of("t/#", "t1"), sorted(registry.localInterests()));
+        assertEquals(baseline, ContentFilter.sharedNodeCount());
+
+        // 订阅者名单不随连接断开而改变，只移除推送的目标连接
+        assertEquals(List.of("bob", "carol"), sorted(registry.get("t1").getSubscribers()));
+    }
+
+    // 其他连接并发订阅、取消订阅时移除一个连接：被移除的连接不留下任何订阅，其他连接的订阅不受影响
+    @Test
+    void removeConnectionRacesWithOtherSubscribers() throws InterruptedException {
+        int baseline = ContentFilter.sharedNodeCount();
+        TopicRegistry registry = new TopicRegistry();
+        int topics = 50;
+        for (int i = 0; i < topics; i++) {
+            registry.createIfAbsent("t" + i, "name", "alice");
+        }
+        for (int round = 0; round < 20; round++) {
+            Connection removed = new RecordingConnection(false);
+            for (int i = 0; i < topics; i++) {
+                registry.subscribe("t" + i, "gone", removed, ContentFilter.compile("x = " + i));
+                registry.subscribe("t" + (i % 5) + "/#", "gone", removed, null);
+            }
+            List<Connection> others = new ArrayList<>();
+            List<Thread> threads = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            for (int t = 0; t < 4; t++) {
+                Connection other = new RecordingConnection(false);
+                others.add(other);
+                String subscriber = "s" + t;
+                threads.add(new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < topics; i++) {
+                        registry.subscribe("t" + i, subscriber, other, ContentFilter.compile("x = " + i));
+                        registry.unsubscribe("t" + ((i + 1) % topics), subscriber, other);
+                        registry.subscribe("t" + ((i + 1) % topics), subscriber, other, null);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            start.countDown();
+            registry.removeConnection(removed);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            for (int i = 0; i < topics; i++) {
+                Set<Connection> connections = connections(registry, "t" + i);
+                assertFalse(connections.contains(removed));
+                assertEquals(new HashSet<>(others), connections);
+                assertFalse(wildcardConnections(registry, "t" + i + "/x").contains(removed));
+            }
+            others.forEach(registry::removeConnection);
+        }
+        assertEquals(baseline, ContentFilter.sharedNodeCount());
+    }
+
+    private static List<String> sorted(List<String> values) {
+        List<String> copy = new ArrayList<>(values);
+        copy.sort(null);
+        return copy;
+    }
+}
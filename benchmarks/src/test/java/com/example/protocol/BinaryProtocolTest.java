@@ -0,0 +1,103 @@
+package com.example.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryProtocolTest {
+
+    @Test
+    void encodeAndDecodeRoundTrip() throws IOException {
+        byte[] frame = BinaryProtocol.encode(BinaryProtocol.CREATE, "t1", "新闻", "alice");
+        BinaryProtocol.Frame decoded = BinaryProtocol.decode(ByteBuffer.wrap(frame));
+        assertNotNull(decoded);
+        assertEquals(BinaryProtocol.CREATE, decoded.opcode);
+        assertArrayEquals(new String[]{"CREATE", "t1", "新闻", "alice"}, decoded.toParts());
+    }
+
+    @Test
+    void lengthPrefixExcludesItself() {
+        byte[] frame = BinaryProtocol.encode(BinaryProtocol.DELETE, "t1");
+        assertEquals(frame.length - 4, ByteBuffer.wrap(frame).getInt());
+        assertEquals(BinaryProtocol.DELETE, frame[4]);
+        assertEquals(1, frame[5]);
+    }
+
+    // payload 切片作为最后一个参数，原样保留换行和空白
+    @Test
+    void payloadSliceIsLastArgument() throws IOException {
+        byte[] buf = "xx line 1\n  line 2 yy".getBytes(StandardCharsets.UTF_8);
+        byte[] frame = BinaryProtocol.encode(BinaryProtocol.PUBLISH, buf, 3, buf.length - 6, BinaryProtocol.bytes("t1"));
+        BinaryProtocol.Frame decoded = BinaryProtocol.decode(ByteBuffer.wrap(frame));
+        assertEquals(2, decoded.args.length);
+        assertEquals("t1", decoded.string(0));
+        assertEquals("line 1\n  line 2", decoded.string(1));
+    }
+
+    @Test
+    void decodeWaitsForCompleteFrame() throws IOException {
+        byte[] frame = BinaryProtocol.encode(BinaryProtocol.SUBSCRIBE, "t1", "bob");
+        for (int length = 0; length < frame.length; length++) {
+            ByteBuffer partial = ByteBuffer.wrap(Arrays.copyOf(frame, length));
+            assertNull(BinaryProtocol.decode(partial));
+            assertEquals(0, partial.position());
+        }
+    }
+
+    @Test
+    void decodeConsumesFramesOneByOne() throws IOException {
+        byte[] first = BinaryProtocol.encode(BinaryProtocol.DISPLAY, new String[0]);
+        byte[] second = BinaryProtocol.encode(BinaryProtocol.ACKED, "7");
+        ByteBuffer buffer = ByteBuffer.allocate(first.length + second.length + 3);
+        buffer.put(first).put(second).put(new byte[]{0, 0, 0}).flip();
+
+        assertEquals(BinaryProtocol.DISPLAY, BinaryProtocol.decode(buffer).opcode);
+        assertEquals("7", BinaryProtocol.decode(buffer).string(0));
+        assertNull(BinaryProtocol.decode(buffer));
+        assertEquals(3, buffer.remaining());
+    }
+
+    @Test
+    void rejectsInvalidLengths() {
+        ByteBuffer tooShort = ByteBuffer.allocate(8).putInt(1).flip();
+        assertThrows(IOException.class, () -> BinaryProtocol.decode(tooShort));
+        ByteBuffer tooLong = ByteBuffer.allocate(8).putInt(BinaryProtocol.MAX_FRAME_LENGTH + 1).flip();
+        assertThrows(IOException.class, () -> BinaryProtocol.decode(tooLong));
+
+        // 参数长度超出帧的范围
+        byte[] frame = BinaryProtocol.encode(BinaryProtocol.DELETE, "t1");
+        ByteBuffer.wrap(frame).putInt(6, 100);
+        assertThrows(IOException.class, () -> BinaryProtocol.decode(ByteBuffer.wrap(frame)));
+    }
+
+    @Test
+    void readFromStreamUntilEnd() throws IOException {
+        byte[] first = BinaryProtocol.encode(BinaryProtocol.CREDIT, "10");
+        byte[] second = BinaryProtocol.encode(BinaryProtocol.STATS, new String[0]);
+        byte[] both = new byte[first.length + second.length];
+        System.arraycopy(first, 0, both, 0, first.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(both));
+
+        assertEquals("10", BinaryProtocol.read(in).string(0));
+        assertEquals(BinaryProtocol.STATS, BinaryProtocol.read(in).opcode);
+        assertNull(BinaryProtocol.read(in));
+    }
+
+    @Test
+    void opcodesMapToCommandNames() {
+        for (byte opcode = BinaryProtocol.CREATE; opcode <= BinaryProtocol.MAX_COMMAND; opcode++) {
+            assertEquals(opcode, BinaryProtocol.opcode(BinaryProtocol.command(opcode)));
+        }
+        assertEquals(BinaryProtocol.PUBLISH, BinaryProtocol.opcode("publish"));
+        assertEquals(-1, BinaryProtocol.opcode("NOPE"));
+        assertEquals("UNKNOWN", BinaryProtocol.command((byte) 99));
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.publisher;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PublisherClientTest {
+
+    // 接受一个连接，收到握手后保持连接，直到 disconnect 倒数后断开
+    private static Thread broker(ServerSocket server, CountDownLatch disconnect) {
+        Thread broker = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                InputStream in = socket.getInputStream();
+                in.read();
+                disconnect.await();
+            } catch (IOException | InterruptedException e) {
+                System.out.println(e.getMessage());
+            }
+        });
+        broker.start();
+        return broker;
+    }
+
+    private static void assertFailed(CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+
+    // 批次已经写出、flusher 正在等待新消息时 Broker 断开：请求都以异常完成，flusher 被唤醒后退出
+    @Test
+    void brokerDisconnectFailsRequestsAndStopsFlusher() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CountDownLatch disconnect = new CountDownLatch(1);
+            Thread broker = broker(server, disconnect);
+            PublisherClient client = PublisherClient.builder("127.0.0.1", server.getLocalPort()).connect();
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+            futures.add(client.createTopic("t1", "news", "alice"));
+            for (int i = 0; i < 100; i++) {
+                futures.add(client.publish("t1", "before " + i));
+            }
+            client.flush();
+            disconnect.countDown();
+            broker.join();
+
+            futures.forEach(PublisherClientTest::assertFailed);
+            assertEquals(0, client.inFlight());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (flusherAlive() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertFalse(flusherAlive());
+            assertFailed(client.publish("t1", "after"));
+            client.close();
+        }
+    }
+
+    // 断开的同时其他线程还在发布，不会有 future 一直挂着
+    @Test
+    void disconnectWhilePublishingCompletesEveryFuture() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            CountDownLatch disconnect = new CountDownLatch(1);
+            Thread broker = broker(server, disconnect);
+            PublisherClient client = PublisherClient.builder("127.0.0.1", server.getLocalPort())
+                    .maxInFlight(100_000)
+                    .connect();
+            int publishers = 4;
+            CountDownLatch started = new CountDownLatch(publishers);
+            List<Thread> threads = new ArrayList<>();
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            for (int t = 0; t < publishers; t++) {
+                Thread thread = new Thread(() -> {
+                    started.countDown();
+                    for (int i = 0; i < 20_000; i++) {
+                        CompletableFuture<Long> future = client.publish("t1", "racing");
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            started.await();
+            disconnect.countDown();
+            broker.join();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            futures.forEach(PublisherClientTest::assertFailed);
+            assertEquals(0, client.inFlight());
+            client.close();
+        }
+    }
+
+    private static boolean flusherAlive() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> thread.getName().equals("publisher-flusher") && thread.isAlive());
+    }
+
+    @Test
+    void closeFailsUnacknowledgedRequests() throws IOException, InterruptedException, TimeoutException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread broker = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());
+                }
+            });
+            broker.start();
+            PublisherClient client = PublisherClient.builder("127.0.0.1", server.getLocalPort()).connect();
+            CompletableFuture<Long> future = client.publish("t1", "hello");
+            client.close();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, e.getCause());
+            broker.join(5000);
+            assertFalse(broker.isAlive());
+        }
+    }
+}